@@ -0,0 +1,177 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import java.nio.ByteBuffer;
+import java.util.PrimitiveIterator;
+import java.util.stream.DoubleStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Common base of the compressors writing the 2.x format, the generic {@link GorillaCompressor} and the specialized
+ * {@link LongArrayGorillaCompressor}. Holds only the output, the encoding state is left to the implementations.
+ *
+ * @author Michael Burman
+ */
+public abstract class AbstractGorillaCompressor {
+
+    public final static int FIRST_DELTA_BITS = TimestampCompressor.FIRST_DELTA_BITS;
+
+    /**
+     * Most bits the first point of a block can take, the first delta and the uncompressed value
+     */
+    public final static int MAX_FIRST_POINT_BITS = FIRST_DELTA_BITS + 64;
+
+    /**
+     * Most bits any later point can take, a '1111' + 32 bit delta-of-delta and a '11' + 6 + 6 + 64 bit value
+     */
+    public final static int MAX_POINT_BITS = 4 + 32 + 2 + 6 + 6 + 64;
+
+    /**
+     * Bits written by {@link #close()} before the flush
+     */
+    public final static int END_BITS = 4 + 32 + 1;
+
+    private final BitOutput out;
+
+    AbstractGorillaCompressor(BitOutput output) {
+        this.out = output;
+    }
+
+    /**
+     * Writes the block header
+     *
+     * @param timestamp Block timestamp
+     */
+    void addHeader(long timestamp) {
+        out.writeBits(timestamp, 64);
+    }
+
+    /**
+     * Attaches statistics of the encoding cases, counted only if {@link CompressionStats#ENABLED}. Attach before
+     * adding the points. The block header is counted with the first point, or on close if the block is empty.
+     *
+     * @param stats Statistics to update, or null
+     */
+    public abstract void setStats(CompressionStats stats);
+
+    /**
+     * Amount of bytes required to store the state of this compressor with {@link #saveState(ByteBuffer)}. The
+     * predictor must be a {@link StatefulPredictor}.
+     *
+     * @return State size in bytes
+     */
+    public abstract int getStateSize();
+
+    /**
+     * Writes the state of the compressor, including the value compressor and predictor states, to the buffer. The
+     * state does not include the compressed bits, those are stored in the BitOutput. The predictor must be a
+     * {@link StatefulPredictor}. Continue the block with
+     * {@link GorillaCompressor#restore(ByteBuffer, BitOutput, StatefulPredictor)}.
+     *
+     * @param buffer Buffer to write the state to
+     */
+    public abstract void saveState(ByteBuffer buffer);
+
+    /**
+     * @return true if no points have been added
+     */
+    abstract boolean isEmpty();
+
+    /**
+     * Adds a new long value to the series. Note, values must be inserted in order.
+     *
+     * @param timestamp Timestamp which is inside the allowed time block (default 24 hours with millisecond precision)
+     * @param value next floating point value in the series
+     */
+    public abstract void addValue(long timestamp, long value);
+
+    /**
+     * Adds a new double value to the series. Note, values must be inserted in order.
+     *
+     * @param timestamp Timestamp which is inside the allowed time block (default 24 hours with millisecond precision)
+     * @param value next floating point value in the series
+     */
+    public abstract void addValue(long timestamp, double value);
+
+    /**
+     * Adds a new long value to the series if the output has room for it in the worst case, leaving room for
+     * {@link #close()}. Intended for fixed size outputs such as {@link BoundedLongArrayOutput}.
+     *
+     * @param timestamp Timestamp which is inside the allowed time block
+     * @param value next long value in the series
+     * @return false if the block is full, the point was not added and the block should be closed
+     */
+    public boolean tryAddValue(long timestamp, long value) {
+        int required = (isEmpty() ? MAX_FIRST_POINT_BITS : MAX_POINT_BITS) + END_BITS;
+        if(out.getRemainingBits() < required) {
+            return false;
+        }
+        addValue(timestamp, value);
+        return true;
+    }
+
+    /**
+     * Adds a new double value to the series if the output has room for it, see {@link #tryAddValue(long, long)}.
+     *
+     * @param timestamp Timestamp which is inside the allowed time block
+     * @param value next floating point value in the series
+     * @return false if the block is full, the point was not added and the block should be closed
+     */
+    public boolean tryAddValue(long timestamp, double value) {
+        return tryAddValue(timestamp, Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Adds all the points of the stream to the series, in encounter order.
+     *
+     * @param pairs Points in increasing timestamp order
+     */
+    public void compress(Stream<Pair> pairs) {
+        pairs.forEachOrdered(p -> addValue(p.getTimestamp(), p.getLongValue()));
+    }
+
+    /**
+     * Adds the long values with their timestamps to the series. Both streams must have the same amount of elements.
+     *
+     * @param timestamps Timestamps in increasing order
+     * @param values Long values matching the timestamps
+     */
+    public void compress(LongStream timestamps, LongStream values) {
+        PrimitiveIterator.OfLong t = timestamps.iterator();
+        PrimitiveIterator.OfLong v = values.iterator();
+        while(t.hasNext() && v.hasNext()) {
+            addValue(t.nextLong(), v.nextLong());
+        }
+        if(t.hasNext() || v.hasNext()) {
+            throw new IllegalArgumentException("Timestamps and values have different amount of elements");
+        }
+    }
+
+    /**
+     * Adds the double values with their timestamps to the series. Both streams must have the same amount of
+     * elements.
+     *
+     * @param timestamps Timestamps in increasing order
+     * @param values Floating point values matching the timestamps
+     */
+    public void compress(LongStream timestamps, DoubleStream values) {
+        PrimitiveIterator.OfLong t = timestamps.iterator();
+        PrimitiveIterator.OfDouble v = values.iterator();
+        while(t.hasNext() && v.hasNext()) {
+            addValue(t.nextLong(), v.nextDouble());
+        }
+        if(t.hasNext() || v.hasNext()) {
+            throw new IllegalArgumentException("Timestamps and values have different amount of elements");
+        }
+    }
+
+    /**
+     * Closes the block and writes the remaining stuff to the BitOutput.
+     */
+    public void close() {
+        out.writeBits(0x0F, 4);
+        out.writeBits(0xFFFFFFFF, 32);
+        out.skipBit();
+        out.flush();
+    }
+}
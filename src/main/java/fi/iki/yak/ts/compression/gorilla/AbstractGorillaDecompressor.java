@@ -0,0 +1,244 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.LongConsumer;
+import java.util.stream.DoubleStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Common base of the decompressors reading the 2.x format, the generic {@link GorillaDecompressor} and the specialized
+ * {@link LongArrayGorillaDecompressor}. Holds only the block header and the current pair, the decoding state is left
+ * to the implementations.
+ *
+ * @author Michael Burman
+ */
+public abstract class AbstractGorillaDecompressor {
+    long storedTimestamp = 0;
+    long storedVal = 0;
+    boolean endOfStream = false;
+
+    private long blockTimestamp = 0;
+
+    AbstractGorillaDecompressor(BitInput input) {
+        readHeader(input);
+    }
+
+    /**
+     * Starts reading a new block, allowing to reuse this decompressor for multiple blocks.
+     *
+     * @param input Input positioned at the start of a block
+     */
+    public void reset(BitInput input) {
+        storedTimestamp = 0;
+        storedVal = 0;
+        endOfStream = false;
+        readHeader(input);
+    }
+
+    private void readHeader(BitInput input) {
+        blockTimestamp = input.getLong(64);
+    }
+
+    /**
+     * Attaches statistics of the encoding cases, counted only if {@link CompressionStats#ENABLED}. Attach before
+     * reading the points. The block header is counted when the first point of the block is read.
+     *
+     * @param stats Statistics to update, or null
+     */
+    public abstract void setStats(CompressionStats stats);
+
+    /**
+     * Returns the next pair in the time series, if available.
+     *
+     * @return Pair if there's next value, null if series is done.
+     */
+    public Pair readPair() {
+        next();
+        if(endOfStream) {
+            return null;
+        }
+        Pair pair = new Pair(storedTimestamp, storedVal);
+        return pair;
+    }
+
+    /**
+     * Moves to the next pair in the time series without allocating a Pair. Use {@link #getTimestamp()} and
+     * {@link #getLongValue()} or {@link #getDoubleValue()} to access the values of the current pair.
+     *
+     * @return true if there's next value, false if series is done.
+     */
+    public abstract boolean next();
+
+    /**
+     * Moves over the next n pairs as if {@link #next()} was called n times, the last skipped pair becomes the current
+     * one.
+     *
+     * @param n Amount of pairs to skip
+     * @return Amount of pairs skipped, less than n if the series ended
+     */
+    public abstract int skip(int n);
+
+    /**
+     * Counts the remaining pairs by parsing only the control bits and jumping over the payloads. Consumes this
+     * decompressor, {@link #next()} returns false afterwards.
+     *
+     * @return Amount of pairs left in the series
+     */
+    public abstract int count();
+
+    /**
+     * Reads the remaining pairs and passes only the ones matching the predicate to the consumer.
+     *
+     * @param predicate Selects the pairs
+     * @param consumer Receives the matching pairs
+     * @return Amount of pairs given to the consumer
+     */
+    public int filter(PairPredicate predicate, PairConsumer consumer) {
+        int matched = 0;
+        while(next()) {
+            if(predicate.test(storedTimestamp, storedVal)) {
+                consumer.accept(storedTimestamp, storedVal);
+                matched++;
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Reads up to {@code bitmap.length * 64} of the remaining pairs and marks the ones matching the predicate. The
+     * i:th pair read sets bit {@code i % 64} of word {@code i / 64}, the layout of
+     * {@link java.util.BitSet#valueOf(long[])}. The words are overwritten, so the same bitmap can be reused for the
+     * following pairs.
+     *
+     * @param predicate Selects the pairs
+     * @param bitmap Receives a set bit for each matching pair
+     * @return Amount of pairs read, less than the capacity of the bitmap only if the series ended
+     */
+    public int filter(PairPredicate predicate, long[] bitmap) {
+        int read = 0;
+        for(int i = 0; i < bitmap.length; i++) {
+            long word = 0;
+            for(int bit = 0; bit < Long.SIZE && next(); bit++) {
+                if(predicate.test(storedTimestamp, storedVal)) {
+                    word |= 1L << bit;
+                }
+                read++;
+            }
+            bitmap[i] = word;
+        }
+        return read;
+    }
+
+    /**
+     * @return Timestamp of the current pair
+     */
+    public long getTimestamp() {
+        return storedTimestamp;
+    }
+
+    /**
+     * @return Value of the current pair as a long, or the raw bits of a double value
+     */
+    public long getLongValue() {
+        return storedVal;
+    }
+
+    /**
+     * @return Value of the current pair as a double
+     */
+    public double getDoubleValue() {
+        return Double.longBitsToDouble(storedVal);
+    }
+
+    /**
+     * @return Block timestamp read from the header of the stream
+     */
+    public long getBlockTimestamp() {
+        return blockTimestamp;
+    }
+
+    /**
+     * Returns the timestamps of the remaining points as a stream. Reading the stream consumes this decompressor.
+     *
+     * @return Ordered stream of timestamps
+     */
+    public LongStream timestamps() {
+        return StreamSupport.longStream(new Spliterators.AbstractLongSpliterator(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(LongConsumer action) {
+                if(!next()) {
+                    return false;
+                }
+                action.accept(storedTimestamp);
+                return true;
+            }
+        }, false);
+    }
+
+    /**
+     * Returns the long values of the remaining points as a stream. Reading the stream consumes this decompressor.
+     *
+     * @return Ordered stream of values
+     */
+    public LongStream longValues() {
+        return StreamSupport.longStream(new Spliterators.AbstractLongSpliterator(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(LongConsumer action) {
+                if(!next()) {
+                    return false;
+                }
+                action.accept(storedVal);
+                return true;
+            }
+        }, false);
+    }
+
+    /**
+     * Returns the double values of the remaining points as a stream. Reading the stream consumes this decompressor.
+     *
+     * @return Ordered stream of values
+     */
+    public DoubleStream doubleValues() {
+        return StreamSupport.doubleStream(new Spliterators.AbstractDoubleSpliterator(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(DoubleConsumer action) {
+                if(!next()) {
+                    return false;
+                }
+                action.accept(Double.longBitsToDouble(storedVal));
+                return true;
+            }
+        }, false);
+    }
+
+    /**
+     * Returns the remaining points as a stream. The same Pair instance is reused for every point, so copy the values
+     * if they need to be retained. Reading the stream consumes this decompressor.
+     *
+     * @return Ordered stream of points
+     */
+    public Stream<Pair> stream() {
+        Pair cursor = new Pair(0, 0);
+        return StreamSupport.stream(new Spliterators.AbstractSpliterator<Pair>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super Pair> action) {
+                if(!next()) {
+                    return false;
+                }
+                cursor.set(storedTimestamp, storedVal);
+                action.accept(cursor);
+                return true;
+            }
+        }, false);
+    }
+
+}
@@ -22,11 +22,36 @@ public interface BitInput {
      */
     long getLong(int bits);
 
+    /**
+     * Returns the next bits of the stream without reading them. Bits past the end of the stream are zeros.
+     *
+     * @param bits Amount of bits to return, between 1 and 32
+     * @return The bits as the least significant bits of the value
+     */
+    long peekBits(int bits);
+
+    /**
+     * Skips the given amount of bits, usually after {@link #peekBits(int)}.
+     *
+     * @param bits Amount of bits to skip, between 0 and 64
+     */
+    void consume(int bits);
+
     /**
      * Read until next unset bit is found, or until maxBits has been reached.
      *
-     * @param maxBits How many bits at maximum until returning
+     * @param maxBits How many bits at maximum until returning, at most 32
      * @return Integer value of the read bits
      */
-    int nextClearBit(int maxBits);
+    default int nextClearBit(int maxBits) {
+        long window = peekBits(maxBits);
+        // The set bits before the first clear bit, without a loop or a branch per bit
+        int ones = Long.numberOfLeadingZeros(~(window << (Long.SIZE - maxBits)));
+        if(ones >= maxBits) {
+            consume(maxBits);
+            return (1 << maxBits) - 1;
+        }
+        consume(ones + 1);
+        return ((1 << ones) - 1) << 1;
+    }
 }
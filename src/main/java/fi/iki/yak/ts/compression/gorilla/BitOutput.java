@@ -29,4 +29,11 @@ public interface BitOutput {
      * Flushes the current byte to the underlying stream
      */
     void flush();
+
+    /**
+     * @return Amount of bits that can still be written, Long.MAX_VALUE if the output grows as needed
+     */
+    default long getRemainingBits() {
+        return Long.MAX_VALUE;
+    }
 }
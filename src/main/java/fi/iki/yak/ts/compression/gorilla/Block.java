@@ -0,0 +1,265 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import fi.iki.yak.ts.compression.gorilla.predictors.LastValuePredictor;
+
+/**
+ * A closed block of compressed 2.x data with the metadata required to find it without decompressing. Blocks are
+ * immutable, the array returned by {@link #getLongArray()} must not be modified. A block can also be a snapshot of
+ * an open block, in which case it has no end marker and only count points can be read from it.
+ *
+ * @author Michael Burman
+ */
+public class Block {
+
+    /**
+     * Where the compressed data of a block is stored
+     */
+    public enum Tier {
+        /**
+         * Long array on the heap
+         */
+        HEAP,
+        /**
+         * Direct buffer outside of the heap
+         */
+        OFF_HEAP,
+        /**
+         * Memory mapped file
+         */
+        MAPPED
+    }
+
+    private final long[] data;
+    private final long firstTimestamp;
+    private final long lastTimestamp;
+    private final int count;
+    private final double minValue;
+    private final double maxValue;
+
+    /**
+     * Creates a block with known metadata, without a summary of the values
+     *
+     * @param data Closed block, as returned by {@link LongArrayOutput#getLongArray()}
+     * @param firstTimestamp Timestamp of the first point in the block
+     * @param lastTimestamp Timestamp of the last point in the block
+     * @param count Amount of points in the block
+     */
+    public Block(long[] data, long firstTimestamp, long lastTimestamp, int count) {
+        this(data, firstTimestamp, lastTimestamp, count, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Creates a block with known metadata and the range of its double values, NaN values excluded. An unknown range
+     * is from negative to positive infinity.
+     *
+     * @param data Closed block, as returned by {@link LongArrayOutput#getLongArray()}
+     * @param firstTimestamp Timestamp of the first point in the block
+     * @param lastTimestamp Timestamp of the last point in the block
+     * @param count Amount of points in the block
+     * @param minValue Smallest double value in the block
+     * @param maxValue Largest double value in the block
+     */
+    public Block(long[] data, long firstTimestamp, long lastTimestamp, int count, double minValue, double maxValue) {
+        this.data = data;
+        this.firstTimestamp = firstTimestamp;
+        this.lastTimestamp = lastTimestamp;
+        this.count = count;
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+    }
+
+    /**
+     * For blocks that store their data elsewhere than in a long array
+     */
+    protected Block(long firstTimestamp, long lastTimestamp, int count) {
+        this(null, firstTimestamp, lastTimestamp, count);
+    }
+
+    /**
+     * For blocks that store their data elsewhere than in a long array, with the range of their double values
+     */
+    protected Block(long firstTimestamp, long lastTimestamp, int count, double minValue, double maxValue) {
+        this(null, firstTimestamp, lastTimestamp, count, minValue, maxValue);
+    }
+
+    /**
+     * Creates a block and reads the metadata by scanning the block. The control bits do not depend on the predictor,
+     * so the block can be scanned regardless of the predictor it was compressed with. The range of the values is not
+     * known, use {@link #of(long[], Predictor)} to read it as well.
+     *
+     * @param data Closed block, as returned by {@link LongArrayOutput#getLongArray()}
+     * @return Block with the metadata of the data
+     */
+    public static Block of(long[] data) {
+        Block block = of(data, new LastValuePredictor());
+        return new Block(data, block.firstTimestamp, block.lastTimestamp, block.count);
+    }
+
+    /**
+     * Creates a block and reads the metadata, including the range of the values, by decompressing the block.
+     *
+     * @param data Closed block, as returned by {@link LongArrayOutput#getLongArray()}
+     * @param predictor Predictor matching the one used to compress the block
+     * @return Block with the metadata of the data
+     */
+    public static Block of(long[] data, Predictor predictor) {
+        GorillaDecompressor d = new GorillaDecompressor(new LongArrayInput(data), predictor);
+        long first = 0;
+        long last = 0;
+        int count = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        while(d.next()) {
+            if(count == 0) {
+                first = d.getTimestamp();
+            }
+            last = d.getTimestamp();
+            count++;
+            double value = d.getDoubleValue();
+            // NaN fails both comparisons
+            if(value < min) {
+                min = value;
+            }
+            if(value > max) {
+                max = value;
+            }
+        }
+        return new Block(data, first, last, count, min, max);
+    }
+
+    /**
+     * @return Block timestamp stored in the header of the block
+     */
+    public long getBlockTimestamp() {
+        return data[0];
+    }
+
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return Smallest double value of the block, NaN values excluded, or negative infinity if not known
+     */
+    public double getMinValue() {
+        return minValue;
+    }
+
+    /**
+     * @return Largest double value of the block, NaN values excluded, or positive infinity if not known
+     */
+    public double getMaxValue() {
+        return maxValue;
+    }
+
+    /**
+     * @return Compressed data of this block, must not be modified. Blocks that are not on the heap return a copy.
+     */
+    public long[] getLongArray() {
+        return data;
+    }
+
+    /**
+     * @return true if the data is stored in a long array, which {@link #getLongArray()} returns without copying
+     */
+    public boolean hasArray() {
+        return true;
+    }
+
+    public Tier getTier() {
+        return Tier.HEAP;
+    }
+
+    /**
+     * @return Size of the compressed data in bytes
+     */
+    public long getSizeInBytes() {
+        return (long) data.length * Long.BYTES;
+    }
+
+    /**
+     * @return A new BitInput positioned at the start of this block
+     */
+    public BitInput getInput() {
+        return new LongArrayInput(data);
+    }
+
+    /**
+     * Checks if this block could have points inside the given time range
+     *
+     * @param from Start of the range, inclusive
+     * @param to End of the range, inclusive
+     * @return true if the block overlaps the range
+     */
+    public boolean overlaps(long from, long to) {
+        return count > 0 && firstTimestamp <= to && lastTimestamp >= from;
+    }
+
+    /**
+     * Decompresses the points of this block that are inside the given time range
+     *
+     * @param predictor Predictor matching the one used to compress the block
+     * @param from Start of the range, inclusive
+     * @param to End of the range, inclusive
+     * @param consumer Receives the points
+     * @return Amount of points given to the consumer
+     */
+    public int read(Predictor predictor, long from, long to, PairConsumer consumer) {
+        if(!overlaps(from, to)) {
+            return 0;
+        }
+        AbstractGorillaDecompressor d = GorillaDecompressor.create(getInput(), predictor);
+        int read = 0;
+        // Stop at count, a snapshot of an open block has no end marker
+        for(int i = 0; i < count && d.next(); i++) {
+            long timestamp = d.getTimestamp();
+            if(timestamp > to) {
+                break;
+            }
+            if(timestamp >= from) {
+                consumer.accept(timestamp, d.getLongValue());
+                read++;
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Decompresses the points of this block that are inside the given time range and match the predicate. The block
+     * is not decompressed if {@link PairPredicate#mayMatch(double, double)} rules out its value range.
+     *
+     * @param predictor Predictor matching the one used to compress the block
+     * @param from Start of the range, inclusive
+     * @param to End of the range, inclusive
+     * @param predicate Selects the points
+     * @param consumer Receives the matching points
+     * @return Amount of points given to the consumer
+     */
+    public int filter(Predictor predictor, long from, long to, PairPredicate predicate, PairConsumer consumer) {
+        if(!overlaps(from, to) || !predicate.mayMatch(minValue, maxValue)) {
+            return 0;
+        }
+        AbstractGorillaDecompressor d = GorillaDecompressor.create(getInput(), predictor);
+        int matched = 0;
+        for(int i = 0; i < count && d.next(); i++) {
+            long timestamp = d.getTimestamp();
+            if(timestamp > to) {
+                break;
+            }
+            long value = d.getLongValue();
+            if(timestamp >= from && predicate.test(timestamp, value)) {
+                consumer.accept(timestamp, value);
+                matched++;
+            }
+        }
+        return matched;
+    }
+}
@@ -0,0 +1,292 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import fi.iki.yak.ts.compression.gorilla.predictors.LastValuePredictor;
+
+/**
+ * Least recently used cache of decompressed blocks, bounded by the amount of bytes the decompressed points take. A
+ * cached block is read with array accesses instead of decompressing it again. The points can be stored on the heap
+ * or in direct buffers outside of it.
+ *
+ * Blocks are cached by their identity, so only blocks that are never modified (closed blocks) should be read
+ * through the cache.
+ *
+ * @author Michael Burman
+ */
+public class BlockCache {
+    // Rough size of the entry, the map node and the array headers
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final long maxBytes;
+    private final boolean offHeap;
+    private final Supplier<Predictor> predictorSupplier;
+    private final LinkedHashMap<Block, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Creates a cache storing the points on the heap, decompressing with the LastValuePredictor
+     *
+     * @param maxBytes Maximum size of the cached points in bytes
+     */
+    public BlockCache(long maxBytes) {
+        this(maxBytes, false, LastValuePredictor::new);
+    }
+
+    /**
+     * @param maxBytes Maximum size of the cached points in bytes
+     * @param offHeap Store the points in direct buffers instead of heap arrays
+     * @param predictorSupplier Creates the predictors for decompressing the blocks
+     */
+    public BlockCache(long maxBytes, boolean offHeap, Supplier<Predictor> predictorSupplier) {
+        if(maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.maxBytes = maxBytes;
+        this.offHeap = offHeap;
+        this.predictorSupplier = predictorSupplier;
+    }
+
+    /**
+     * Reads the points of the block inside the given time range, decompressing and caching the block if it is not
+     * cached already.
+     *
+     * @param block Closed block to read
+     * @param from Start of the range, inclusive
+     * @param to End of the range, inclusive
+     * @param consumer Receives the points
+     * @return Amount of points given to the consumer
+     */
+    public int read(Block block, long from, long to, PairConsumer consumer) {
+        if(!block.overlaps(from, to)) {
+            return 0;
+        }
+        return entry(block).read(from, to, consumer);
+    }
+
+    /**
+     * Returns all the points of the block, decompressing and caching the block if it is not cached already.
+     *
+     * @param block Closed block to read
+     * @return Copy of the points of the block
+     */
+    public DataPoints get(Block block) {
+        DataPoints points = new DataPoints(block.getCount());
+        entry(block).read(Long.MIN_VALUE, Long.MAX_VALUE, points);
+        return points;
+    }
+
+    private Entry entry(Block block) {
+        synchronized(entries) {
+            Entry entry = entries.get(block);
+            if(entry != null) {
+                hits++;
+                return entry;
+            }
+            misses++;
+        }
+
+        // Decompress without holding the lock, concurrent misses of the same block may both decompress it
+        DataPoints points = new DataPoints(block.getCount());
+        block.read(predictorSupplier.get(), Long.MIN_VALUE, Long.MAX_VALUE, points);
+        Entry entry = offHeap ? new DirectEntry(points) : new HeapEntry(points);
+        if(entry.bytes() > maxBytes) {
+            return entry;
+        }
+
+        synchronized(entries) {
+            Entry existing = entries.putIfAbsent(block, entry);
+            if(existing != null) {
+                return existing;
+            }
+            bytes += entry.bytes();
+            Iterator<Map.Entry<Block, Entry>> iterator = entries.entrySet().iterator();
+            while(bytes > maxBytes && iterator.hasNext()) {
+                Entry eldest = iterator.next().getValue();
+                if(eldest == entry) {
+                    continue;
+                }
+                bytes -= eldest.bytes();
+                iterator.remove();
+                evictions++;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Removes the block from the cache, if cached
+     *
+     * @param block Block to remove
+     */
+    public void invalidate(Block block) {
+        synchronized(entries) {
+            Entry entry = entries.remove(block);
+            if(entry != null) {
+                bytes -= entry.bytes();
+            }
+        }
+    }
+
+    /**
+     * Removes all the blocks from the cache. The counters are not reset.
+     */
+    public void clear() {
+        synchronized(entries) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    /**
+     * @return Amount of cached blocks
+     */
+    public int size() {
+        synchronized(entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return Bytes used by the cached points
+     */
+    public long getBytes() {
+        synchronized(entries) {
+            return bytes;
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getHitCount() {
+        synchronized(entries) {
+            return hits;
+        }
+    }
+
+    public long getMissCount() {
+        synchronized(entries) {
+            return misses;
+        }
+    }
+
+    public long getEvictionCount() {
+        synchronized(entries) {
+            return evictions;
+        }
+    }
+
+    private abstract static class Entry {
+        final int size;
+
+        Entry(int size) {
+            this.size = size;
+        }
+
+        abstract long timestamp(int index);
+
+        abstract long value(int index);
+
+        long bytes() {
+            return 2L * Long.BYTES * size + ENTRY_OVERHEAD;
+        }
+
+        /**
+         * @return Index of the first point at or after the timestamp
+         */
+        int lowerBound(long from) {
+            int low = 0;
+            int high = size;
+            while(low < high) {
+                int mid = (low + high) >>> 1;
+                if(timestamp(mid) < from) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        int read(long from, long to, PairConsumer consumer) {
+            int read = 0;
+            for(int i = lowerBound(from); i < size; i++) {
+                long timestamp = timestamp(i);
+                if(timestamp > to) {
+                    break;
+                }
+                consumer.accept(timestamp, value(i));
+                read++;
+            }
+            return read;
+        }
+    }
+
+    private static class HeapEntry extends Entry {
+        private final long[] timestamps;
+        private final long[] values;
+
+        HeapEntry(DataPoints points) {
+            super(points.size());
+            this.timestamps = points.timestampArray();
+            this.values = points.valueArray();
+        }
+
+        @Override
+        long timestamp(int index) {
+            return timestamps[index];
+        }
+
+        @Override
+        long value(int index) {
+            return values[index];
+        }
+
+        @Override
+        int read(long from, long to, PairConsumer consumer) {
+            if(!(consumer instanceof DataPoints)) {
+                return super.read(from, to, consumer);
+            }
+            int lower = lowerBound(from);
+            int upper = lower;
+            while(upper < size && timestamps[upper] <= to) {
+                upper++;
+            }
+            ((DataPoints) consumer).append(timestamps, values, lower, upper - lower);
+            return upper - lower;
+        }
+    }
+
+    private static class DirectEntry extends Entry {
+        // Timestamps followed by the values, only absolute gets are used so the buffer can be shared between threads
+        private final LongBuffer points;
+
+        DirectEntry(DataPoints points) {
+            super(points.size());
+            this.points = ByteBuffer.allocateDirect(2 * Long.BYTES * size).asLongBuffer();
+            this.points.put(points.timestampArray(), 0, size);
+            this.points.put(points.valueArray(), 0, size);
+        }
+
+        @Override
+        long timestamp(int index) {
+            return points.get(index);
+        }
+
+        @Override
+        long value(int index) {
+            return points.get(size + index);
+        }
+    }
+}
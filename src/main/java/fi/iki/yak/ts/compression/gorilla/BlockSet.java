@@ -0,0 +1,513 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.stream.DoubleStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import fi.iki.yak.ts.compression.gorilla.predictors.LastValuePredictor;
+
+/**
+ * A time ordered set of blocks of a single series, allowing range scans over all of them. The blocks must not overlap
+ * each other in time. A parallel scan splits the blocks between workers, each worker decompressing its blocks
+ * directly to the correct position of a shared output.
+ *
+ * @author Michael Burman
+ */
+public class BlockSet {
+    private static final int TASKS_PER_THREAD = 4;
+
+    private final Block[] blocks;
+    private final Supplier<StatefulPredictor> predictorSupplier;
+    private final long[] offsets;
+
+    public BlockSet(List<Block> blocks) {
+        this(blocks, LastValuePredictor::new);
+    }
+
+    /**
+     * @param blocks Blocks of a single series, in any order
+     * @param predictorSupplier Creates the predictors for decompressing, each is reset for every block it decodes
+     */
+    public BlockSet(List<Block> blocks, Supplier<StatefulPredictor> predictorSupplier) {
+        this.blocks = blocks.stream()
+                .filter(b -> b.getCount() > 0)
+                .sorted(Comparator.comparingLong(Block::getFirstTimestamp))
+                .toArray(Block[]::new);
+        this.predictorSupplier = predictorSupplier;
+
+        for(int i = 1; i < this.blocks.length; i++) {
+            if(this.blocks[i].getFirstTimestamp() < this.blocks[i - 1].getLastTimestamp()) {
+                throw new IllegalArgumentException("Blocks must not overlap, block starting at " +
+                        this.blocks[i].getFirstTimestamp() + " overlaps the previous block");
+            }
+        }
+
+        offsets = new long[this.blocks.length + 1];
+        for(int i = 0; i < this.blocks.length; i++) {
+            offsets[i + 1] = offsets[i] + this.blocks[i].getCount();
+        }
+    }
+
+    /**
+     * @return Amount of non-empty blocks in this set
+     */
+    public int size() {
+        return blocks.length;
+    }
+
+    /**
+     * @return Total amount of points in the blocks
+     */
+    public long getCount() {
+        return offsets[blocks.length];
+    }
+
+    /**
+     * Returns the timestamps of all the points. The stream is sized and splits on block boundaries, so it can be
+     * processed in parallel.
+     *
+     * @return Ordered stream of timestamps
+     */
+    public LongStream timestamps() {
+        return StreamSupport.longStream(new TimestampSpliterator(0, blocks.length), false);
+    }
+
+    /**
+     * @return Ordered stream of the values as longs, see {@link #timestamps()}
+     */
+    public LongStream longValues() {
+        return StreamSupport.longStream(new LongValueSpliterator(0, blocks.length), false);
+    }
+
+    /**
+     * @return Ordered stream of the values as doubles, see {@link #timestamps()}
+     */
+    public DoubleStream doubleValues() {
+        return StreamSupport.doubleStream(new DoubleValueSpliterator(0, blocks.length), false);
+    }
+
+    /**
+     * Returns all the points as a stream. Each split of the stream reuses a single Pair instance for every point,
+     * so copy the values if they need to be retained.
+     *
+     * @return Ordered stream of points
+     */
+    public Stream<Pair> stream() {
+        return StreamSupport.stream(new PairSpliterator(0, blocks.length), false);
+    }
+
+    /**
+     * Reads the points inside the given range in the calling thread, in time order.
+     *
+     * @param from Start of the range, inclusive
+     * @param to End of the range, inclusive
+     * @param consumer Receives the points
+     * @return Amount of points read
+     */
+    public int scan(long from, long to, PairConsumer consumer) {
+        int first = firstBlock(from);
+        int last = lastBlock(to);
+
+        Decoder decoder = new Decoder(predictorSupplier.get());
+        int read = 0;
+        for(int i = first; i <= last; i++) {
+            read += decoder.read(blocks[i], from, to, consumer);
+        }
+        return read;
+    }
+
+    /**
+     * Reads the points inside the given range that match the predicate in the calling thread, in time order. Blocks
+     * whose value range can not match are skipped without decompressing them.
+     *
+     * @param from Start of the range, inclusive
+     * @param to End of the range, inclusive
+     * @param predicate Selects the points
+     * @param consumer Receives the matching points
+     * @return Amount of points given to the consumer
+     */
+    public int filter(long from, long to, PairPredicate predicate, PairConsumer consumer) {
+        int first = firstBlock(from);
+        int last = lastBlock(to);
+
+        Decoder decoder = new Decoder(predictorSupplier.get());
+        int matched = 0;
+        for(int i = first; i <= last; i++) {
+            Block block = blocks[i];
+            if(predicate.mayMatch(block.getMinValue(), block.getMaxValue())) {
+                matched += decoder.filter(block, from, to, predicate, consumer);
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Reads the points inside the given range in parallel using the common ForkJoinPool.
+     *
+     * @param from Start of the range, inclusive
+     * @param to End of the range, inclusive
+     * @return Points in time order
+     */
+    public DataPoints scan(long from, long to) {
+        DataPoints output = new DataPoints(0);
+        scan(from, to, output, ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+        return output;
+    }
+
+    /**
+     * Reads the points inside the given range in parallel. The blocks are split to tasks of about equal amount of
+     * points and each task decompresses its blocks to the output with its own decompressor.
+     *
+     * @param from Start of the range, inclusive
+     * @param to End of the range, inclusive
+     * @param output Receives the points in time order, existing points are cleared
+     * @param executor Executor to run the tasks
+     * @param parallelism Amount of threads in the executor
+     */
+    public void scan(long from, long to, DataPoints output, Executor executor, int parallelism) {
+        output.clear();
+        int first = firstBlock(from);
+        int last = lastBlock(to);
+        if(first > last) {
+            return;
+        }
+
+        // Every block has a known amount of points, so the position of each block in the output is known up front
+        int[] offsets = new int[last - first + 2];
+        for(int i = first; i <= last; i++) {
+            offsets[i - first + 1] = offsets[i - first] + blocks[i].getCount();
+        }
+        int total = offsets[offsets.length - 1];
+        output.ensureCapacity(total);
+        long[] timestamps = output.timestampArray();
+        long[] values = output.valueArray();
+
+        int tasks = Math.max(1, Math.min(last - first + 1, parallelism * TASKS_PER_THREAD));
+        int pointsPerTask = (total + tasks - 1) / tasks;
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>(tasks);
+        int taskStart = first;
+        for(int i = first; i <= last; i++) {
+            if(i == last || offsets[i - first + 1] - offsets[taskStart - first] >= pointsPerTask) {
+                int start = taskStart;
+                int end = i;
+                futures.add(CompletableFuture.runAsync(() -> {
+                    Decoder decoder = new Decoder(predictorSupplier.get());
+                    for(int j = start; j <= end; j++) {
+                        decoder.decode(blocks[j], timestamps, values, offsets[j - first]);
+                    }
+                }, executor));
+                taskStart = i + 1;
+            }
+        }
+
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).join();
+        } catch(CompletionException e) {
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+
+        // Only the first and the last block can have points outside the range
+        int lower = lowerBound(timestamps, 0, total, from);
+        int upper = upperBound(timestamps, lower, total, to);
+        if(lower > 0) {
+            System.arraycopy(timestamps, lower, timestamps, 0, upper - lower);
+            System.arraycopy(values, lower, values, 0, upper - lower);
+        }
+        output.setSize(upper - lower);
+    }
+
+    /**
+     * @return Index of the first block that ends at or after the timestamp
+     */
+    private int firstBlock(long from) {
+        int low = 0;
+        int high = blocks.length;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(blocks[mid].getLastTimestamp() < from) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return Index of the last block that starts at or before the timestamp
+     */
+    private int lastBlock(long to) {
+        int low = 0;
+        int high = blocks.length;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(blocks[mid].getFirstTimestamp() <= to) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+
+    private static int lowerBound(long[] array, int low, int high, long key) {
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(array[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int upperBound(long[] array, int low, int high, long key) {
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(array[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Iterates the points of the blocks [index, end). Splits only between blocks and only before the decoding of the
+     * current block has started, so the prefix given away is always in front of the remaining points.
+     */
+    private abstract class BlockSpliterator<T extends Spliterator<?>> {
+        private int index;
+        private final int end;
+        private Decoder decoder;
+        private GorillaDecompressor current;
+        private int remaining = 0;
+
+        BlockSpliterator(int index, int end) {
+            this.index = index;
+            this.end = end;
+        }
+
+        abstract T create(int index, int end);
+
+        boolean advance() {
+            while(remaining == 0) {
+                if(index >= end) {
+                    return false;
+                }
+                if(decoder == null) {
+                    decoder = new Decoder(predictorSupplier.get());
+                }
+                current = decoder.reset(blocks[index]);
+                remaining = blocks[index].getCount();
+                index++;
+            }
+            remaining--;
+            return current.next();
+        }
+
+        GorillaDecompressor current() {
+            return current;
+        }
+
+        public T trySplit() {
+            if(remaining > 0 || end - index < 2) {
+                return null;
+            }
+            int mid = (index + end) >>> 1;
+            T prefix = create(index, mid);
+            index = mid;
+            return prefix;
+        }
+
+        public long estimateSize() {
+            return offsets[end] - offsets[index] + remaining;
+        }
+
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.NONNULL
+                    | Spliterator.IMMUTABLE;
+        }
+    }
+
+    private class TimestampSpliterator extends BlockSpliterator<TimestampSpliterator>
+            implements Spliterator.OfLong {
+
+        TimestampSpliterator(int index, int end) {
+            super(index, end);
+        }
+
+        @Override
+        TimestampSpliterator create(int index, int end) {
+            return new TimestampSpliterator(index, end);
+        }
+
+        @Override
+        public boolean tryAdvance(LongConsumer action) {
+            if(!advance()) {
+                return false;
+            }
+            action.accept(current().getTimestamp());
+            return true;
+        }
+    }
+
+    private class LongValueSpliterator extends BlockSpliterator<LongValueSpliterator>
+            implements Spliterator.OfLong {
+
+        LongValueSpliterator(int index, int end) {
+            super(index, end);
+        }
+
+        @Override
+        LongValueSpliterator create(int index, int end) {
+            return new LongValueSpliterator(index, end);
+        }
+
+        @Override
+        public boolean tryAdvance(LongConsumer action) {
+            if(!advance()) {
+                return false;
+            }
+            action.accept(current().getLongValue());
+            return true;
+        }
+    }
+
+    private class DoubleValueSpliterator extends BlockSpliterator<DoubleValueSpliterator>
+            implements Spliterator.OfDouble {
+
+        DoubleValueSpliterator(int index, int end) {
+            super(index, end);
+        }
+
+        @Override
+        DoubleValueSpliterator create(int index, int end) {
+            return new DoubleValueSpliterator(index, end);
+        }
+
+        @Override
+        public boolean tryAdvance(DoubleConsumer action) {
+            if(!advance()) {
+                return false;
+            }
+            action.accept(current().getDoubleValue());
+            return true;
+        }
+    }
+
+    private class PairSpliterator extends BlockSpliterator<PairSpliterator> implements Spliterator<Pair> {
+        private final Pair cursor = new Pair(0, 0);
+
+        PairSpliterator(int index, int end) {
+            super(index, end);
+        }
+
+        @Override
+        PairSpliterator create(int index, int end) {
+            return new PairSpliterator(index, end);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Pair> action) {
+            if(!advance()) {
+                return false;
+            }
+            cursor.set(current().getTimestamp(), current().getLongValue());
+            action.accept(cursor);
+            return true;
+        }
+    }
+
+    /**
+     * Reusable decompressor for reading multiple blocks in a single thread
+     */
+    private static class Decoder {
+        private final StatefulPredictor predictor;
+        private LongArrayInput arrayInput;
+        private GorillaDecompressor decompressor;
+
+        Decoder(StatefulPredictor predictor) {
+            this.predictor = predictor;
+        }
+
+        private GorillaDecompressor reset(Block block) {
+            BitInput input;
+            if(!block.hasArray()) {
+                input = block.getInput();
+            } else if(arrayInput == null) {
+                input = arrayInput = new LongArrayInput(block.getLongArray());
+            } else {
+                arrayInput.reset(block.getLongArray());
+                input = arrayInput;
+            }
+            if(decompressor == null) {
+                decompressor = new GorillaDecompressor(input, predictor);
+            } else {
+                decompressor.reset(input);
+            }
+            return decompressor;
+        }
+
+        void decode(Block block, long[] timestamps, long[] values, int offset) {
+            GorillaDecompressor d = reset(block);
+            int end = offset + block.getCount();
+            for(int i = offset; i < end && d.next(); i++) {
+                timestamps[i] = d.getTimestamp();
+                values[i] = d.getLongValue();
+            }
+        }
+
+        int read(Block block, long from, long to, PairConsumer consumer) {
+            GorillaDecompressor d = reset(block);
+            int read = 0;
+            for(int i = 0; i < block.getCount() && d.next(); i++) {
+                long timestamp = d.getTimestamp();
+                if(timestamp > to) {
+                    break;
+                }
+                if(timestamp >= from) {
+                    consumer.accept(timestamp, d.getLongValue());
+                    read++;
+                }
+            }
+            return read;
+        }
+
+        int filter(Block block, long from, long to, PairPredicate predicate, PairConsumer consumer) {
+            GorillaDecompressor d = reset(block);
+            int matched = 0;
+            for(int i = 0; i < block.getCount() && d.next(); i++) {
+                long timestamp = d.getTimestamp();
+                if(timestamp > to) {
+                    break;
+                }
+                long value = d.getLongValue();
+                if(timestamp >= from && predicate.test(timestamp, value)) {
+                    consumer.accept(timestamp, value);
+                    matched++;
+                }
+            }
+            return matched;
+        }
+    }
+}
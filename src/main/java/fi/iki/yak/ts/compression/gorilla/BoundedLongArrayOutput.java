@@ -0,0 +1,109 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+/**
+ * BitOutput writing to a fixed size long array, such as a page of a storage engine. The array is never expanded and
+ * writes do not check the capacity, use {@link GorillaCompressor#tryAddValue(long, long)} to stop before the block
+ * overflows. Writing past the end of the array throws an ArrayIndexOutOfBoundsException.
+ *
+ * The result is read like the output of a {@link LongArrayOutput}.
+ *
+ * @author Michael Burman
+ */
+public final class BoundedLongArrayOutput implements BitOutput {
+    /**
+     * Words in a 4 KiB page
+     */
+    public static final int PAGE_WORDS = 4096 / Long.BYTES;
+
+    private final long[] longArray;
+    private int position = 0;
+
+    private long lB;
+    private int bitsLeft = Long.SIZE;
+
+    /**
+     * Creates an output of one 4 KiB page.
+     */
+    public BoundedLongArrayOutput() {
+        this(new long[PAGE_WORDS]);
+    }
+
+    /**
+     * Writes to the given array from the start. The previous contents of the array are ignored.
+     *
+     * @param array Array to write to, at least two words to fit the header and the end of a block
+     */
+    public BoundedLongArrayOutput(long[] array) {
+        if(array.length < 2) {
+            throw new IllegalArgumentException("Array must have at least 2 words");
+        }
+        this.longArray = array;
+    }
+
+    private void flipWord() {
+        longArray[position++] = lB;
+        lB = 0;
+        bitsLeft = Long.SIZE;
+    }
+
+    @Override
+    public void writeBit() {
+        lB |= LongArrayOutput.BIT_SET_MASK[bitsLeft - 1];
+        if(--bitsLeft == 0) {
+            flipWord();
+        }
+    }
+
+    @Override
+    public void skipBit() {
+        if(--bitsLeft == 0) {
+            flipWord();
+        }
+    }
+
+    @Override
+    public void writeBits(long value, int bits) {
+        if(bits < bitsLeft) {
+            lB |= (value << (bitsLeft - bits)) & LongArrayOutput.MASK_ARRAY[bitsLeft - 1];
+            bitsLeft -= bits;
+        } else {
+            value &= LongArrayOutput.MASK_ARRAY[bits - 1];
+            bits -= bitsLeft;
+            lB |= value >>> bits;
+            flipWord();
+            if(bits > 0) {
+                lB = value << (Long.SIZE - bits);
+                bitsLeft -= bits;
+            }
+        }
+    }
+
+    /**
+     * Writes the partially filled word, if any, to the array
+     */
+    @Override
+    public void flush() {
+        if(bitsLeft < Long.SIZE) {
+            flipWord();
+        }
+    }
+
+    @Override
+    public long getRemainingBits() {
+        return (long) longArray.length * Long.SIZE - getBitsWritten();
+    }
+
+    /**
+     * @return Amount of bits written to the stream
+     */
+    public long getBitsWritten() {
+        return (long) position * Long.SIZE + Long.SIZE - bitsLeft;
+    }
+
+    /**
+     * @return The array written to, including the unused words at the end
+     */
+    public long[] getLongArray() {
+        return longArray;
+    }
+}
@@ -0,0 +1,97 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A closed block stored in a ByteBuffer instead of a long array, either in a direct buffer outside of the heap or in a
+ * memory mapped file. The block is decompressed in place with {@link ByteBufferLongInput}.
+ *
+ * @author Michael Burman
+ */
+public class BufferBlock extends Block {
+    private final ByteBuffer buffer;
+    private final Tier tier;
+
+    /**
+     * @param buffer Buffer holding exactly the words of the block, must not be modified
+     * @param tier Where the buffer is stored
+     * @param firstTimestamp Timestamp of the first point in the block
+     * @param lastTimestamp Timestamp of the last point in the block
+     * @param count Amount of points in the block
+     */
+    public BufferBlock(ByteBuffer buffer, Tier tier, long firstTimestamp, long lastTimestamp, int count) {
+        this(buffer, tier, firstTimestamp, lastTimestamp, count, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * @param buffer Buffer holding exactly the words of the block, must not be modified
+     * @param tier Where the buffer is stored
+     * @param firstTimestamp Timestamp of the first point in the block
+     * @param lastTimestamp Timestamp of the last point in the block
+     * @param count Amount of points in the block
+     * @param minValue Smallest double value in the block
+     * @param maxValue Largest double value in the block
+     */
+    public BufferBlock(ByteBuffer buffer, Tier tier, long firstTimestamp, long lastTimestamp, int count,
+                       double minValue, double maxValue) {
+        super(firstTimestamp, lastTimestamp, count, minValue, maxValue);
+        this.buffer = buffer.slice();
+        this.tier = tier;
+    }
+
+    /**
+     * Copies the block to a direct buffer outside of the heap
+     *
+     * @param block Block to copy
+     * @return Off-heap copy of the block
+     */
+    public static BufferBlock allocateDirect(Block block) {
+        long[] data = block.getLongArray();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length * Long.BYTES);
+        buffer.asLongBuffer().put(data);
+        return new BufferBlock(buffer, Tier.OFF_HEAP, block.getFirstTimestamp(), block.getLastTimestamp(),
+                block.getCount(), block.getMinValue(), block.getMaxValue());
+    }
+
+    @Override
+    public long getBlockTimestamp() {
+        return buffer.getLong(0);
+    }
+
+    /**
+     * @return Copy of the compressed data
+     */
+    @Override
+    public long[] getLongArray() {
+        long[] data = new long[buffer.capacity() / Long.BYTES];
+        buffer.asLongBuffer().get(data);
+        return data;
+    }
+
+    /**
+     * @return Read-only view of the compressed data, without copying
+     */
+    public ByteBuffer getBuffer() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    @Override
+    public boolean hasArray() {
+        return false;
+    }
+
+    @Override
+    public Tier getTier() {
+        return tier;
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        return buffer.capacity();
+    }
+
+    @Override
+    public BitInput getInput() {
+        return new ByteBufferLongInput(buffer);
+    }
+}
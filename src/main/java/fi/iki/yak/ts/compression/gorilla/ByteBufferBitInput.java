@@ -1,6 +1,8 @@
 package fi.iki.yak.ts.compression.gorilla;
 
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * An implementation of BitInput that parses the data from byte array or existing ByteBuffer.
@@ -9,17 +11,21 @@ import java.nio.ByteBuffer;
  */
 public class ByteBufferBitInput implements BitInput {
     private ByteBuffer bb;
-    private byte b;
+    private final boolean littleEndian;
+    private long lB;
     private int bitsLeft = 0;
 
     /**
-     * Uses an existing ByteBuffer to read the stream. Starts at the ByteBuffer's current position.
+     * Uses an existing ByteBuffer to read the stream. Starts at the ByteBuffer's current position. The stream is read
+     * a word at a time, so the position of the ByteBuffer runs up to 8 bytes ahead of the bits read.
      *
      * @param buf Use existing ByteBuffer
      */
     public ByteBufferBitInput(ByteBuffer buf) {
         bb = buf;
-        flipByte();
+        // The stream is a sequence of bytes, a little endian buffer would reverse the words
+        littleEndian = buf.order() == ByteOrder.LITTLE_ENDIAN;
+        flipWord();
     }
 
     public ByteBufferBitInput(byte[] input) {
@@ -32,9 +38,9 @@ public class ByteBufferBitInput implements BitInput {
      * @return true if the next bit is 1, otherwise 0.
      */
     public boolean readBit() {
-        boolean bit = ((b >> (bitsLeft - 1)) & 1) == 1;
+        boolean bit = (lB & LongArrayOutput.BIT_SET_MASK[bitsLeft - 1]) != 0;
         bitsLeft--;
-        flipByte();
+        checkAndFlipWord();
         return bit;
     }
 
@@ -45,48 +51,76 @@ public class ByteBufferBitInput implements BitInput {
      * @return long value that was read from the stream
      */
     public long getLong(int bits) {
-        long value = 0;
-        while(bits > 0) {
-            if(bits > bitsLeft || bits == Byte.SIZE) {
-                // Take only the bitsLeft "least significant" bits
-                byte d = (byte) (b & ((1<<bitsLeft) - 1));
-                value = (value << bitsLeft) + (d & 0xFF);
-                bits -= bitsLeft;
-                bitsLeft = 0;
-            } else {
-                // Shift to correct position and take only least significant bits
-                byte d = (byte) ((b >>> (bitsLeft - bits)) & ((1<<bits) - 1));
-                value = (value << bits) + (d & 0xFF);
-                bitsLeft -= bits;
-                bits = 0;
-            }
-            flipByte();
+        long value;
+        if(bits <= bitsLeft) {
+            value = (lB >>> (bitsLeft - bits)) & LongArrayOutput.MASK_ARRAY[bits - 1];
+            bitsLeft -= bits;
+            checkAndFlipWord();
+        } else {
+            value = lB & LongArrayOutput.MASK_ARRAY[bitsLeft - 1];
+            bits -= bitsLeft;
+            flipWord();
+            value <<= bits;
+            value |= (lB >>> (bitsLeft - bits));
+            bitsLeft -= bits;
         }
         return value;
     }
 
     @Override
-    public int nextClearBit(int maxBits) {
-        int val = 0x00;
+    public long peekBits(int bits) {
+        if(bits <= bitsLeft) {
+            return (lB >>> (bitsLeft - bits)) & LongArrayOutput.MASK_ARRAY[bits - 1];
+        }
+        int rest = bits - bitsLeft;
+        return ((lB & LongArrayOutput.MASK_ARRAY[bitsLeft - 1]) << rest) | (nextWord() >>> (Long.SIZE - rest));
+    }
 
-        for(int i = 0; i < maxBits; i++) {
-            val <<= 1;
-            boolean bit = readBit();
+    @Override
+    public void consume(int bits) {
+        if(bits < bitsLeft) {
+            bitsLeft -= bits;
+        } else {
+            bits -= bitsLeft;
+            flipWord();
+            bitsLeft -= bits;
+        }
+    }
 
-            if(bit) {
-                val |= 0x01;
-            } else {
-                break;
-            }
+    private void checkAndFlipWord() {
+        if(bitsLeft == 0) {
+            flipWord();
         }
-        return val;
     }
 
-    private void flipByte() {
-        if (bitsLeft == 0) {
-            b = bb.get();
-            bitsLeft = Byte.SIZE;
+    private void flipWord() {
+        if(bb.remaining() >= Long.BYTES) {
+            long word = bb.getLong();
+            lB = littleEndian ? Long.reverseBytes(word) : word;
+        } else if(bb.hasRemaining()) {
+            // The last bytes of the stream, padded with zeros
+            lB = nextWord();
+            bb.position(bb.limit());
+        } else {
+            throw new BufferUnderflowException();
+        }
+        bitsLeft = Long.SIZE;
+    }
+
+    /**
+     * @return The next word of the stream without reading it, bytes past the end are zeros
+     */
+    private long nextWord() {
+        int position = bb.position();
+        if(bb.limit() - position >= Long.BYTES) {
+            long word = bb.getLong(position);
+            return littleEndian ? Long.reverseBytes(word) : word;
+        }
+        long word = 0;
+        for(int i = 0; i < Long.BYTES; i++) {
+            word = (word << Byte.SIZE) | (position + i < bb.limit() ? bb.get(position + i) & 0xFF : 0);
         }
+        return word;
     }
 
     /**
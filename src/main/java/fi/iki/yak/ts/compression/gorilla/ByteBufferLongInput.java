@@ -0,0 +1,100 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Reads a block written by LongArrayOutput from a ByteBuffer with 8 byte words, such as a memory mapped file. The
+ * words are read in place with absolute gets, so the buffer is neither copied nor modified.
+ *
+ * @author Michael Burman
+ */
+public class ByteBufferLongInput implements BitInput {
+    private LongBuffer longBuffer;
+    private long lB;
+    private int position = 0;
+    private int bitsLeft = 0;
+
+    /**
+     * @param buffer Buffer positioned at the start of the block, in the byte order the words were written with
+     */
+    public ByteBufferLongInput(ByteBuffer buffer) {
+        reset(buffer);
+    }
+
+    /**
+     * Starts reading a new block, allowing to reuse this instance.
+     *
+     * @param buffer Buffer positioned at the start of the block
+     */
+    public void reset(ByteBuffer buffer) {
+        this.longBuffer = buffer.asLongBuffer();
+        this.position = 0;
+        flipByte();
+    }
+
+    @Override
+    public boolean readBit() {
+        boolean bit = (lB & LongArrayOutput.BIT_SET_MASK[bitsLeft - 1]) != 0;
+        bitsLeft--;
+        checkAndFlipByte();
+        return bit;
+    }
+
+    private void flipByte() {
+        lB = longBuffer.get(position++);
+        bitsLeft = Long.SIZE;
+    }
+
+    private void checkAndFlipByte() {
+        if(bitsLeft == 0) {
+            flipByte();
+        }
+    }
+
+    @Override
+    public long getLong(int bits) {
+        long value;
+        if(bits <= bitsLeft) {
+            value = (lB >>> (bitsLeft - bits)) & LongArrayOutput.MASK_ARRAY[bits - 1];
+            bitsLeft -= bits;
+            checkAndFlipByte();
+        } else {
+            value = lB & LongArrayOutput.MASK_ARRAY[bitsLeft - 1];
+            bits -= bitsLeft;
+            flipByte();
+            value <<= bits;
+            value |= (lB >>> (bitsLeft - bits));
+            bitsLeft -= bits;
+        }
+        return value;
+    }
+
+    /**
+     * @return Amount of bits read from the stream
+     */
+    public long getBitsRead() {
+        return (long) position * Long.SIZE - bitsLeft;
+    }
+
+    @Override
+    public long peekBits(int bits) {
+        if(bits <= bitsLeft) {
+            return (lB >>> (bitsLeft - bits)) & LongArrayOutput.MASK_ARRAY[bits - 1];
+        }
+        long next = position < longBuffer.limit() ? longBuffer.get(position) : 0;
+        int rest = bits - bitsLeft;
+        return ((lB & LongArrayOutput.MASK_ARRAY[bitsLeft - 1]) << rest) | (next >>> (Long.SIZE - rest));
+    }
+
+    @Override
+    public void consume(int bits) {
+        if(bits < bitsLeft) {
+            bitsLeft -= bits;
+        } else {
+            bits -= bitsLeft;
+            flipByte();
+            bitsLeft -= bits;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import fi.iki.yak.ts.compression.gorilla.predictors.LastValuePredictor;
+
+/**
+ * Compresses a block with the timestamps and the values in separate bit streams. The encoding of both streams is the
+ * same as in {@link GorillaCompressor}, but instead of an end marker the block starts with a small header:
+ *
+ * <pre>
+ * word 0:  block timestamp
+ * word 1:  amount of points
+ * word 2:  index of the first word of the value column
+ * word 3-: timestamp column, value column, one padding word
+ * </pre>
+ *
+ * Reading only the timestamps skips every value bit and the two columns can be decompressed in parallel, see
+ * {@link ColumnarDecompressor}. The layout costs two words per block compared to the interleaved format.
+ *
+ * @author Michael Burman
+ */
+public class ColumnarCompressor {
+    static final int HEADER_WORDS = 3;
+
+    private final long blockTimestamp;
+    private final LongArrayOutput timestampOutput = new LongArrayOutput();
+    private final LongArrayOutput valueOutput = new LongArrayOutput();
+    private final TimestampCompressor timestampCompressor;
+    private final ValueCompressor valueCompressor;
+    private int count = 0;
+
+    public ColumnarCompressor(long blockTimestamp) {
+        this(blockTimestamp, new LastValuePredictor());
+    }
+
+    public ColumnarCompressor(long blockTimestamp, Predictor predictor) {
+        this.blockTimestamp = blockTimestamp;
+        this.timestampCompressor = new TimestampCompressor(blockTimestamp, timestampOutput);
+        this.valueCompressor = new ValueCompressor(valueOutput, predictor);
+    }
+
+    /**
+     * Adds a new long value to the series. Note, values must be inserted in order.
+     *
+     * @param timestamp Timestamp which is inside the block
+     * @param value next long value in the series
+     */
+    public void addValue(long timestamp, long value) {
+        if(count == 0) {
+            timestampCompressor.writeFirst(timestamp);
+            valueCompressor.writeFirst(value);
+        } else {
+            timestampCompressor.compressTimestamp(timestamp);
+            valueCompressor.compressValue(value);
+        }
+        count++;
+    }
+
+    /**
+     * Adds a new double value to the series. Note, values must be inserted in order.
+     *
+     * @param timestamp Timestamp which is inside the block
+     * @param value next floating point value in the series
+     */
+    public void addValue(long timestamp, double value) {
+        addValue(timestamp, Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * @return Amount of points added
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Closes the block and joins the columns
+     *
+     * @return The compressed block
+     */
+    public long[] close() {
+        int timestampWords = words(timestampOutput);
+        int valueWords = words(valueOutput);
+        // The inputs read one word ahead
+        long[] block = new long[HEADER_WORDS + timestampWords + valueWords + 1];
+        block[0] = blockTimestamp;
+        block[1] = count;
+        block[2] = HEADER_WORDS + timestampWords;
+        System.arraycopy(timestampOutput.getLongArray(), 0, block, HEADER_WORDS, timestampWords);
+        System.arraycopy(valueOutput.getLongArray(), 0, block, HEADER_WORDS + timestampWords, valueWords);
+        return block;
+    }
+
+    static int words(LongArrayOutput output) {
+        return (int) ((output.getBitsWritten() + Long.SIZE - 1) / Long.SIZE);
+    }
+}
@@ -0,0 +1,153 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+import fi.iki.yak.ts.compression.gorilla.predictors.LastValuePredictor;
+
+/**
+ * Decompresses a block created by the {@link ColumnarCompressor}. Each column is read independently of the other, so
+ * the methods can be called concurrently and the amount of points is known without reading either column.
+ *
+ * @author Michael Burman
+ */
+public class ColumnarDecompressor {
+    private final long[] block;
+    private final Supplier<Predictor> predictorSupplier;
+
+    public ColumnarDecompressor(long[] block) {
+        this(block, LastValuePredictor::new);
+    }
+
+    /**
+     * @param block Compressed block
+     * @param predictorSupplier Supplies a new predictor matching the one used to compress the block for every read of
+     *                          the value column
+     */
+    public ColumnarDecompressor(long[] block, Supplier<Predictor> predictorSupplier) {
+        if(block.length < ColumnarCompressor.HEADER_WORDS + 1 || block[2] < ColumnarCompressor.HEADER_WORDS ||
+                block[2] >= block.length) {
+            throw new IllegalArgumentException("Not a columnar block");
+        }
+        this.block = block;
+        this.predictorSupplier = predictorSupplier;
+    }
+
+    public long getBlockTimestamp() {
+        return block[0];
+    }
+
+    /**
+     * @return Amount of points in the block, read from the header
+     */
+    public int getCount() {
+        return (int) block[1];
+    }
+
+    /**
+     * Decompresses only the timestamp column
+     *
+     * @param timestamps Array of at least {@link #getCount()} elements
+     * @return Amount of timestamps read
+     */
+    public int readTimestamps(long[] timestamps) {
+        int count = getCount();
+        if(count == 0) {
+            return 0;
+        }
+        TimestampDecompressor d = new TimestampDecompressor(
+                new LongArrayInput(block, ColumnarCompressor.HEADER_WORDS), getBlockTimestamp());
+        d.readFirst();
+        timestamps[0] = d.getTimestamp();
+        for(int i = 1; i < count; i++) {
+            d.nextTimestamp();
+            timestamps[i] = d.getTimestamp();
+        }
+        return count;
+    }
+
+    /**
+     * Decompresses only the value column
+     *
+     * @param values Array of at least {@link #getCount()} elements
+     * @return Amount of values read
+     */
+    public int readValues(long[] values) {
+        int count = getCount();
+        if(count == 0) {
+            return 0;
+        }
+        ValueDecompressor d = new ValueDecompressor(new LongArrayInput(block, (int) block[2]),
+                predictorSupplier.get());
+        values[0] = d.readFirst();
+        for(int i = 1; i < count; i++) {
+            values[i] = d.nextValue();
+        }
+        return count;
+    }
+
+    /**
+     * Decompresses both columns on the calling thread
+     *
+     * @return Points of the block
+     */
+    public DataPoints read() {
+        int count = getCount();
+        long[] timestamps = new long[count];
+        long[] values = new long[count];
+        readTimestamps(timestamps);
+        readValues(values);
+        return new DataPoints(timestamps, values, count);
+    }
+
+    /**
+     * Decompresses the value column on the executor while the timestamp column is decompressed on the calling
+     * thread. Worth it only for large blocks.
+     *
+     * @param executor Executor for the value column
+     * @return Future completing with the points of the block
+     */
+    public CompletableFuture<DataPoints> read(Executor executor) {
+        int count = getCount();
+        long[] timestamps = new long[count];
+        long[] values = new long[count];
+        CompletableFuture<Integer> valuesRead = CompletableFuture.supplyAsync(() -> readValues(values), executor);
+        readTimestamps(timestamps);
+        return valuesRead.thenApply(read -> new DataPoints(timestamps, values, count));
+    }
+
+    /**
+     * Returns the timestamps as a stream without decompressing the values
+     *
+     * @return Ordered and sized stream of timestamps
+     */
+    public LongStream timestamps() {
+        int count = getCount();
+        TimestampDecompressor d = new TimestampDecompressor(
+                new LongArrayInput(block, ColumnarCompressor.HEADER_WORDS), getBlockTimestamp());
+        return StreamSupport.longStream(new Spliterators.AbstractLongSpliterator(count,
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.SIZED | Spliterator.IMMUTABLE) {
+            private int read = 0;
+
+            @Override
+            public boolean tryAdvance(LongConsumer action) {
+                if(read == count) {
+                    return false;
+                }
+                if(read++ == 0) {
+                    d.readFirst();
+                } else {
+                    d.nextTimestamp();
+                }
+                action.accept(d.getTimestamp());
+                return true;
+            }
+        }, false);
+    }
+}
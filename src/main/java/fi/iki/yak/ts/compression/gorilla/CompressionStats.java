@@ -0,0 +1,158 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+/**
+ * Counts how often each encoding case is taken and how many bits each part of the stream takes. Attach an instance
+ * to a {@link GorillaCompressor} or a {@link GorillaDecompressor} before adding or reading the points.
+ *
+ * The counting is compiled in only when the JVM is started with {@code -Dgorilla.stats=true}. Otherwise the checks
+ * are constant folded away by the JIT and attached instances stay empty. An instance may be shared by codecs used
+ * from a single thread, for example to collect the statistics of a whole series.
+ *
+ * @author Michael Burman
+ */
+public class CompressionStats {
+    public static final boolean ENABLED = Boolean.getBoolean("gorilla.stats");
+
+    /**
+     * Encodings of a timestamp delta-of-delta, with the bits each takes
+     */
+    public enum TimestampCase {
+        ZERO(1),
+        BITS_7(9),
+        BITS_9(12),
+        BITS_12(16),
+        BITS_32(36);
+
+        final int bits;
+
+        TimestampCase(int bits) {
+            this.bits = bits;
+        }
+    }
+
+    /**
+     * Encodings of the XOR between the predicted and the actual value
+     */
+    public enum ValueCase {
+        /**
+         * Prediction was correct
+         */
+        ZERO_XOR,
+        /**
+         * Meaningful bits fit the previous leading and trailing zeros
+         */
+        REUSED_WINDOW,
+        /**
+         * New leading and trailing zeros were stored
+         */
+        NEW_WINDOW
+    }
+
+    private final long[] timestampCases = new long[TimestampCase.values().length];
+    private final long[] valueCases = new long[ValueCase.values().length];
+    private long headerBits;
+    private long timestampBits;
+    private long valueBits;
+    private long points;
+    private long blocks;
+
+    void header(int bits) {
+        headerBits += bits;
+    }
+
+    void first(int timestampBits, int valueBits) {
+        this.timestampBits += timestampBits;
+        this.valueBits += valueBits;
+        points++;
+    }
+
+    void timestamp(TimestampCase c) {
+        timestampCases[c.ordinal()]++;
+        timestampBits += c.bits;
+    }
+
+    void value(ValueCase c, int bits) {
+        valueCases[c.ordinal()]++;
+        valueBits += bits;
+        points++;
+    }
+
+    void end(int bits) {
+        headerBits += bits;
+        blocks++;
+    }
+
+    public long getCount(TimestampCase c) {
+        return timestampCases[c.ordinal()];
+    }
+
+    public long getCount(ValueCase c) {
+        return valueCases[c.ordinal()];
+    }
+
+    /**
+     * @return Bits of the block headers and end markers
+     */
+    public long getHeaderBits() {
+        return headerBits;
+    }
+
+    public long getTimestampBits() {
+        return timestampBits;
+    }
+
+    public long getValueBits() {
+        return valueBits;
+    }
+
+    /**
+     * @return Bits of the streams, excluding the padding of the last word
+     */
+    public long getBits() {
+        return headerBits + timestampBits + valueBits;
+    }
+
+    public long getPoints() {
+        return points;
+    }
+
+    /**
+     * @return Amount of closed blocks, or blocks read to the end
+     */
+    public long getBlocks() {
+        return blocks;
+    }
+
+    public double getBitsPerPoint() {
+        return points == 0 ? 0 : (double) getBits() / points;
+    }
+
+    public void reset() {
+        for(int i = 0; i < timestampCases.length; i++) {
+            timestampCases[i] = 0;
+        }
+        for(int i = 0; i < valueCases.length; i++) {
+            valueCases[i] = 0;
+        }
+        headerBits = 0;
+        timestampBits = 0;
+        valueBits = 0;
+        points = 0;
+        blocks = 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("CompressionStats{points=").append(points)
+                .append(", bitsPerPoint=").append(String.format("%.2f", getBitsPerPoint()))
+                .append(", timestampBits=").append(timestampBits)
+                .append(", valueBits=").append(valueBits);
+        for(TimestampCase c : TimestampCase.values()) {
+            sb.append(", ").append(c).append('=').append(getCount(c));
+        }
+        for(ValueCase c : ValueCase.values()) {
+            sb.append(", ").append(c).append('=').append(getCount(c));
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,87 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A LongArrayOutput that allows a single writer and multiple concurrent readers. The writer calls {@link #commit()}
+ * after writing complete points, readers can then decode the committed prefix of the stream without locking and
+ * without copying the array.
+ *
+ * Readers must read {@link #getCommittedBits()} before {@link #getPublishedArray()}. The array is published with a
+ * volatile write after each expansion, and the words of the committed prefix never change afterwards: the writer only
+ * sets bits after the committed position, so a reader never sees a different value for the committed bits even if
+ * it sees a newer version of the current word.
+ *
+ * @author Michael Burman
+ */
+public class ConcurrentLongArrayOutput extends LongArrayOutput {
+
+    private static final AtomicLongFieldUpdater<ConcurrentLongArrayOutput> COMMITTED_BITS =
+            AtomicLongFieldUpdater.newUpdater(ConcurrentLongArrayOutput.class, "committedBits");
+
+    private volatile long[] published;
+    private volatile long committedBits = 0;
+
+    public ConcurrentLongArrayOutput() {
+        this(DEFAULT_ALLOCATION);
+    }
+
+    public ConcurrentLongArrayOutput(int initialSize) {
+        super(initialSize);
+        published = longArray;
+    }
+
+    /**
+     * @param buffer Array to write to, its previous contents are ignored
+     */
+    public ConcurrentLongArrayOutput(long[] buffer) {
+        super(buffer);
+        published = longArray;
+    }
+
+    /**
+     * Continues writing to a persisted block, see {@link LongArrayOutput#LongArrayOutput(long[], long)}. The restored
+     * bits are committed.
+     *
+     * @param array Previously written words, the array is copied
+     * @param bitsWritten Amount of bits written to the array
+     */
+    public ConcurrentLongArrayOutput(long[] array, long bitsWritten) {
+        super(array, bitsWritten);
+        published = longArray;
+        commit();
+    }
+
+    @Override
+    protected void expandAllocation() {
+        super.expandAllocation();
+        published = longArray;
+    }
+
+    /**
+     * Makes the bits written so far visible to the readers. Only the writer thread may call this.
+     */
+    public void commit() {
+        // Store the partial word so that readers can see the bits written to it
+        longArray[position] = lB;
+        // Ordered write is enough, readers do a volatile read and the writer never reads the value
+        COMMITTED_BITS.lazySet(this, getBitsWritten());
+    }
+
+    /**
+     * @return Amount of bits committed by the writer
+     */
+    public long getCommittedBits() {
+        return committedBits;
+    }
+
+    /**
+     * Returns the current array, which contains at least the committed bits that were visible before calling this
+     * method. The array must not be modified.
+     *
+     * @return Current backing array
+     */
+    public long[] getPublishedArray() {
+        return published;
+    }
+}
@@ -0,0 +1,141 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import java.util.Arrays;
+
+/**
+ * Decompressed points stored in primitive arrays, one for timestamps and one for values. Can be reused by calling
+ * {@link #clear()}, the arrays are only grown when needed.
+ *
+ * @author Michael Burman
+ */
+public class DataPoints implements PairConsumer {
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private long[] timestamps;
+    private long[] values;
+    private int size = 0;
+
+    public DataPoints() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public DataPoints(int capacity) {
+        timestamps = new long[capacity];
+        values = new long[capacity];
+    }
+
+    /**
+     * Wraps existing arrays, the arrays are not copied.
+     *
+     * @param timestamps Timestamps of the points
+     * @param values Values of the points, longs or bits of doubles
+     * @param size Amount of points in the arrays
+     */
+    public DataPoints(long[] timestamps, long[] values, int size) {
+        this.timestamps = timestamps;
+        this.values = values;
+        this.size = size;
+    }
+
+    @Override
+    public void accept(long timestamp, long value) {
+        if(size == timestamps.length) {
+            ensureCapacity(Math.max(size * 2, DEFAULT_CAPACITY));
+        }
+        timestamps[size] = timestamp;
+        values[size] = value;
+        size++;
+    }
+
+    // Bulk copy for the cached blocks
+    void append(long[] timestamps, long[] values, int offset, int length) {
+        ensureCapacity(size + length);
+        System.arraycopy(timestamps, offset, this.timestamps, size, length);
+        System.arraycopy(values, offset, this.values, size, length);
+        size += length;
+    }
+
+    /**
+     * Grows the arrays to hold at least the given amount of points
+     *
+     * @param capacity Required capacity
+     */
+    public void ensureCapacity(int capacity) {
+        if(timestamps.length < capacity) {
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    /**
+     * Removes all the points, keeping the arrays for reuse
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    public long getLongValue(int index) {
+        return values[index];
+    }
+
+    public double getDoubleValue(int index) {
+        return Double.longBitsToDouble(values[index]);
+    }
+
+    /**
+     * @return Copy of the timestamps
+     */
+    public long[] getTimestamps() {
+        return Arrays.copyOf(timestamps, size);
+    }
+
+    /**
+     * @return Copy of the values as longs
+     */
+    public long[] getLongValues() {
+        return Arrays.copyOf(values, size);
+    }
+
+    /**
+     * @return Copy of the values as doubles
+     */
+    public double[] getDoubleValues() {
+        double[] doubles = new double[size];
+        for(int i = 0; i < size; i++) {
+            doubles[i] = Double.longBitsToDouble(values[i]);
+        }
+        return doubles;
+    }
+
+    /**
+     * Gives all the points to the consumer, in order
+     *
+     * @param consumer Receives the points
+     */
+    public void forEach(PairConsumer consumer) {
+        for(int i = 0; i < size; i++) {
+            consumer.accept(timestamps[i], values[i]);
+        }
+    }
+
+    // Direct access to the arrays for the decoders that fill them in parallel
+    long[] timestampArray() {
+        return timestamps;
+    }
+
+    long[] valueArray() {
+        return values;
+    }
+
+    void setSize(int size) {
+        this.size = size;
+    }
+}
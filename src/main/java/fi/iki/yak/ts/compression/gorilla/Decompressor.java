@@ -41,19 +41,57 @@ public class Decompressor {
         return new Pair(storedTimestamp, storedVal);
     }
 
-    private void next() {
+    /**
+     * Moves to the next pair in the time series without allocating a Pair. Use {@link #getTimestamp()} and
+     * {@link #getLongValue()} or {@link #getDoubleValue()} to access the values of the current pair.
+     *
+     * @return true if there's next value, false if series is done.
+     */
+    public boolean next() {
+        if(endOfStream) {
+            return false;
+        }
         if (storedTimestamp == 0) {
             // First item to read
             storedDelta = in.getLong(Compressor.FIRST_DELTA_BITS);
             if(storedDelta == (1<<27) - 1) {
                 endOfStream = true;
-                return;
+                return false;
             }
             storedVal = in.getLong(64);
             storedTimestamp = blockTimestamp + storedDelta;
         } else {
             nextTimestamp();
         }
+        return !endOfStream;
+    }
+
+    /**
+     * @return Timestamp of the current pair
+     */
+    public long getTimestamp() {
+        return storedTimestamp;
+    }
+
+    /**
+     * @return Value of the current pair as a long, or the raw bits of a double value
+     */
+    public long getLongValue() {
+        return storedVal;
+    }
+
+    /**
+     * @return Value of the current pair as a double
+     */
+    public double getDoubleValue() {
+        return Double.longBitsToDouble(storedVal);
+    }
+
+    /**
+     * @return Block timestamp read from the header of the stream
+     */
+    public long getBlockTimestamp() {
+        return blockTimestamp;
     }
 
     private int bitsToRead() {
@@ -0,0 +1,85 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+/**
+ * Reads the bits of the {@link LongArrayGorillaDecompressor} straight from the array of a {@link LongArrayInput},
+ * advancing the input as its own methods would. The class is final, so its calls are inlined no matter which BitInput
+ * implementations or LongArrayInput subclasses are in use.
+ *
+ * @author Michael Burman
+ */
+final class DirectLongArrayInput implements BitInput {
+    private LongArrayInput input;
+
+    DirectLongArrayInput(LongArrayInput input) {
+        this.input = input;
+    }
+
+    /**
+     * @param input Input to read next
+     */
+    void reset(LongArrayInput input) {
+        this.input = input;
+    }
+
+    private static void flipWord(LongArrayInput i) {
+        i.lB = i.longArray[i.position++];
+        i.bitsLeft = Long.SIZE;
+    }
+
+    @Override
+    public boolean readBit() {
+        LongArrayInput i = input;
+        boolean bit = (i.lB & LongArrayOutput.BIT_SET_MASK[i.bitsLeft - 1]) != 0;
+        if(--i.bitsLeft == 0) {
+            flipWord(i);
+        }
+        return bit;
+    }
+
+    /**
+     * Same as {@link LongArrayInput#getLong(int)}
+     */
+    @Override
+    public long getLong(int bits) {
+        LongArrayInput i = input;
+        long value;
+        if(bits <= i.bitsLeft) {
+            value = (i.lB >>> (i.bitsLeft - bits)) & LongArrayOutput.MASK_ARRAY[bits - 1];
+            i.bitsLeft -= bits;
+            if(i.bitsLeft == 0) {
+                flipWord(i);
+            }
+        } else {
+            value = i.lB & LongArrayOutput.MASK_ARRAY[i.bitsLeft - 1];
+            bits -= i.bitsLeft;
+            flipWord(i);
+            value <<= bits;
+            value |= (i.lB >>> (i.bitsLeft - bits));
+            i.bitsLeft -= bits;
+        }
+        return value;
+    }
+
+    @Override
+    public long peekBits(int bits) {
+        LongArrayInput i = input;
+        if(bits <= i.bitsLeft) {
+            return (i.lB >>> (i.bitsLeft - bits)) & LongArrayOutput.MASK_ARRAY[bits - 1];
+        }
+        long next = i.position < i.longArray.length ? i.longArray[i.position] : 0;
+        int rest = bits - i.bitsLeft;
+        return ((i.lB & LongArrayOutput.MASK_ARRAY[i.bitsLeft - 1]) << rest) | (next >>> (Long.SIZE - rest));
+    }
+
+    @Override
+    public void consume(int bits) {
+        LongArrayInput i = input;
+        if(bits < i.bitsLeft) {
+            i.bitsLeft -= bits;
+        } else {
+            bits -= i.bitsLeft;
+            flipWord(i);
+            i.bitsLeft -= bits;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+/**
+ * Writes the bits of the {@link LongArrayGorillaCompressor} straight to the array of a {@link LongArrayOutput}. The
+ * class is final, so its calls are inlined no matter which BitOutput implementations or LongArrayOutput subclasses
+ * are in use. The bit writing methods of the LongArrayOutput are not called, only its word flips, which keeps
+ * {@link ConcurrentLongArrayOutput} publishing its expanded arrays.
+ *
+ * @author Michael Burman
+ */
+final class DirectLongArrayOutput implements BitOutput {
+    private final LongArrayOutput output;
+
+    DirectLongArrayOutput(LongArrayOutput output) {
+        this.output = output;
+    }
+
+    @Override
+    public void writeBit() {
+        LongArrayOutput o = output;
+        o.lB |= LongArrayOutput.BIT_SET_MASK[o.bitsLeft - 1];
+        if(--o.bitsLeft == 0) {
+            o.flipWord();
+        }
+    }
+
+    @Override
+    public void skipBit() {
+        LongArrayOutput o = output;
+        if(--o.bitsLeft == 0) {
+            o.flipWord();
+        }
+    }
+
+    /**
+     * Same as {@link LongArrayOutput#writeBits(long, int)}
+     */
+    @Override
+    public void writeBits(long value, int bits) {
+        LongArrayOutput o = output;
+        if(bits <= o.bitsLeft) {
+            int lastBitPosition = o.bitsLeft - bits;
+            o.lB |= (value << lastBitPosition) & LongArrayOutput.MASK_ARRAY[o.bitsLeft - 1];
+            o.bitsLeft -= bits;
+            if(o.bitsLeft == 0) {
+                o.flipWord();
+            }
+        } else {
+            value &= LongArrayOutput.MASK_ARRAY[bits - 1];
+            int firstBitPosition = bits - o.bitsLeft;
+            o.lB |= value >>> firstBitPosition;
+            bits -= o.bitsLeft;
+            o.flipWord();
+            o.lB |= value << (64 - bits);
+            o.bitsLeft -= bits;
+        }
+    }
+
+    @Override
+    public void flush() {
+        output.flipWord();
+    }
+}
@@ -1,5 +1,7 @@
 package fi.iki.yak.ts.compression.gorilla;
 
+import java.nio.ByteBuffer;
+
 import fi.iki.yak.ts.compression.gorilla.predictors.LastValuePredictor;
 
 /**
@@ -8,138 +10,140 @@ import fi.iki.yak.ts.compression.gorilla.predictors.LastValuePredictor;
  *
  * @author Michael Burman
  */
-public class GorillaCompressor {
-
-    private long storedTimestamp = 0;
-    private int storedDelta = 0;
-
-    private long blockTimestamp = 0;
-
-    public final static int FIRST_DELTA_BITS = 27;
-
-    private static int DELTAD_7_MASK = 0x02 << 7;
-    private static int DELTAD_9_MASK = 0x06 << 9;
-    private static int DELTAD_12_MASK = 0x0E << 12;
-
-    private BitOutput out;
+public class GorillaCompressor extends AbstractGorillaCompressor {
 
+    private TimestampCompressor timestampCompressor;
     private ValueCompressor valueCompressor;
+    private CompressionStats stats;
 
     public GorillaCompressor(long timestamp, BitOutput output) {
         this(timestamp, output, new LastValuePredictor());
     }
 
     public GorillaCompressor(long timestamp, BitOutput output, Predictor predictor) {
-        blockTimestamp = timestamp;
-        out = output;
+        super(output);
         addHeader(timestamp);
+        this.timestampCompressor = new TimestampCompressor(timestamp, output);
         this.valueCompressor = new ValueCompressor(output, predictor);
     }
 
-    private void addHeader(long timestamp) {
-        out.writeBits(timestamp, 64);
+    private GorillaCompressor(BitOutput output, Predictor predictor) {
+        super(output);
+        this.timestampCompressor = new TimestampCompressor(0, output);
+        this.valueCompressor = new ValueCompressor(output, predictor);
     }
 
     /**
-     * Adds a new long value to the series. Note, values must be inserted in order.
+     * Creates a compressor for the output and predictor. A {@link LongArrayOutput} or a
+     * {@link ConcurrentLongArrayOutput} with a {@link LastValuePredictor} is written with the specialized
+     * {@link LongArrayGorillaCompressor}, unless {@link CompressionStats} are enabled. Other subclasses may override
+     * the bit writing and use the generic compressor. The stream is the same either way.
      *
-     * @param timestamp Timestamp which is inside the allowed time block (default 24 hours with millisecond precision)
-     * @param value next floating point value in the series
+     * @param timestamp Block timestamp
+     * @param output Output to write the block to
+     * @param predictor Predictor for the values
+     * @return Compressor for the block
      */
+    public static AbstractGorillaCompressor create(long timestamp, BitOutput output, Predictor predictor) {
+        Class<?> type = output.getClass();
+        if(!CompressionStats.ENABLED && predictor.getClass() == LastValuePredictor.class
+                && (type == LongArrayOutput.class || type == ConcurrentLongArrayOutput.class)) {
+            return new LongArrayGorillaCompressor(timestamp, (LongArrayOutput) output);
+        }
+        return new GorillaCompressor(timestamp, output, predictor);
+    }
+
+    /**
+     * Restores a compressor from a state written with {@link #saveState(ByteBuffer)}, allowing to continue appending
+     * to a persisted block. The output must continue from the same position as the original output was when the
+     * state was saved, see {@link LongArrayOutput#LongArrayOutput(long[], long)}.
+     *
+     * @param state Buffer to read the state from
+     * @param output Output positioned at the end of the persisted block
+     * @return Compressor that continues the persisted block
+     */
+    public static GorillaCompressor restore(ByteBuffer state, BitOutput output) {
+        return restore(state, output, new LastValuePredictor());
+    }
+
+    /**
+     * Restores a compressor from a state written with {@link #saveState(ByteBuffer)}. The predictor must be of the
+     * same type as the one used by the original compressor.
+     *
+     * @param state Buffer to read the state from
+     * @param output Output positioned at the end of the persisted block
+     * @param predictor Predictor to restore the predictor state to
+     * @return Compressor that continues the persisted block
+     */
+    public static GorillaCompressor restore(ByteBuffer state, BitOutput output, StatefulPredictor predictor) {
+        GorillaCompressor compressor = new GorillaCompressor(output, predictor);
+        compressor.timestampCompressor.restoreState(state);
+        compressor.valueCompressor.restoreState(state);
+        return compressor;
+    }
+
+    @Override
+    public void setStats(CompressionStats stats) {
+        this.stats = stats;
+        timestampCompressor.setStats(stats);
+        valueCompressor.setStats(stats);
+    }
+
+    @Override
+    public int getStateSize() {
+        return timestampCompressor.getStateSize() + valueCompressor.getStateSize();
+    }
+
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        timestampCompressor.saveState(buffer);
+        valueCompressor.saveState(buffer);
+    }
+
+    @Override
+    boolean isEmpty() {
+        return timestampCompressor.isEmpty();
+    }
+
+    @Override
     public void addValue(long timestamp, long value) {
-        if(storedTimestamp == 0) {
+        if(timestampCompressor.isEmpty()) {
             writeFirst(timestamp, value);
         } else {
-            compressTimestamp(timestamp);
+            timestampCompressor.compressTimestamp(timestamp);
             valueCompressor.compressValue(value);
         }
     }
 
-    /**
-     * Adds a new double value to the series. Note, values must be inserted in order.
-     *
-     * @param timestamp Timestamp which is inside the allowed time block (default 24 hours with millisecond precision)
-     * @param value next floating point value in the series
-     */
+    @Override
     public void addValue(long timestamp, double value) {
-        if(storedTimestamp == 0) {
+        if(timestampCompressor.isEmpty()) {
             writeFirst(timestamp, Double.doubleToRawLongBits(value));
             return;
         }
-        compressTimestamp(timestamp);
+        timestampCompressor.compressTimestamp(timestamp);
         valueCompressor.compressValue(Double.doubleToRawLongBits(value));
     }
 
     private void writeFirst(long timestamp, long value) {
-        storedDelta = (int) (timestamp - blockTimestamp);
-        storedTimestamp = timestamp;
-
-        out.writeBits(storedDelta, FIRST_DELTA_BITS);
+        timestampCompressor.writeFirst(timestamp);
         valueCompressor.writeFirst(value);
+        if(CompressionStats.ENABLED && stats != null) {
+            // The header is written before the stats can be attached, it is counted with the first point
+            stats.header(64);
+            stats.first(TimestampCompressor.FIRST_DELTA_BITS, 64);
+        }
     }
 
-    /**
-     * Closes the block and writes the remaining stuff to the BitOutput.
-     */
+    @Override
     public void close() {
-        out.writeBits(0x0F, 4);
-        out.writeBits(0xFFFFFFFF, 32);
-        out.skipBit();
-        out.flush();
-    }
-
-    /**
-     * Difference to the original Facebook paper, we store the first delta as 27 bits to allow
-     * millisecond accuracy for a one day block.
-     *
-     * Also, the timestamp delta-delta is not good for millisecond compressions..
-     *
-     * @param timestamp epoch
-     */
-    private void compressTimestamp(long timestamp) {
-
-        // a) Calculate the delta of delta
-        int newDelta = (int) (timestamp - storedTimestamp);
-        int deltaD = newDelta - storedDelta;
-
-        if(deltaD == 0) {
-            out.skipBit();
-        } else {
-            deltaD = encodeZigZag32(deltaD);
-            deltaD--; // Increase by one in the decompressing phase as we have one free bit
-            int bitsRequired = 32 - Integer.numberOfLeadingZeros(deltaD); // Faster than highestSetBit
-
-            // Turns to inlineable tableswitch
-            switch(bitsRequired) {
-                case 1:
-                case 2:
-                case 3:
-                case 4:
-                case 5:
-                case 6:
-                case 7:
-                    deltaD |= DELTAD_7_MASK;
-                    out.writeBits(deltaD, 9);
-                    break;
-                case 8:
-                case 9:
-                    deltaD |= DELTAD_9_MASK;
-                    out.writeBits(deltaD, 12);
-                    break;
-                case 10:
-                case 11:
-                case 12:
-                    out.writeBits(deltaD | DELTAD_12_MASK, 16);
-                    break;
-                default:
-                    out.writeBits(0x0F, 4); // Store '1111'
-                    out.writeBits(deltaD, 32); // Store delta using 32 bits
-                    break;
+        super.close();
+        if(CompressionStats.ENABLED && stats != null) {
+            if(isEmpty()) {
+                stats.header(64);
             }
-            storedDelta = newDelta;
+            stats.end(END_BITS);
         }
-
-        storedTimestamp = timestamp;
     }
 
     // START: From protobuf
@@ -155,8 +159,7 @@ public class GorillaCompressor {
      *         Java has no explicit unsigned support.
      */
     public static int encodeZigZag32(final int n) {
-        // Note:  the right-shift must be arithmetic
-        return (n << 1) ^ (n >> 31);
+        return TimestampCompressor.encodeZigZag32(n);
     }
 
     // END: From protobuf
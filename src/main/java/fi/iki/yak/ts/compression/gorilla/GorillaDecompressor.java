@@ -1,7 +1,5 @@
 package fi.iki.yak.ts.compression.gorilla;
 
-import java.util.stream.Stream;
-
 import fi.iki.yak.ts.compression.gorilla.predictors.LastValuePredictor;
 
 /**
@@ -9,105 +7,154 @@ import fi.iki.yak.ts.compression.gorilla.predictors.LastValuePredictor;
  *
  * @author Michael Burman
  */
-public class GorillaDecompressor {
-    private long storedTimestamp = 0;
-    private long storedDelta = 0;
-
-    private long blockTimestamp = 0;
-    private long storedVal = 0;
-    private boolean endOfStream = false;
-
-    private final BitInput in;
+public class GorillaDecompressor extends AbstractGorillaDecompressor {
+    private final TimestampDecompressor timestampDecompressor;
     private final ValueDecompressor decompressor;
+    private CompressionStats stats;
 
     public GorillaDecompressor(BitInput input) {
         this(input, new LastValuePredictor());
     }
 
     public GorillaDecompressor(BitInput input, Predictor predictor) {
-        in = input;
-        readHeader();
+        super(input);
+        this.timestampDecompressor = new TimestampDecompressor(input, getBlockTimestamp());
         this.decompressor = new ValueDecompressor(input, predictor);
     }
 
-    private void readHeader() {
-        blockTimestamp = in.getLong(64);
+    /**
+     * Creates a decompressor for the input and predictor. A {@link LongArrayInput} with a {@link LastValuePredictor}
+     * is read with the specialized {@link LongArrayGorillaDecompressor}, unless {@link CompressionStats} are enabled.
+     * Subclasses of LongArrayInput use the generic decompressor.
+     *
+     * @param input Input positioned at the start of a block
+     * @param predictor Predictor matching the one used to compress the block
+     * @return Decompressor for the block
+     */
+    public static AbstractGorillaDecompressor create(BitInput input, Predictor predictor) {
+        if(!CompressionStats.ENABLED && input.getClass() == LongArrayInput.class
+                && predictor.getClass() == LastValuePredictor.class) {
+            return new LongArrayGorillaDecompressor((LongArrayInput) input);
+        }
+        return new GorillaDecompressor(input, predictor);
     }
 
     /**
-     * Returns the next pair in the time series, if available.
+     * Starts reading a new block, allowing to reuse this decompressor and its predictor for multiple blocks. The
+     * predictor must be a {@link StatefulPredictor}.
      *
-     * @return Pair if there's next value, null if series is done.
+     * @param input Input positioned at the start of a block
      */
-    public Pair readPair() {
-        next();
-        if(endOfStream) {
-            return null;
-        }
-        Pair pair = new Pair(storedTimestamp, storedVal);
-        return pair;
+    @Override
+    public void reset(BitInput input) {
+        decompressor.reset(input);
+        super.reset(input);
+        timestampDecompressor.reset(input, getBlockTimestamp());
     }
 
-    private void next() {
-        // TODO I could implement a non-streaming solution also.. is there ever a need for streaming solution?
+    @Override
+    public void setStats(CompressionStats stats) {
+        this.stats = stats;
+        timestampDecompressor.setStats(stats);
+        decompressor.setStats(stats);
+    }
 
+    @Override
+    public boolean next() {
+        if(endOfStream) {
+            return false;
+        }
         if(storedTimestamp == 0) {
             first();
-            return;
+        } else {
+            nextTimestamp();
+        }
+        return !endOfStream;
+    }
+
+    /**
+     * Moves over the next n pairs as if {@link #next()} was called n times, the last skipped pair becomes the current
+     * one. With the {@link LastValuePredictor} the skipped values are not reconstructed, only their XORs combined,
+     * other predictors need every value and decode them as usual.
+     *
+     * @param n Amount of pairs to skip
+     * @return Amount of pairs skipped, less than n if the series ended
+     */
+    @Override
+    public int skip(int n) {
+        if(n < 0) {
+            throw new IllegalArgumentException("Amount of pairs to skip can not be negative: " + n);
+        }
+        int skipped = 0;
+        if(n > 0 && storedTimestamp == 0 && next()) {
+            skipped++;
+        }
+        if(!decompressor.predictsLastValue()) {
+            while(skipped < n && next()) {
+                skipped++;
+            }
+            return skipped;
         }
+        if(endOfStream) {
+            return skipped;
+        }
+        long xor = 0;
+        for(; skipped < n; skipped++) {
+            if(!timestampDecompressor.nextTimestamp()) {
+                endOfStream = true;
+                break;
+            }
+            xor ^= decompressor.nextXor();
+        }
+        storedTimestamp = timestampDecompressor.getTimestamp();
+        storedVal ^= xor;
+        decompressor.skippedTo(storedVal);
+        return skipped;
+    }
 
-        nextTimestamp();
+    @Override
+    public int count() {
+        if(endOfStream) {
+            return 0;
+        }
+        int count = 0;
+        if(storedTimestamp == 0) {
+            if(!next()) {
+                return 0;
+            }
+            count++;
+        }
+        while(timestampDecompressor.skipTimestamp()) {
+            decompressor.skipValue();
+            count++;
+        }
+        endOfStream = true;
+        return count;
     }
 
     private void first() {
+        if(CompressionStats.ENABLED && stats != null) {
+            // The header is read before the stats can be attached, every block is counted here once
+            stats.header(64);
+        }
         // First item to read
-        storedDelta = in.getLong(Compressor.FIRST_DELTA_BITS);
-        if(storedDelta == (1<<27) - 1) {
+        if(!timestampDecompressor.readFirst()) {
             endOfStream = true;
             return;
         }
         storedVal = decompressor.readFirst();
-//        storedVal = in.getLong(64);
-        storedTimestamp = blockTimestamp + storedDelta;
+        storedTimestamp = timestampDecompressor.getTimestamp();
+        if(CompressionStats.ENABLED && stats != null) {
+            stats.first(TimestampCompressor.FIRST_DELTA_BITS, 64);
+        }
     }
 
     private void nextTimestamp() {
-        // Next, read timestamp
-        int readInstruction = in.nextClearBit(4);
-        long deltaDelta;
-
-        switch(readInstruction) {
-            case 0x00:
-                storedTimestamp = storedDelta + storedTimestamp;
-                storedVal = decompressor.nextValue();
-                return;
-            case 0x02:
-                deltaDelta = in.getLong(7);
-                break;
-            case 0x06:
-                deltaDelta = in.getLong(9);
-                break;
-            case 0x0e:
-                deltaDelta = in.getLong(12);
-                break;
-            case 0x0F:
-                deltaDelta = in.getLong(32);
-                // For storage save.. if this is the last available word, check if remaining bits are all 1
-                if ((int) deltaDelta == 0xFFFFFFFF) {
-                    // End of stream
-                    endOfStream = true;
-                    return;
-                }
-                break;
-            default:
-                return;
+        if(!timestampDecompressor.nextTimestamp()) {
+            endOfStream = true;
+            return;
         }
-
-        deltaDelta++;
-        deltaDelta = decodeZigZag32((int) deltaDelta);
-        storedDelta = storedDelta + deltaDelta;
-
-        storedTimestamp = storedDelta + storedTimestamp;
+        storedTimestamp = timestampDecompressor.getTimestamp();
         storedVal = decompressor.nextValue();
     }
 
@@ -123,7 +170,7 @@ public class GorillaDecompressor {
      * @return A signed 32-bit integer.
      */
     public static int decodeZigZag32(final int n) {
-        return (n >>> 1) ^ -(n & 1);
+        return TimestampDecompressor.decodeZigZag32(n);
     }
 
     // END: From protobuf
@@ -0,0 +1,155 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+/**
+ * Merges two or more compressed blocks into a new block without materializing the points. Inputs are read with
+ * {@link GorillaDecompressor#next()} and written directly to a {@link GorillaCompressor}, so the memory use stays
+ * constant and nothing is allocated per point.
+ *
+ * Values are merged as raw bits, so the same merger works for both long and double series.
+ *
+ * @author Michael Burman
+ */
+public class GorillaMerger {
+
+    /**
+     * Defines what to do when multiple points share the same timestamp.
+     */
+    public enum DuplicatePolicy {
+        /**
+         * Keep the value that was read first, earlier inputs take precedence
+         */
+        KEEP_FIRST,
+        /**
+         * Keep the value that was read last, later inputs take precedence (such as late arriving data)
+         */
+        KEEP_LAST,
+        /**
+         * Keep all the values, in the order of the inputs
+         */
+        KEEP_ALL
+    }
+
+    private final DuplicatePolicy policy;
+
+    private long[] timestamps = new long[2];
+    private long[] values = new long[2];
+    private boolean[] available = new boolean[2];
+
+    private long pendingTimestamp;
+    private long pendingValue;
+    private boolean pending;
+    private int written;
+
+    public GorillaMerger() {
+        this(DuplicatePolicy.KEEP_LAST);
+    }
+
+    public GorillaMerger(DuplicatePolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Merges the inputs in timestamp order to the output. The output is not closed, so more values can be added
+     * after merging. Each input must be in increasing timestamp order and the output must have been created with a
+     * block timestamp that is not later than the first merged timestamp.
+     *
+     * @param inputs Decompressors to read, later inputs take precedence with KEEP_LAST
+     * @param output Compressor to write to
+     * @return Amount of points written to the output
+     */
+    public int merge(AbstractGorillaDecompressor[] inputs, AbstractGorillaCompressor output) {
+        ensureCapacity(inputs.length);
+        pending = false;
+        written = 0;
+
+        for(int i = 0; i < inputs.length; i++) {
+            advance(inputs, i);
+        }
+
+        for(;;) {
+            // Linear scan is faster than a heap for the small amount of blocks usually merged
+            int selected = -1;
+            long minTimestamp = Long.MAX_VALUE;
+            for(int i = 0; i < inputs.length; i++) {
+                if(available[i] && (selected < 0 || timestamps[i] < minTimestamp)) {
+                    selected = i;
+                    minTimestamp = timestamps[i];
+                }
+            }
+            if(selected < 0) {
+                break;
+            }
+            accept(output, minTimestamp, values[selected]);
+            advance(inputs, selected);
+        }
+
+        if(pending) {
+            write(output, pendingTimestamp, pendingValue);
+        }
+        return written;
+    }
+
+    /**
+     * Merges blocks compressed with the default predictor and returns a new closed block. The block timestamp of
+     * the new block is the smallest block timestamp of the inputs.
+     *
+     * @param blocks Compressed blocks, as returned by {@link LongArrayOutput#getLongArray()}
+     * @return Merged and closed block
+     */
+    public long[] merge(long[]... blocks) {
+        GorillaDecompressor[] inputs = new GorillaDecompressor[blocks.length];
+        long blockTimestamp = Long.MAX_VALUE;
+        for(int i = 0; i < blocks.length; i++) {
+            inputs[i] = new GorillaDecompressor(new LongArrayInput(blocks[i]));
+            blockTimestamp = Math.min(blockTimestamp, inputs[i].getBlockTimestamp());
+        }
+
+        LongArrayOutput output = new LongArrayOutput();
+        GorillaCompressor compressor = new GorillaCompressor(blockTimestamp, output);
+        merge(inputs, compressor);
+        compressor.close();
+        return output.getLongArray();
+    }
+
+    private void accept(AbstractGorillaCompressor output, long timestamp, long value) {
+        if(pending && timestamp == pendingTimestamp) {
+            switch(policy) {
+                case KEEP_FIRST:
+                    return;
+                case KEEP_LAST:
+                    pendingValue = value;
+                    return;
+                default:
+                    break;
+            }
+        }
+        if(pending) {
+            write(output, pendingTimestamp, pendingValue);
+        }
+        // Delay the write by one point so that KEEP_LAST can still replace the value
+        pendingTimestamp = timestamp;
+        pendingValue = value;
+        pending = true;
+    }
+
+    private void write(AbstractGorillaCompressor output, long timestamp, long value) {
+        output.addValue(timestamp, value);
+        written++;
+    }
+
+    private void advance(AbstractGorillaDecompressor[] inputs, int i) {
+        available[i] = inputs[i].next();
+        if(available[i]) {
+            timestamps[i] = inputs[i].getTimestamp();
+            values[i] = inputs[i].getLongValue();
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        if(timestamps.length < size) {
+            timestamps = new long[size];
+            values = new long[size];
+            available = new boolean[size];
+        }
+    }
+}
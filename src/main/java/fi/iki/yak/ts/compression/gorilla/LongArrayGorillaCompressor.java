@@ -0,0 +1,157 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import java.nio.ByteBuffer;
+
+import fi.iki.yak.ts.compression.gorilla.predictors.LastValuePredictor;
+
+/**
+ * Compressor specialized for a {@link LongArrayOutput} and the {@link LastValuePredictor} of the original paper.
+ * The bits are written to the array of the output with a final {@link DirectLongArrayOutput} and the prediction is
+ * inlined, so the per point path has no interface calls and stays inlined even when other BitOutput and Predictor
+ * implementations are used in the same JVM. Writes exactly the same stream and state as the
+ * {@link GorillaCompressor}, but without its per block timestamp and value compressors. The bit writing methods of
+ * a LongArrayOutput subclass are bypassed. Use {@link GorillaCompressor#create(long, BitOutput, Predictor)} to select
+ * it automatically.
+ *
+ * @author Michael Burman
+ */
+public final class LongArrayGorillaCompressor extends AbstractGorillaCompressor {
+    private static final int DELTAD_7_MASK = 0x02 << 7;
+    private static final int DELTAD_9_MASK = 0x06 << 9;
+    private static final int DELTAD_12_MASK = 0x0E << 12;
+
+    private final DirectLongArrayOutput out;
+
+    private final long blockTimestamp;
+    private long storedTimestamp = 0;
+    private int storedDelta = 0;
+
+    private long storedVal = 0;
+    private int storedLeadingZeros = Integer.MAX_VALUE;
+    private int storedTrailingZeros = 0;
+
+    public LongArrayGorillaCompressor(long timestamp, LongArrayOutput output) {
+        super(output);
+        this.out = new DirectLongArrayOutput(output);
+        this.blockTimestamp = timestamp;
+        addHeader(timestamp);
+    }
+
+    /**
+     * Does nothing, the statistics are only counted when {@link CompressionStats#ENABLED} and then
+     * {@link GorillaCompressor#create(long, BitOutput, Predictor)} selects the generic compressor.
+     */
+    @Override
+    public void setStats(CompressionStats stats) {
+    }
+
+    @Override
+    public int getStateSize() {
+        return 2 * Long.BYTES + Integer.BYTES + 2 * Integer.BYTES + Long.BYTES;
+    }
+
+    /**
+     * Writes the state in the same layout as the generic compressor, so that the block can be continued with
+     * {@link GorillaCompressor#restore(ByteBuffer, BitOutput)}.
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        buffer.putLong(blockTimestamp);
+        buffer.putLong(storedTimestamp);
+        buffer.putInt(storedDelta);
+        buffer.putInt(storedLeadingZeros);
+        buffer.putInt(storedTrailingZeros);
+        buffer.putLong(storedVal);
+    }
+
+    @Override
+    boolean isEmpty() {
+        return storedTimestamp == 0;
+    }
+
+    @Override
+    public void addValue(long timestamp, long value) {
+        if(storedTimestamp == 0) {
+            storedDelta = (int) (timestamp - blockTimestamp);
+            storedTimestamp = timestamp;
+            out.writeBits(storedDelta, TimestampCompressor.FIRST_DELTA_BITS);
+            storedVal = value;
+            out.writeBits(value, 64);
+            return;
+        }
+        compressTimestamp(timestamp);
+        compressValue(value);
+    }
+
+    @Override
+    public void addValue(long timestamp, double value) {
+        addValue(timestamp, Double.doubleToRawLongBits(value));
+    }
+
+    private void compressTimestamp(long timestamp) {
+        int newDelta = (int) (timestamp - storedTimestamp);
+        int deltaD = newDelta - storedDelta;
+
+        if(deltaD == 0) {
+            out.skipBit();
+        } else {
+            deltaD = TimestampCompressor.encodeZigZag32(deltaD);
+            deltaD--;
+            int bitsRequired = 32 - Integer.numberOfLeadingZeros(deltaD);
+
+            switch(bitsRequired) {
+                case 1:
+                case 2:
+                case 3:
+                case 4:
+                case 5:
+                case 6:
+                case 7:
+                    out.writeBits(deltaD | DELTAD_7_MASK, 9);
+                    break;
+                case 8:
+                case 9:
+                    out.writeBits(deltaD | DELTAD_9_MASK, 12);
+                    break;
+                case 10:
+                case 11:
+                case 12:
+                    out.writeBits(deltaD | DELTAD_12_MASK, 16);
+                    break;
+                default:
+                    out.writeBits(0x0F, 4);
+                    out.writeBits(deltaD, 32);
+                    break;
+            }
+            storedDelta = newDelta;
+        }
+
+        storedTimestamp = timestamp;
+    }
+
+    private void compressValue(long value) {
+        long xor = storedVal ^ value;
+        storedVal = value;
+
+        if(xor == 0) {
+            out.skipBit();
+            return;
+        }
+        int leadingZeros = Long.numberOfLeadingZeros(xor);
+        int trailingZeros = Long.numberOfTrailingZeros(xor);
+
+        out.writeBit();
+        if(leadingZeros >= storedLeadingZeros && trailingZeros >= storedTrailingZeros) {
+            out.skipBit();
+            out.writeBits(xor >>> storedTrailingZeros, 64 - storedLeadingZeros - storedTrailingZeros);
+        } else {
+            int significantBits = 64 - leadingZeros - trailingZeros;
+            out.writeBit();
+            out.writeBits(leadingZeros, 6);
+            out.writeBits(significantBits - 1, 6);
+            out.writeBits(xor >>> trailingZeros, significantBits);
+            storedLeadingZeros = leadingZeros;
+            storedTrailingZeros = trailingZeros;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import fi.iki.yak.ts.compression.gorilla.predictors.LastValuePredictor;
+
+/**
+ * Decompressor specialized for a {@link LongArrayInput} and the {@link LastValuePredictor} of the original paper, the
+ * counterpart of {@link LongArrayGorillaCompressor}. Reads the array of the input with a final
+ * {@link DirectLongArrayInput} and keeps its own decoding state instead of the timestamp and value decompressors of
+ * the {@link GorillaDecompressor}. The bit reading methods of a LongArrayInput subclass are bypassed. Use
+ * {@link GorillaDecompressor#create(BitInput, Predictor)} to select it automatically.
+ *
+ * @author Michael Burman
+ */
+public final class LongArrayGorillaDecompressor extends AbstractGorillaDecompressor {
+    private static final int[] CONTROL_BITS = { 1, 2, 3, 4, 4 };
+    private static final int[] DELTA_BITS = { 0, 7, 9, 12, 32 };
+
+    private final DirectLongArrayInput in;
+
+    private long storedDelta = 0;
+    private int storedLeadingZeros = Integer.MAX_VALUE;
+    private int storedTrailingZeros = 0;
+
+    public LongArrayGorillaDecompressor(LongArrayInput input) {
+        super(input);
+        this.in = new DirectLongArrayInput(input);
+    }
+
+    /**
+     * @param input A LongArrayInput positioned at the start of a block
+     */
+    @Override
+    public void reset(BitInput input) {
+        if(!(input instanceof LongArrayInput)) {
+            throw new IllegalArgumentException(getClass().getSimpleName() + " can only read a LongArrayInput");
+        }
+        super.reset(input);
+        in.reset((LongArrayInput) input);
+        storedDelta = 0;
+        storedLeadingZeros = Integer.MAX_VALUE;
+        storedTrailingZeros = 0;
+    }
+
+    /**
+     * Does nothing, the statistics are only counted when {@link CompressionStats#ENABLED} and then
+     * {@link GorillaDecompressor#create(BitInput, Predictor)} selects the generic decompressor.
+     */
+    @Override
+    public void setStats(CompressionStats stats) {
+    }
+
+    @Override
+    public boolean next() {
+        if(endOfStream) {
+            return false;
+        }
+        if(storedTimestamp == 0) {
+            readFirst();
+        } else if(readTimestamp()) {
+            readValue();
+        }
+        return !endOfStream;
+    }
+
+    @Override
+    public int skip(int n) {
+        if(n < 0) {
+            throw new IllegalArgumentException("Amount of pairs to skip can not be negative: " + n);
+        }
+        int skipped = 0;
+        if(n > 0 && storedTimestamp == 0 && next()) {
+            skipped++;
+        }
+        // readValue only XORs the payload into the last value, there is nothing more to leave out
+        while(skipped < n && !endOfStream && readTimestamp()) {
+            readValue();
+            skipped++;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int count() {
+        if(endOfStream) {
+            return 0;
+        }
+        int count = 0;
+        if(storedTimestamp == 0) {
+            if(!next()) {
+                return 0;
+            }
+            count++;
+        }
+        while(skipTimestamp()) {
+            skipValue();
+            count++;
+        }
+        endOfStream = true;
+        return count;
+    }
+
+    private void readFirst() {
+        storedDelta = in.getLong(TimestampCompressor.FIRST_DELTA_BITS);
+        if(storedDelta == (1 << TimestampCompressor.FIRST_DELTA_BITS) - 1) {
+            endOfStream = true;
+            return;
+        }
+        storedVal = in.getLong(64);
+        storedTimestamp = getBlockTimestamp() + storedDelta;
+    }
+
+    private boolean readTimestamp() {
+        int ones = TimestampDecompressor.leadingOnes((int) in.peekBits(4));
+        if(ones == 0) {
+            in.consume(1);
+            storedTimestamp += storedDelta;
+            return true;
+        }
+        in.consume(CONTROL_BITS[ones]);
+        long deltaDelta = in.getLong(DELTA_BITS[ones]);
+        if(ones == 4 && (int) deltaDelta == 0xFFFFFFFF) {
+            endOfStream = true;
+            return false;
+        }
+        deltaDelta++;
+        storedDelta += TimestampDecompressor.decodeZigZag32((int) deltaDelta);
+        storedTimestamp += storedDelta;
+        return true;
+    }
+
+    private void readValue() {
+        int window = (int) in.peekBits(14);
+        if(window < 2 << 12) {
+            in.consume(1);
+            return;
+        }
+        if(window >= 3 << 12) {
+            storedLeadingZeros = (window >>> 6) & 0x3F;
+            storedTrailingZeros = 64 - ((window & 0x3F) + 1) - storedLeadingZeros;
+            in.consume(14);
+        } else {
+            in.consume(2);
+        }
+        long xor = in.getLong(64 - storedLeadingZeros - storedTrailingZeros);
+        storedVal ^= xor << storedTrailingZeros;
+    }
+
+    private boolean skipTimestamp() {
+        int ones = TimestampDecompressor.leadingOnes((int) in.peekBits(4));
+        in.consume(CONTROL_BITS[ones]);
+        if(ones < 4) {
+            in.consume(DELTA_BITS[ones]);
+            return true;
+        }
+        return (int) in.getLong(DELTA_BITS[ones]) != 0xFFFFFFFF;
+    }
+
+    private void skipValue() {
+        int window = (int) in.peekBits(14);
+        if(window < 2 << 12) {
+            in.consume(1);
+            return;
+        }
+        if(window >= 3 << 12) {
+            storedLeadingZeros = (window >>> 6) & 0x3F;
+            storedTrailingZeros = 64 - ((window & 0x3F) + 1) - storedLeadingZeros;
+            in.consume(14);
+        } else {
+            in.consume(2);
+        }
+        in.consume(64 - storedLeadingZeros - storedTrailingZeros);
+    }
+}
@@ -22,13 +22,43 @@ package fi.iki.yak.ts.compression.gorilla;
  * @author Michael Burman
  */
 public class LongArrayInput implements BitInput {
-    private final long[] longArray; // TODO Investigate also the ByteBuffer performance here.. or Unsafe
-    private long lB;
-    private int position = 0;
-    private int bitsLeft = 0;
+    // Package-private for DirectLongArrayInput
+    long[] longArray; // TODO Investigate also the ByteBuffer performance here.. or Unsafe
+    long lB;
+    int position = 0;
+    int bitsLeft = 0;
 
     public LongArrayInput(long[] array) {
+        reset(array);
+    }
+
+    /**
+     * @param array Array to read
+     * @param offset Index of the first word to read
+     */
+    public LongArrayInput(long[] array, int offset) {
+        reset(array, offset);
+    }
+
+    /**
+     * Starts reading a new array, allowing to reuse this instance.
+     *
+     * @param array Array to read
+     */
+    public void reset(long[] array) {
+        reset(array, 0);
+    }
+
+    /**
+     * Starts reading a new array from the given word, such as a column of a {@link ColumnarCompressor} block.
+     * {@link #getBitsRead()} counts from the start of the array.
+     *
+     * @param array Array to read
+     * @param offset Index of the first word to read
+     */
+    public void reset(long[] array, int offset) {
         this.longArray = array;
+        this.position = offset;
         flipByte();
     }
 
@@ -72,21 +102,31 @@ public class LongArrayInput implements BitInput {
         return value;
     }
 
-    @Override
-    public int nextClearBit(int maxBits) {
-        int val = 0x00;
+    /**
+     * @return Amount of bits read from the stream
+     */
+    public long getBitsRead() {
+        return (long) position * Long.SIZE - bitsLeft;
+    }
 
-        for(int i = 0; i < maxBits; i++) {
-            val <<= 1;
-            // TODO This loop has too many branches and unnecessary boolean casts
-            boolean bit = readBit();
+    @Override
+    public long peekBits(int bits) {
+        if(bits <= bitsLeft) {
+            return (lB >>> (bitsLeft - bits)) & LongArrayOutput.MASK_ARRAY[bits - 1];
+        }
+        long next = position < longArray.length ? longArray[position] : 0;
+        int rest = bits - bitsLeft;
+        return ((lB & LongArrayOutput.MASK_ARRAY[bitsLeft - 1]) << rest) | (next >>> (Long.SIZE - rest));
+    }
 
-            if(bit) {
-                val |= 0x01;
-            } else {
-                break;
-            }
+    @Override
+    public void consume(int bits) {
+        if(bits < bitsLeft) {
+            bitsLeft -= bits;
+        } else {
+            bits -= bitsLeft;
+            flipByte();
+            bitsLeft -= bits;
         }
-        return val;
     }
 }
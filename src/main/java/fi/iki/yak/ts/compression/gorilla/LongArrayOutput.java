@@ -10,8 +10,9 @@ import java.util.Arrays;
 public class LongArrayOutput implements BitOutput {
     public static final int DEFAULT_ALLOCATION = 256;
 
-    private long[] longArray;
-    private int position = 0;
+    // Package-private for ConcurrentLongArrayOutput and DirectLongArrayOutput
+    long[] longArray;
+    int position = 0;
 
     protected long lB;
     protected int bitsLeft = Long.SIZE;
@@ -55,6 +56,39 @@ public class LongArrayOutput implements BitOutput {
         lB = longArray[position];
     }
 
+    /**
+     * Writes to the given array, such as one acquired from a {@link LongArrayPool}. The previous contents of the
+     * array are ignored and the array is replaced with a larger one when it fills up.
+     *
+     * @param buffer Array to write to, at least two words long
+     */
+    public LongArrayOutput(long[] buffer) {
+        if(buffer.length < 2) {
+            throw new IllegalArgumentException("Buffer must have at least two words");
+        }
+        longArray = buffer;
+    }
+
+    /**
+     * Continues writing to an existing array, such as a persisted partial block returned by {@link #getLongArray()}.
+     *
+     * @param array Previously written words, the array is copied
+     * @param bitsWritten Amount of bits written to the array, as returned by {@link #getBitsWritten()}
+     */
+    public LongArrayOutput(long[] array, long bitsWritten) {
+        position = (int) (bitsWritten / Long.SIZE);
+        bitsLeft = Long.SIZE - (int) (bitsWritten % Long.SIZE);
+        if(position > array.length || (position == array.length && bitsLeft < Long.SIZE)) {
+            throw new IllegalArgumentException("Array does not contain " + bitsWritten + " bits");
+        }
+        longArray = new long[Math.max(position + 2, DEFAULT_ALLOCATION)];
+        System.arraycopy(array, 0, longArray, 0, position);
+        if(bitsLeft < Long.SIZE) {
+            // Clear the bits that are not part of the written stream
+            lB = array[position] & ~MASK_ARRAY[bitsLeft - 1];
+        }
+    }
+
     protected void expandAllocation() {
         long[] largerArray = new long[longArray.length*2];
         System.arraycopy(longArray, 0, largerArray, 0, longArray.length);
@@ -138,6 +172,13 @@ public class LongArrayOutput implements BitOutput {
         flipWord();
     }
 
+    /**
+     * @return Amount of bits written to the stream
+     */
+    public long getBitsWritten() {
+        return (long) position * Long.SIZE + Long.SIZE - bitsLeft;
+    }
+
     public long[] getLongArray() {
         long[] copy = Arrays.copyOf(longArray, position + 1);
         copy[copy.length - 1] = lB;
@@ -0,0 +1,81 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import java.util.ArrayDeque;
+
+/**
+ * Pool of long arrays for reusing the arrays of released blocks as the buffers of new blocks. The arrays are grouped
+ * by power of two size classes and the pool keeps at most the given amount of bytes, arrays released to a full pool
+ * are left to the garbage collector. The arrays are not cleared, {@link LongArrayOutput} overwrites every word it
+ * writes.
+ *
+ * @author Michael Burman
+ */
+public class LongArrayPool {
+    private final long maxBytes;
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<long[]>[] classes = (ArrayDeque<long[]>[]) new ArrayDeque<?>[Integer.SIZE];
+
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param maxBytes Maximum size of the pooled arrays in bytes
+     */
+    public LongArrayPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+        for(int i = 0; i < classes.length; i++) {
+            classes[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Returns a pooled array of at least the given length, or a new array if there is none
+     *
+     * @param minLength Minimum length of the array
+     * @return Array with undefined contents
+     */
+    public synchronized long[] acquire(int minLength) {
+        int first = minLength <= 1 ? 0 : Integer.SIZE - Integer.numberOfLeadingZeros(minLength - 1);
+        for(int i = first; i < classes.length; i++) {
+            long[] array = classes[i].pollLast();
+            if(array != null) {
+                bytes -= (long) array.length * Long.BYTES;
+                hits++;
+                return array;
+            }
+        }
+        misses++;
+        return new long[minLength];
+    }
+
+    /**
+     * Gives an array to the pool. The array must not be used by anyone afterwards.
+     *
+     * @param array Array to reuse
+     */
+    public synchronized void release(long[] array) {
+        long size = (long) array.length * Long.BYTES;
+        if(array.length == 0 || bytes + size > maxBytes) {
+            return;
+        }
+        // Size class is the largest power of two not greater than the length
+        classes[Integer.SIZE - 1 - Integer.numberOfLeadingZeros(array.length)].addLast(array);
+        bytes += size;
+    }
+
+    /**
+     * @return Bytes held by the pool
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+}
@@ -0,0 +1,147 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import java.util.function.Supplier;
+
+import fi.iki.yak.ts.compression.gorilla.predictors.LastValuePredictor;
+
+/**
+ * Compresses multiple series sharing the same timestamps to a single block, such as the metrics scraped from one host.
+ * The timestamps are stored once and each series has its own value column with its own predictor. The columns use
+ * the encoding of {@link ColumnarCompressor}:
+ *
+ * <pre>
+ * word 0:   block timestamp
+ * word 1:   amount of rows
+ * word 2:   amount of value columns N
+ * word 3-:  index of the first word of each of the N value columns
+ * then:     timestamp column, value columns, one padding word
+ * </pre>
+ *
+ * @author Michael Burman
+ */
+public class MultiValueCompressor {
+    static final int HEADER_WORDS = 3;
+
+    private final long blockTimestamp;
+    private final LongArrayOutput timestampOutput = new LongArrayOutput();
+    private final TimestampCompressor timestampCompressor;
+    private final LongArrayOutput[] valueOutputs;
+    private final ValueCompressor[] valueCompressors;
+    private int count = 0;
+
+    public MultiValueCompressor(long blockTimestamp, int columns) {
+        this(blockTimestamp, columns, LastValuePredictor::new);
+    }
+
+    /**
+     * @param blockTimestamp Block timestamp of the block
+     * @param columns Amount of value columns
+     * @param predictorSupplier Supplies the predictor of each column
+     */
+    public MultiValueCompressor(long blockTimestamp, int columns, Supplier<Predictor> predictorSupplier) {
+        if(columns < 1) {
+            throw new IllegalArgumentException("At least one value column is required");
+        }
+        this.blockTimestamp = blockTimestamp;
+        this.timestampCompressor = new TimestampCompressor(blockTimestamp, timestampOutput);
+        this.valueOutputs = new LongArrayOutput[columns];
+        this.valueCompressors = new ValueCompressor[columns];
+        for(int i = 0; i < columns; i++) {
+            // Value columns of similar metrics are mostly small, start smaller than the default
+            valueOutputs[i] = new LongArrayOutput(LongArrayOutput.DEFAULT_ALLOCATION / 4);
+            valueCompressors[i] = new ValueCompressor(valueOutputs[i], predictorSupplier.get());
+        }
+    }
+
+    /**
+     * Adds a row of long values. Note, rows must be inserted in order.
+     *
+     * @param timestamp Timestamp which is inside the block
+     * @param values One value for each column
+     */
+    public void addRow(long timestamp, long[] values) {
+        if(values.length != valueCompressors.length) {
+            throw new IllegalArgumentException("Expected " + valueCompressors.length + " values, got " +
+                    values.length);
+        }
+        if(count == 0) {
+            timestampCompressor.writeFirst(timestamp);
+            for(int i = 0; i < values.length; i++) {
+                valueCompressors[i].writeFirst(values[i]);
+            }
+        } else {
+            timestampCompressor.compressTimestamp(timestamp);
+            for(int i = 0; i < values.length; i++) {
+                valueCompressors[i].compressValue(values[i]);
+            }
+        }
+        count++;
+    }
+
+    /**
+     * Adds a row of floating point values. Note, rows must be inserted in order.
+     *
+     * @param timestamp Timestamp which is inside the block
+     * @param values One value for each column
+     */
+    public void addRow(long timestamp, double[] values) {
+        if(values.length != valueCompressors.length) {
+            throw new IllegalArgumentException("Expected " + valueCompressors.length + " values, got " +
+                    values.length);
+        }
+        if(count == 0) {
+            timestampCompressor.writeFirst(timestamp);
+            for(int i = 0; i < values.length; i++) {
+                valueCompressors[i].writeFirst(Double.doubleToRawLongBits(values[i]));
+            }
+        } else {
+            timestampCompressor.compressTimestamp(timestamp);
+            for(int i = 0; i < values.length; i++) {
+                valueCompressors[i].compressValue(Double.doubleToRawLongBits(values[i]));
+            }
+        }
+        count++;
+    }
+
+    /**
+     * @return Amount of rows added
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public int getColumnCount() {
+        return valueCompressors.length;
+    }
+
+    /**
+     * Closes the block and joins the columns
+     *
+     * @return The compressed block
+     */
+    public long[] close() {
+        int columns = valueOutputs.length;
+        int timestampWords = ColumnarCompressor.words(timestampOutput);
+        int[] valueWords = new int[columns];
+        int length = HEADER_WORDS + columns + timestampWords;
+        for(int i = 0; i < columns; i++) {
+            valueWords[i] = ColumnarCompressor.words(valueOutputs[i]);
+            length += valueWords[i];
+        }
+
+        // The inputs read one word ahead
+        long[] block = new long[length + 1];
+        block[0] = blockTimestamp;
+        block[1] = count;
+        block[2] = columns;
+        int offset = HEADER_WORDS + columns;
+        System.arraycopy(timestampOutput.getLongArray(), 0, block, offset, timestampWords);
+        offset += timestampWords;
+        for(int i = 0; i < columns; i++) {
+            block[HEADER_WORDS + i] = offset;
+            System.arraycopy(valueOutputs[i].getLongArray(), 0, block, offset, valueWords[i]);
+            offset += valueWords[i];
+        }
+        return block;
+    }
+}
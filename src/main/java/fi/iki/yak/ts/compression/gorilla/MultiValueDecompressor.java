@@ -0,0 +1,152 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import java.util.function.Supplier;
+
+import fi.iki.yak.ts.compression.gorilla.predictors.LastValuePredictor;
+
+/**
+ * Decompresses a block created by the {@link MultiValueCompressor} row by row. Only the selected value columns are
+ * decompressed, the bits of the other columns are never read. The timestamps are decompressed once for all the
+ * selected columns.
+ *
+ * @author Michael Burman
+ */
+public class MultiValueDecompressor {
+    private final long[] block;
+    private final int count;
+
+    private final TimestampDecompressor timestampDecompressor;
+    private final ValueDecompressor[] valueDecompressors;
+    private final long[] row;
+    private int read = 0;
+
+    public MultiValueDecompressor(long[] block) {
+        this(block, LastValuePredictor::new);
+    }
+
+    /**
+     * @param block Compressed block
+     * @param predictorSupplier Supplies a predictor matching the one used to compress the columns
+     * @param columns Indexes of the value columns to read, all the columns if none are given
+     */
+    public MultiValueDecompressor(long[] block, Supplier<Predictor> predictorSupplier, int... columns) {
+        if(block.length < MultiValueCompressor.HEADER_WORDS + 1 || block[2] < 1 ||
+                MultiValueCompressor.HEADER_WORDS + block[2] >= block.length) {
+            throw new IllegalArgumentException("Not a multi-value block");
+        }
+        this.block = block;
+        this.count = (int) block[1];
+        int columnCount = (int) block[2];
+        if(columns.length == 0) {
+            columns = new int[columnCount];
+            for(int i = 0; i < columnCount; i++) {
+                columns[i] = i;
+            }
+        }
+
+        timestampDecompressor = new TimestampDecompressor(
+                new LongArrayInput(block, MultiValueCompressor.HEADER_WORDS + columnCount), block[0]);
+        valueDecompressors = new ValueDecompressor[columns.length];
+        for(int i = 0; i < columns.length; i++) {
+            if(columns[i] < 0 || columns[i] >= columnCount) {
+                throw new IllegalArgumentException("Column " + columns[i] + " does not exist, the block has " +
+                        columnCount + " columns");
+            }
+            valueDecompressors[i] = new ValueDecompressor(new LongArrayInput(block, columnOffset(columns[i])),
+                    predictorSupplier.get());
+        }
+        row = new long[columns.length];
+    }
+
+    private int columnOffset(int column) {
+        return (int) block[MultiValueCompressor.HEADER_WORDS + column];
+    }
+
+    public long getBlockTimestamp() {
+        return block[0];
+    }
+
+    /**
+     * @return Amount of rows in the block, read from the header
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return Amount of value columns in the block
+     */
+    public int getColumnCount() {
+        return (int) block[2];
+    }
+
+    /**
+     * Moves to the next row
+     *
+     * @return true if there's next row, false if the block is done
+     */
+    public boolean next() {
+        if(read == count) {
+            return false;
+        }
+        if(read++ == 0) {
+            timestampDecompressor.readFirst();
+            for(int i = 0; i < valueDecompressors.length; i++) {
+                row[i] = valueDecompressors[i].readFirst();
+            }
+        } else {
+            timestampDecompressor.nextTimestamp();
+            for(int i = 0; i < valueDecompressors.length; i++) {
+                row[i] = valueDecompressors[i].nextValue();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Timestamp of the current row
+     */
+    public long getTimestamp() {
+        return timestampDecompressor.getTimestamp();
+    }
+
+    /**
+     * @param i Index of the column in the selected columns
+     * @return Value of the column in the current row as a long, or the raw bits of a double value
+     */
+    public long getLongValue(int i) {
+        return row[i];
+    }
+
+    /**
+     * @param i Index of the column in the selected columns
+     * @return Value of the column in the current row as a double
+     */
+    public double getDoubleValue(int i) {
+        return Double.longBitsToDouble(row[i]);
+    }
+
+    /**
+     * Copies the values of the selected columns in the current row
+     *
+     * @param values Array of at least as many elements as there are selected columns
+     */
+    public void getRow(long[] values) {
+        System.arraycopy(row, 0, values, 0, row.length);
+    }
+
+    /**
+     * Reads the remaining rows of a single selected column as a series. The other selected columns are decompressed
+     * too, select only the one column to skip them.
+     *
+     * @param i Index of the column in the selected columns
+     * @return Points of the column
+     */
+    public DataPoints readColumn(int i) {
+        DataPoints points = new DataPoints(Math.max(count - read, 1));
+        while(next()) {
+            points.accept(getTimestamp(), row[i]);
+        }
+        return points;
+    }
+}
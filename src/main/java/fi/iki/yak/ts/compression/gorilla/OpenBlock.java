@@ -0,0 +1,270 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import java.nio.ByteBuffer;
+
+import fi.iki.yak.ts.compression.gorilla.predictors.LastValuePredictor;
+
+/**
+ * A block that is still being written by a single writer, while any amount of readers decode the points written so
+ * far. Each added point is committed to the {@link ConcurrentLongArrayOutput}, so readers never block the writer and
+ * never copy the block.
+ *
+ * The write methods ({@link #addValue(long, long)}, {@link #close()}, {@link #snapshot()}) must be called by the
+ * writer thread only, {@link #read(Predictor, long, long, PairConsumer)} can be called by any thread.
+ *
+ * @author Michael Burman
+ */
+public class OpenBlock {
+    private final long blockTimestamp;
+    private final ConcurrentLongArrayOutput output;
+    private final AbstractGorillaCompressor compressor;
+
+    private long firstTimestamp;
+    private long lastTimestamp;
+    private int count;
+    private double minValue = Double.POSITIVE_INFINITY;
+    private double maxValue = Double.NEGATIVE_INFINITY;
+
+    public OpenBlock(long blockTimestamp) {
+        this(blockTimestamp, new LastValuePredictor());
+    }
+
+    public OpenBlock(long blockTimestamp, StatefulPredictor predictor) {
+        this(blockTimestamp, predictor, new ConcurrentLongArrayOutput());
+    }
+
+    /**
+     * @param blockTimestamp Block timestamp of the block
+     * @param predictor Predictor for the values
+     * @param buffer Array to write the block to, such as one acquired from a {@link LongArrayPool}
+     */
+    public OpenBlock(long blockTimestamp, StatefulPredictor predictor, long[] buffer) {
+        this(blockTimestamp, predictor, new ConcurrentLongArrayOutput(buffer));
+    }
+
+    private OpenBlock(long blockTimestamp, StatefulPredictor predictor, ConcurrentLongArrayOutput output) {
+        this.blockTimestamp = blockTimestamp;
+        this.output = output;
+        this.compressor = GorillaCompressor.create(blockTimestamp, output, predictor);
+        output.commit();
+    }
+
+    private OpenBlock(long blockTimestamp, ConcurrentLongArrayOutput output, AbstractGorillaCompressor compressor) {
+        this.blockTimestamp = blockTimestamp;
+        this.output = output;
+        this.compressor = compressor;
+    }
+
+    /**
+     * Restores an open block persisted with {@link #getWords()}, {@link #getBitsWritten()} and
+     * {@link #saveState(ByteBuffer)}, allowing to continue appending to it.
+     *
+     * @param words Written words of the block, the array is copied
+     * @param bitsWritten Amount of bits written to the words
+     * @param state Buffer to read the compressor state from
+     * @param predictor Predictor of the same type as the one used by the original block
+     * @param firstTimestamp Timestamp of the first point in the block
+     * @param lastTimestamp Timestamp of the last point in the block
+     * @param count Amount of points in the block
+     * @return Block that continues the persisted block
+     */
+    public static OpenBlock restore(long[] words, long bitsWritten, ByteBuffer state, StatefulPredictor predictor,
+                                    long firstTimestamp, long lastTimestamp, int count) {
+        // The range of the persisted points is not known
+        return restore(words, bitsWritten, state, predictor, firstTimestamp, lastTimestamp, count,
+                Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Restores an open block like {@link #restore(long[], long, ByteBuffer, StatefulPredictor, long, long, int)}, with
+     * the range of its values as returned by {@link #getMinValue()} and {@link #getMaxValue()}.
+     *
+     * @param words Written words of the block, the array is copied
+     * @param bitsWritten Amount of bits written to the words
+     * @param state Buffer to read the compressor state from
+     * @param predictor Predictor of the same type as the one used by the original block
+     * @param firstTimestamp Timestamp of the first point in the block
+     * @param lastTimestamp Timestamp of the last point in the block
+     * @param count Amount of points in the block
+     * @param minValue Smallest double value in the block
+     * @param maxValue Largest double value in the block
+     * @return Block that continues the persisted block
+     */
+    public static OpenBlock restore(long[] words, long bitsWritten, ByteBuffer state, StatefulPredictor predictor,
+                                    long firstTimestamp, long lastTimestamp, int count, double minValue,
+                                    double maxValue) {
+        ConcurrentLongArrayOutput output = new ConcurrentLongArrayOutput(words, bitsWritten);
+        // The state starts with the block timestamp
+        long blockTimestamp = state.getLong(state.position());
+        OpenBlock block = new OpenBlock(blockTimestamp, output, GorillaCompressor.restore(state, output, predictor));
+        block.firstTimestamp = firstTimestamp;
+        block.lastTimestamp = lastTimestamp;
+        block.count = count;
+        block.minValue = minValue;
+        block.maxValue = maxValue;
+        return block;
+    }
+
+    /**
+     * Adds a new long value to the block and makes it visible to the readers.
+     *
+     * @param timestamp Timestamp which is inside the block
+     * @param value next long value in the series
+     */
+    public void addValue(long timestamp, long value) {
+        compressor.addValue(timestamp, value);
+        if(count == 0) {
+            firstTimestamp = timestamp;
+        }
+        lastTimestamp = timestamp;
+        count++;
+        // Range of the values as doubles for the block summary, NaN fails both comparisons
+        double d = Double.longBitsToDouble(value);
+        if(d < minValue) {
+            minValue = d;
+        }
+        if(d > maxValue) {
+            maxValue = d;
+        }
+        output.commit();
+    }
+
+    /**
+     * Adds a new double value to the block and makes it visible to the readers.
+     *
+     * @param timestamp Timestamp which is inside the block
+     * @param value next floating point value in the series
+     */
+    public void addValue(long timestamp, double value) {
+        addValue(timestamp, Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Closes the block. Readers which are still reading this block will see the end of the stream.
+     *
+     * @return The closed block
+     */
+    public Block close() {
+        compressor.close();
+        output.commit();
+        return new Block(output.getLongArray(), firstTimestamp, lastTimestamp, count, minValue, maxValue);
+    }
+
+    /**
+     * Returns the array the block is being written to, which the readers of the open block use. Once the block is
+     * closed and no reader uses the array anymore, it can be given to a {@link LongArrayPool}.
+     *
+     * @return Current backing array
+     */
+    public long[] getBuffer() {
+        return output.getPublishedArray();
+    }
+
+    /**
+     * Copies the current state of the block. Unlike a closed block, the copy has no end marker.
+     *
+     * @return Copy of the block
+     */
+    public Block snapshot() {
+        return new Block(output.getLongArray(), firstTimestamp, lastTimestamp, count, minValue, maxValue);
+    }
+
+    /**
+     * @return Copy of the written words, the last word is partially written
+     */
+    public long[] getWords() {
+        return output.getLongArray();
+    }
+
+    /**
+     * @return Amount of bits written to the block
+     */
+    public long getBitsWritten() {
+        return output.getBitsWritten();
+    }
+
+    /**
+     * @return Amount of bytes required to store the state of the block with {@link #saveState(ByteBuffer)}
+     */
+    public int getStateSize() {
+        return compressor.getStateSize();
+    }
+
+    /**
+     * Writes the compressor state of the block, the compressed bits are not included
+     *
+     * @param buffer Buffer to write the state to
+     */
+    public void saveState(ByteBuffer buffer) {
+        compressor.saveState(buffer);
+    }
+
+    /**
+     * Decompresses the committed points that are inside the given time range. Can be called concurrently with the
+     * writer.
+     *
+     * @param predictor Predictor matching the one used to compress the block
+     * @param from Start of the range, inclusive
+     * @param to End of the range, inclusive
+     * @param consumer Receives the points
+     * @return Amount of points given to the consumer
+     */
+    public int read(Predictor predictor, long from, long to, PairConsumer consumer) {
+        // Order matters, the array must be read after the committed bits
+        long committedBits = output.getCommittedBits();
+        LongArrayInput input = new LongArrayInput(output.getPublishedArray());
+        AbstractGorillaDecompressor d = GorillaDecompressor.create(input, predictor);
+
+        int read = 0;
+        while(input.getBitsRead() < committedBits && d.next()) {
+            long timestamp = d.getTimestamp();
+            if(timestamp > to) {
+                break;
+            }
+            if(timestamp >= from) {
+                consumer.accept(timestamp, d.getLongValue());
+                read++;
+            }
+        }
+        return read;
+    }
+
+    public long getBlockTimestamp() {
+        return blockTimestamp;
+    }
+
+    /**
+     * @return Timestamp of the first point, as seen by the writer thread
+     */
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    /**
+     * @return Timestamp of the last point, as seen by the writer thread
+     */
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * @return Amount of points added, as seen by the writer thread
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return Smallest double value added, NaN values excluded, as seen by the writer thread
+     */
+    public double getMinValue() {
+        return minValue;
+    }
+
+    /**
+     * @return Largest double value added, NaN values excluded, as seen by the writer thread
+     */
+    public double getMaxValue() {
+        return maxValue;
+    }
+}
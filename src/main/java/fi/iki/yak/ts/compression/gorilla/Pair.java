@@ -25,4 +25,10 @@ public class Pair {
     public long getLongValue() {
         return value;
     }
+
+    // Used by the streams that reuse a single instance
+    void set(long timestamp, long value) {
+        this.timestamp = timestamp;
+        this.value = value;
+    }
 }
@@ -0,0 +1,18 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+/**
+ * Receives the decompressed pairs without allocating a Pair for each point.
+ *
+ * @author Michael Burman
+ */
+@FunctionalInterface
+public interface PairConsumer {
+
+    /**
+     * Accepts the next pair of the series
+     *
+     * @param timestamp Timestamp of the pair
+     * @param value Long value, or bits of a double (use Double.longBitsToDouble(value))
+     */
+    void accept(long timestamp, long value);
+}
@@ -0,0 +1,87 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+/**
+ * Selects pairs while decompressing, without allocating a Pair for each point. Predicates that can tell from the
+ * value range of a block that none of its points match implement {@link #mayMatch(double, double)}, which allows
+ * skipping the block without decompressing it.
+ *
+ * @author Michael Burman
+ */
+@FunctionalInterface
+public interface PairPredicate {
+
+    /**
+     * @param timestamp Timestamp of the pair
+     * @param value Long value, or bits of a double (use Double.longBitsToDouble(value))
+     * @return true if the pair is selected
+     */
+    boolean test(long timestamp, long value);
+
+    /**
+     * Checks if a block with the given double values could have matching points. NaN values are not part of the
+     * range, so a predicate which accepts NaN must return true.
+     *
+     * @param minValue Smallest double value of the block
+     * @param maxValue Largest double value of the block
+     * @return false if no point of the block can match
+     */
+    default boolean mayMatch(double minValue, double maxValue) {
+        return true;
+    }
+
+    /**
+     * @param threshold Exclusive lower bound
+     * @return Predicate selecting double values greater than the threshold
+     */
+    static PairPredicate doubleAbove(double threshold) {
+        return new PairPredicate() {
+            @Override
+            public boolean test(long timestamp, long value) {
+                return Double.longBitsToDouble(value) > threshold;
+            }
+
+            @Override
+            public boolean mayMatch(double minValue, double maxValue) {
+                return maxValue > threshold;
+            }
+        };
+    }
+
+    /**
+     * @param threshold Exclusive upper bound
+     * @return Predicate selecting double values less than the threshold
+     */
+    static PairPredicate doubleBelow(double threshold) {
+        return new PairPredicate() {
+            @Override
+            public boolean test(long timestamp, long value) {
+                return Double.longBitsToDouble(value) < threshold;
+            }
+
+            @Override
+            public boolean mayMatch(double minValue, double maxValue) {
+                return minValue < threshold;
+            }
+        };
+    }
+
+    /**
+     * @param min Inclusive lower bound
+     * @param max Inclusive upper bound
+     * @return Predicate selecting double values between min and max
+     */
+    static PairPredicate doubleBetween(double min, double max) {
+        return new PairPredicate() {
+            @Override
+            public boolean test(long timestamp, long value) {
+                double v = Double.longBitsToDouble(value);
+                return v >= min && v <= max;
+            }
+
+            @Override
+            public boolean mayMatch(double minValue, double maxValue) {
+                return maxValue >= min && minValue <= max;
+            }
+        };
+    }
+}
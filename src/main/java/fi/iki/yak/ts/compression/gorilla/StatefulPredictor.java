@@ -0,0 +1,38 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A predictor that can be reset for a new block and whose state can be saved and restored, allowing to reuse it for
+ * multiple blocks and to continue a persisted block.
+ *
+ * @author Michael Burman
+ */
+public interface StatefulPredictor extends Predictor {
+
+    /**
+     * Resets the predictor to the initial state, allowing to reuse it for a new block.
+     */
+    void reset();
+
+    /**
+     * Amount of bytes required to store the state of this predictor with {@link #saveState(ByteBuffer)}
+     *
+     * @return State size in bytes
+     */
+    int getStateSize();
+
+    /**
+     * Writes the internal state of the predictor to the buffer.
+     *
+     * @param buffer Buffer to write the state to
+     */
+    void saveState(ByteBuffer buffer);
+
+    /**
+     * Restores the internal state of the predictor from a state written with {@link #saveState(ByteBuffer)}
+     *
+     * @param buffer Buffer to read the state from
+     */
+    void restoreState(ByteBuffer buffer);
+}
@@ -0,0 +1,172 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import java.nio.ByteBuffer;
+
+/**
+ * TimestampCompressor for the Gorilla encoding format. The first timestamp is stored as a delta to the block
+ * timestamp and the rest as delta-of-deltas. Used by {@link GorillaCompressor}, which interleaves the timestamps with
+ * the values, and by {@link ColumnarCompressor}, which stores them in a separate column.
+ *
+ * @author Michael Burman
+ */
+public class TimestampCompressor {
+    public final static int FIRST_DELTA_BITS = 27;
+
+    private static int DELTAD_7_MASK = 0x02 << 7;
+    private static int DELTAD_9_MASK = 0x06 << 9;
+    private static int DELTAD_12_MASK = 0x0E << 12;
+
+    private long blockTimestamp;
+    private long storedTimestamp = 0;
+    private int storedDelta = 0;
+
+    private BitOutput out;
+    private CompressionStats stats;
+
+    public TimestampCompressor(long blockTimestamp, BitOutput out) {
+        this.blockTimestamp = blockTimestamp;
+        this.out = out;
+    }
+
+    /**
+     * Amount of bytes required to store the state of this compressor with {@link #saveState(ByteBuffer)}
+     *
+     * @return State size in bytes
+     */
+    public int getStateSize() {
+        return 2 * Long.BYTES + Integer.BYTES;
+    }
+
+    /**
+     * Writes the internal state of the compressor to the buffer.
+     *
+     * @param buffer Buffer to write the state to
+     */
+    public void saveState(ByteBuffer buffer) {
+        buffer.putLong(blockTimestamp);
+        buffer.putLong(storedTimestamp);
+        buffer.putInt(storedDelta);
+    }
+
+    /**
+     * Restores the internal state of the compressor from a state written with {@link #saveState(ByteBuffer)}
+     *
+     * @param buffer Buffer to read the state from
+     */
+    public void restoreState(ByteBuffer buffer) {
+        blockTimestamp = buffer.getLong();
+        storedTimestamp = buffer.getLong();
+        storedDelta = buffer.getInt();
+    }
+
+    /**
+     * Attaches statistics, counted only if {@link CompressionStats#ENABLED}
+     *
+     * @param stats Statistics to update, or null
+     */
+    public void setStats(CompressionStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * @return true if no timestamp has been written
+     */
+    public boolean isEmpty() {
+        return storedTimestamp == 0;
+    }
+
+    public void writeFirst(long timestamp) {
+        storedDelta = (int) (timestamp - blockTimestamp);
+        storedTimestamp = timestamp;
+
+        out.writeBits(storedDelta, FIRST_DELTA_BITS);
+    }
+
+    /**
+     * Difference to the original Facebook paper, we store the first delta as 27 bits to allow
+     * millisecond accuracy for a one day block.
+     *
+     * Also, the timestamp delta-delta is not good for millisecond compressions..
+     *
+     * @param timestamp epoch
+     */
+    public void compressTimestamp(long timestamp) {
+
+        // a) Calculate the delta of delta
+        int newDelta = (int) (timestamp - storedTimestamp);
+        int deltaD = newDelta - storedDelta;
+
+        if(deltaD == 0) {
+            out.skipBit();
+            if(CompressionStats.ENABLED && stats != null) {
+                stats.timestamp(CompressionStats.TimestampCase.ZERO);
+            }
+        } else {
+            deltaD = encodeZigZag32(deltaD);
+            deltaD--; // Increase by one in the decompressing phase as we have one free bit
+            int bitsRequired = 32 - Integer.numberOfLeadingZeros(deltaD); // Faster than highestSetBit
+
+            // Turns to inlineable tableswitch
+            switch(bitsRequired) {
+                case 1:
+                case 2:
+                case 3:
+                case 4:
+                case 5:
+                case 6:
+                case 7:
+                    deltaD |= DELTAD_7_MASK;
+                    out.writeBits(deltaD, 9);
+                    if(CompressionStats.ENABLED && stats != null) {
+                        stats.timestamp(CompressionStats.TimestampCase.BITS_7);
+                    }
+                    break;
+                case 8:
+                case 9:
+                    deltaD |= DELTAD_9_MASK;
+                    out.writeBits(deltaD, 12);
+                    if(CompressionStats.ENABLED && stats != null) {
+                        stats.timestamp(CompressionStats.TimestampCase.BITS_9);
+                    }
+                    break;
+                case 10:
+                case 11:
+                case 12:
+                    out.writeBits(deltaD | DELTAD_12_MASK, 16);
+                    if(CompressionStats.ENABLED && stats != null) {
+                        stats.timestamp(CompressionStats.TimestampCase.BITS_12);
+                    }
+                    break;
+                default:
+                    out.writeBits(0x0F, 4); // Store '1111'
+                    out.writeBits(deltaD, 32); // Store delta using 32 bits
+                    if(CompressionStats.ENABLED && stats != null) {
+                        stats.timestamp(CompressionStats.TimestampCase.BITS_32);
+                    }
+                    break;
+            }
+            storedDelta = newDelta;
+        }
+
+        storedTimestamp = timestamp;
+    }
+
+    // START: From protobuf
+
+    /**
+     * Encode a ZigZag-encoded 32-bit value.  ZigZag encodes signed integers
+     * into values that can be efficiently encoded with varint.  (Otherwise,
+     * negative values must be sign-extended to 64 bits to be varint encoded,
+     * thus always taking 10 bytes on the wire.)
+     *
+     * @param n A signed 32-bit integer.
+     * @return An unsigned 32-bit integer, stored in a signed int because
+     *         Java has no explicit unsigned support.
+     */
+    public static int encodeZigZag32(final int n) {
+        // Note:  the right-shift must be arithmetic
+        return (n << 1) ^ (n >> 31);
+    }
+
+    // END: From protobuf
+}
@@ -0,0 +1,153 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+/**
+ * Timestamp decompressor for Gorilla encoded timestamps
+ *
+ * @author Michael Burman
+ */
+public class TimestampDecompressor {
+    private BitInput in;
+    private long blockTimestamp;
+
+    private long storedTimestamp = 0;
+    private long storedDelta = 0;
+
+    private CompressionStats stats;
+
+    // Indexed by the amount of leading ones in the control bits
+    private static final int[] CONTROL_BITS = { 1, 2, 3, 4, 4 };
+    private static final int[] DELTA_BITS = { 0, 7, 9, 12, 32 };
+    private static final CompressionStats.TimestampCase[] CASES = CompressionStats.TimestampCase.values();
+
+    public TimestampDecompressor(BitInput input, long blockTimestamp) {
+        this.in = input;
+        this.blockTimestamp = blockTimestamp;
+    }
+
+    /**
+     * Starts reading a new block from the input
+     *
+     * @param input Input positioned at the first timestamp
+     * @param blockTimestamp Block timestamp of the new block
+     */
+    public void reset(BitInput input, long blockTimestamp) {
+        this.in = input;
+        this.blockTimestamp = blockTimestamp;
+        storedTimestamp = 0;
+        storedDelta = 0;
+    }
+
+    /**
+     * Attaches statistics, counted only if {@link CompressionStats#ENABLED}
+     *
+     * @param stats Statistics to update, or null
+     */
+    public void setStats(CompressionStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Reads the first timestamp
+     *
+     * @return false if the stream ended instead
+     */
+    public boolean readFirst() {
+        storedDelta = in.getLong(TimestampCompressor.FIRST_DELTA_BITS);
+        if(storedDelta == (1<<27) - 1) {
+            if(CompressionStats.ENABLED && stats != null) {
+                stats.end(TimestampCompressor.FIRST_DELTA_BITS);
+            }
+            return false;
+        }
+        storedTimestamp = blockTimestamp + storedDelta;
+        return true;
+    }
+
+    /**
+     * Reads the next timestamp
+     *
+     * @return false if the stream ended instead
+     */
+    public boolean nextTimestamp() {
+        // The control is 0, 10, 110, 1110 or 1111, the amount of leading ones selects the case
+        int ones = leadingOnes((int) in.peekBits(4));
+
+        if(ones == 0) {
+            in.consume(1);
+            storedTimestamp = storedDelta + storedTimestamp;
+            if(CompressionStats.ENABLED && stats != null) {
+                stats.timestamp(CompressionStats.TimestampCase.ZERO);
+            }
+            return true;
+        }
+        in.consume(CONTROL_BITS[ones]);
+        long deltaDelta = in.getLong(DELTA_BITS[ones]);
+
+        // For storage save.. if this is the last available word, check if remaining bits are all 1
+        if(ones == 4 && (int) deltaDelta == 0xFFFFFFFF) {
+            // End of stream
+            if(CompressionStats.ENABLED && stats != null) {
+                stats.end(36);
+            }
+            return false;
+        }
+        if(CompressionStats.ENABLED && stats != null) {
+            stats.timestamp(CASES[ones]);
+        }
+
+        deltaDelta++;
+        deltaDelta = decodeZigZag32((int) deltaDelta);
+        storedDelta = storedDelta + deltaDelta;
+
+        storedTimestamp = storedDelta + storedTimestamp;
+        return true;
+    }
+
+    /**
+     * Moves past the next timestamp without decoding it. Only the end of the stream is detected, the timestamps
+     * are not tracked after this.
+     *
+     * @return false if the stream ended instead
+     */
+    boolean skipTimestamp() {
+        int ones = leadingOnes((int) in.peekBits(4));
+        in.consume(CONTROL_BITS[ones]);
+        if(ones < 4) {
+            in.consume(DELTA_BITS[ones]);
+            return true;
+        }
+        return (int) in.getLong(DELTA_BITS[ones]) != 0xFFFFFFFF;
+    }
+
+    /**
+     * @param control Four control bits
+     * @return Amount of leading ones in the control bits, 0 to 4
+     */
+    static int leadingOnes(int control) {
+        return Integer.numberOfLeadingZeros(~(control << 28));
+    }
+
+    /**
+     * @return The last read timestamp
+     */
+    public long getTimestamp() {
+        return storedTimestamp;
+    }
+
+    // START: From protobuf
+
+    /**
+     * Decode a ZigZag-encoded 32-bit value. ZigZag encodes signed integers into values that can be
+     * efficiently encoded with varint. (Otherwise, negative values must be sign-extended to 64 bits
+     * to be varint encoded, thus always taking 10 bytes on the wire.)
+     *
+     * @param n An unsigned 32-bit integer, stored in a signed int because Java has no explicit
+     *     unsigned support.
+     * @return A signed 32-bit integer.
+     */
+    public static int decodeZigZag32(final int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    // END: From protobuf
+}
@@ -0,0 +1,94 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Transcodes blocks written in the 1.x format by {@link Compressor} to the 2.x format of {@link GorillaCompressor}.
+ * The points are moved directly from the decompressor state to the compressor, without allocating a Pair for each
+ * point.
+ *
+ * @author Michael Burman
+ */
+public class Transcoder {
+
+    private Transcoder() {}
+
+    /**
+     * Reads a 1.x format block from the input and writes the points to the output. The output is not closed.
+     *
+     * @param input BitInput positioned at the start of a 1.x block
+     * @param output 2.x compressor to write the points to
+     * @return Amount of points transcoded
+     */
+    public static int transcode(BitInput input, GorillaCompressor output) {
+        return transcode(new Decompressor(input), output);
+    }
+
+    /**
+     * Reads the remaining points of a 1.x decompressor and writes them to the output. The output is not closed.
+     *
+     * @param decompressor Decompressor of the 1.x block
+     * @param output 2.x compressor to write the points to
+     * @return Amount of points transcoded
+     */
+    public static int transcode(Decompressor decompressor, GorillaCompressor output) {
+        int points = 0;
+        while(decompressor.next()) {
+            output.addValue(decompressor.getTimestamp(), decompressor.getLongValue());
+            points++;
+        }
+        return points;
+    }
+
+    /**
+     * Transcodes a complete 1.x block to a new 2.x block, using the same block timestamp and the default predictor.
+     *
+     * @param input BitInput positioned at the start of a 1.x block
+     * @return Closed 2.x block
+     */
+    public static long[] transcode(BitInput input) {
+        Decompressor decompressor = new Decompressor(input);
+        LongArrayOutput output = new LongArrayOutput();
+        GorillaCompressor compressor = new GorillaCompressor(decompressor.getBlockTimestamp(), output);
+        transcode(decompressor, compressor);
+        compressor.close();
+        return output.getLongArray();
+    }
+
+    /**
+     * Transcodes a batch of 1.x blocks to 2.x blocks using the given executor. Each block is transcoded by a single
+     * task, the buffers are not modified.
+     *
+     * @param blocks 1.x blocks, as written by {@link ByteBufferBitOutput}
+     * @param executor Executor to run the transcoding tasks
+     * @return Closed 2.x blocks in the same order as the input blocks
+     * @throws InterruptedException If interrupted while waiting for the tasks to finish
+     */
+    public static List<long[]> transcode(List<ByteBuffer> blocks, ExecutorService executor)
+            throws InterruptedException {
+        List<Callable<long[]>> tasks = new ArrayList<>(blocks.size());
+        for(ByteBuffer block : blocks) {
+            ByteBuffer duplicate = block.duplicate();
+            tasks.add(() -> transcode(new ByteBufferBitInput(duplicate)));
+        }
+
+        List<long[]> results = new ArrayList<>(blocks.size());
+        for(Future<long[]> future : executor.invokeAll(tasks)) {
+            try {
+                results.add(future.get());
+            } catch(ExecutionException e) {
+                if(e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException("Transcoding failed", e.getCause());
+            }
+        }
+        return results;
+    }
+}
@@ -1,5 +1,7 @@
 package fi.iki.yak.ts.compression.gorilla;
 
+import java.nio.ByteBuffer;
+
 import fi.iki.yak.ts.compression.gorilla.predictors.LastValuePredictor;
 
 /**
@@ -14,6 +16,7 @@ public class ValueCompressor {
 
     private Predictor predictor;
     private BitOutput out;
+    private CompressionStats stats;
 
     public ValueCompressor(BitOutput out) {
         this(out, new LastValuePredictor());
@@ -24,6 +27,56 @@ public class ValueCompressor {
         this.predictor = predictor;
     }
 
+    /**
+     * Amount of bytes required to store the state of this compressor with {@link #saveState(ByteBuffer)}. Requires
+     * a {@link StatefulPredictor}.
+     *
+     * @return State size in bytes
+     */
+    public int getStateSize() {
+        return 2 * Integer.BYTES + statefulPredictor().getStateSize();
+    }
+
+    /**
+     * Writes the internal state of the compressor, including the predictor state, to the buffer. Requires a
+     * {@link StatefulPredictor}.
+     *
+     * @param buffer Buffer to write the state to
+     */
+    public void saveState(ByteBuffer buffer) {
+        buffer.putInt(storedLeadingZeros);
+        buffer.putInt(storedTrailingZeros);
+        statefulPredictor().saveState(buffer);
+    }
+
+    /**
+     * Restores the internal state of the compressor from a state written with {@link #saveState(ByteBuffer)}.
+     * Requires a {@link StatefulPredictor}.
+     *
+     * @param buffer Buffer to read the state from
+     */
+    public void restoreState(ByteBuffer buffer) {
+        storedLeadingZeros = buffer.getInt();
+        storedTrailingZeros = buffer.getInt();
+        statefulPredictor().restoreState(buffer);
+    }
+
+    private StatefulPredictor statefulPredictor() {
+        if(!(predictor instanceof StatefulPredictor)) {
+            throw new IllegalStateException(predictor.getClass().getName() + " is not a StatefulPredictor");
+        }
+        return (StatefulPredictor) predictor;
+    }
+
+    /**
+     * Attaches statistics, counted only if {@link CompressionStats#ENABLED}
+     *
+     * @param stats Statistics to update, or null
+     */
+    public void setStats(CompressionStats stats) {
+        this.stats = stats;
+    }
+
     void writeFirst(long value) {
         predictor.update(value);
         out.writeBits(value, 64);
@@ -37,6 +90,9 @@ public class ValueCompressor {
         if(diff == 0) {
             // Write 0
             out.skipBit();
+            if(CompressionStats.ENABLED && stats != null) {
+                stats.value(CompressionStats.ValueCase.ZERO_XOR, 1);
+            }
         } else {
             int leadingZeros = Long.numberOfLeadingZeros(diff);
             int trailingZeros = Long.numberOfTrailingZeros(diff);
@@ -63,6 +119,9 @@ public class ValueCompressor {
         int significantBits = 64 - storedLeadingZeros - storedTrailingZeros;
         xor >>>= storedTrailingZeros;
         out.writeBits(xor, significantBits);
+        if(CompressionStats.ENABLED && stats != null) {
+            stats.value(CompressionStats.ValueCase.REUSED_WINDOW, 2 + significantBits);
+        }
     }
 
     /**
@@ -88,5 +147,8 @@ public class ValueCompressor {
 
         storedLeadingZeros = leadingZeros;
         storedTrailingZeros = trailingZeros;
+        if(CompressionStats.ENABLED && stats != null) {
+            stats.value(CompressionStats.ValueCase.NEW_WINDOW, 2 + 12 + significantBits);
+        }
     }
 }
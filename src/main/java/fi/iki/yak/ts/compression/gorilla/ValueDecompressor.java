@@ -8,8 +8,11 @@ import fi.iki.yak.ts.compression.gorilla.predictors.LastValuePredictor;
  * @author Michael Burman
  */
 public class ValueDecompressor {
-    private final BitInput in;
+    private static final int NEW_WINDOW_BITS = 2 + 6 + 6;
+
+    private BitInput in;
     private final Predictor predictor;
+    private CompressionStats stats;
 
     private int storedLeadingZeros = Integer.MAX_VALUE;
     private int storedTrailingZeros = 0;
@@ -23,6 +26,30 @@ public class ValueDecompressor {
         this.predictor = predictor;
     }
 
+    /**
+     * Starts reading a new block from the input, resetting the predictor. Requires a {@link StatefulPredictor}.
+     *
+     * @param input Input positioned at the first value
+     */
+    public void reset(BitInput input) {
+        if(!(predictor instanceof StatefulPredictor)) {
+            throw new IllegalStateException(predictor.getClass().getName() + " is not a StatefulPredictor");
+        }
+        this.in = input;
+        storedLeadingZeros = Integer.MAX_VALUE;
+        storedTrailingZeros = 0;
+        ((StatefulPredictor) predictor).reset();
+    }
+
+    /**
+     * Attaches statistics, counted only if {@link CompressionStats#ENABLED}
+     *
+     * @param stats Statistics to update, or null
+     */
+    public void setStats(CompressionStats stats) {
+        this.stats = stats;
+    }
+
     public long readFirst() {
         long value = in.getLong(Long.SIZE);
         predictor.update(value);
@@ -30,26 +57,83 @@ public class ValueDecompressor {
     }
 
     public long nextValue() {
-        int val = in.nextClearBit(2);
+        long value = predictor.predict() ^ nextXor();
+        // The compressor updates the predictor also when the prediction was correct
+        predictor.update(value);
+        return value;
+    }
+
+    /**
+     * Reads the next value as the XOR against its prediction, without predicting it or updating the predictor.
+     *
+     * @return XOR of the value and its prediction, 0 if the prediction was correct
+     */
+    long nextXor() {
+        // Control bits and a possible new window in one peek: '0', '10' or '11' + 6 bits leading + 6 bits length
+        int window = (int) in.peekBits(NEW_WINDOW_BITS);
 
-        switch(val) {
-            case 3:
+        if(window >= 2 << 12) {
+            if(window >= 3 << 12) {
                 // New leading and trailing zeros
-                storedLeadingZeros = (int) in.getLong(6);
+                storedLeadingZeros = (window >>> 6) & 0x3F;
+                int significantBits = (window & 0x3F) + 1;
+                storedTrailingZeros = Long.SIZE - significantBits - storedLeadingZeros;
+                in.consume(NEW_WINDOW_BITS);
+                if(CompressionStats.ENABLED && stats != null) {
+                    stats.value(CompressionStats.ValueCase.NEW_WINDOW, NEW_WINDOW_BITS + significantBits);
+                }
+            } else {
+                in.consume(2);
+                if(CompressionStats.ENABLED && stats != null) {
+                    stats.value(CompressionStats.ValueCase.REUSED_WINDOW,
+                            2 + Long.SIZE - storedLeadingZeros - storedTrailingZeros);
+                }
+            }
+            long xor = in.getLong(Long.SIZE - storedLeadingZeros - storedTrailingZeros);
+            return xor << storedTrailingZeros;
+        }
+        in.consume(1);
+        if(CompressionStats.ENABLED && stats != null) {
+            stats.value(CompressionStats.ValueCase.ZERO_XOR, 1);
+        }
+        return 0;
+    }
 
-                byte significantBits = (byte) in.getLong(6);
-                significantBits++;
+    /**
+     * Moves past the next value without reading its significant bits. Only the window is tracked, the predictor is
+     * left behind and can not be used for the following values.
+     */
+    void skipValue() {
+        int window = (int) in.peekBits(NEW_WINDOW_BITS);
 
-                storedTrailingZeros = Long.SIZE - significantBits - storedLeadingZeros;
-                // missing break is intentional, we want to overflow to next one
-            case 2:
-                long value = in.getLong(Long.SIZE - storedLeadingZeros - storedTrailingZeros);
-                value <<= storedTrailingZeros;
-
-                value = predictor.predict() ^ value;
-                predictor.update(value);
-                return value;
+        if(window < 2 << 12) {
+            in.consume(1);
+            return;
+        }
+        if(window >= 3 << 12) {
+            storedLeadingZeros = (window >>> 6) & 0x3F;
+            storedTrailingZeros = Long.SIZE - ((window & 0x3F) + 1) - storedLeadingZeros;
+            in.consume(NEW_WINDOW_BITS);
+        } else {
+            in.consume(2);
         }
-        return predictor.predict();
+        in.consume(Long.SIZE - storedLeadingZeros - storedTrailingZeros);
+    }
+
+    /**
+     * @return true if the value after a run of values is the last value of the run XORed with the XORs of the run,
+     * which allows skipping values without predicting them
+     */
+    boolean predictsLastValue() {
+        return predictor.getClass() == LastValuePredictor.class;
+    }
+
+    /**
+     * Continues the prediction from a value reached without {@link #nextValue()}
+     *
+     * @param value Value of the last point skipped
+     */
+    void skippedTo(long value) {
+        predictor.update(value);
     }
 }
@@ -0,0 +1,84 @@
+package fi.iki.yak.ts.compression.gorilla.benchmark;
+
+import fi.iki.yak.ts.compression.gorilla.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the decompression of a week of two hour blocks scales with the amount of threads.
+ *
+ * @author Michael Burman
+ */
+@BenchmarkMode(Mode.Throughput)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class BlockSetBenchmark {
+
+    private static final int BLOCKS = 84;
+    private static final int POINTS_PER_BLOCK = 7200;
+
+    @State(Scope.Benchmark)
+    public static class DataGenerator {
+
+        @Param({"1", "2", "4", "8"})
+        public int threads;
+
+        public BlockSet blockSet;
+        public ForkJoinPool pool;
+        public DataPoints output;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            long start = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS)
+                    .toInstant(ZoneOffset.UTC).toEpochMilli();
+            long blockSize = TimeUnit.HOURS.toMillis(2);
+            long interval = blockSize / POINTS_PER_BLOCK;
+
+            List<Block> blocks = new ArrayList<>(BLOCKS);
+            for(int b = 0; b < BLOCKS; b++) {
+                long blockStart = start + b * blockSize;
+                LongArrayOutput output = new LongArrayOutput();
+                GorillaCompressor c = new GorillaCompressor(blockStart, output);
+                for(int i = 0; i < POINTS_PER_BLOCK; i++) {
+                    c.addValue(blockStart + i * interval, Math.sin(i / 100.0));
+                }
+                c.close();
+                blocks.add(new Block(output.getLongArray(), blockStart,
+                        blockStart + (POINTS_PER_BLOCK - 1) * interval, POINTS_PER_BLOCK));
+            }
+
+            blockSet = new BlockSet(blocks);
+            pool = new ForkJoinPool(threads);
+            output = new DataPoints(BLOCKS * POINTS_PER_BLOCK);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCKS * POINTS_PER_BLOCK)
+    public void sequentialScan(DataGenerator dg, Blackhole bh) {
+        dg.output.clear();
+        bh.consume(dg.blockSet.scan(Long.MIN_VALUE, Long.MAX_VALUE, dg.output));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCKS * POINTS_PER_BLOCK)
+    public void parallelScan(DataGenerator dg, Blackhole bh) {
+        dg.blockSet.scan(Long.MIN_VALUE, Long.MAX_VALUE, dg.output, dg.pool, dg.threads);
+        bh.consume(dg.output);
+    }
+}
@@ -35,6 +35,7 @@ public class EncodingBenchmark {
         public long[] uncompressedValues;
         public double[] uncompressedDoubles;
         public long[] compressedArray;
+        public long[] columnarArray;
 
         public ByteBuffer uncompressedBuffer;
         public ByteBuffer compressedBuffer;
@@ -94,10 +95,16 @@ public class EncodingBenchmark {
             compressedBuffer = byteBuffer;
 
             compressedArray = arrayOutput.getLongArray();
+
+            ColumnarCompressor cc = new ColumnarCompressor(blockStart);
+            for(int j = 0; j < amountOfPoints; j++) {
+                cc.addValue(uncompressedTimestamps[j], uncompressedDoubles[j]);
+            }
+            columnarArray = cc.close();
         }
     }
 
-//    @Benchmark
+    @Benchmark
     @OperationsPerInvocation(100000)
     public void encodingBenchmark(DataGenerator dg) {
         ByteBufferBitOutput output = new ByteBufferBitOutput();
@@ -146,15 +153,15 @@ public class EncodingBenchmark {
         c.close();
     }
 
-//    @Benchmark
-//    @OperationsPerInvocation(100000)
-//    public void encodingGorillaStreamBenchmark(DataGenerator dg) {
-//        LongArrayOutput output = new LongArrayOutput();
-//        GorillaCompressor c = new GorillaCompressor(dg.blockStart, output);
-//
-//        c.compressLongStream(dg.pairs.stream());
-//        c.close();
-//    }
+    @Benchmark
+    @OperationsPerInvocation(100000)
+    public void encodingGorillaStreamBenchmark(DataGenerator dg) {
+        LongArrayOutput output = new LongArrayOutput();
+        GorillaCompressor c = new GorillaCompressor(dg.blockStart, output);
+
+        c.compress(dg.pairs.stream());
+        c.close();
+    }
 
     @Benchmark
     @OperationsPerInvocation(100000)
@@ -166,4 +173,34 @@ public class EncodingBenchmark {
             bh.consume(pair);
         }
     }
+
+    @Benchmark
+    @OperationsPerInvocation(100000)
+    public void decodingGorillaStreamBenchmark(DataGenerator dg, Blackhole bh) throws Exception {
+        LongArrayInput input = new LongArrayInput(dg.compressedArray);
+        GorillaDecompressor d = new GorillaDecompressor(input);
+        bh.consume(d.doubleValues().sum());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(100000)
+    public void decodingGorillaTimestampsBenchmark(DataGenerator dg, Blackhole bh) throws Exception {
+        LongArrayInput input = new LongArrayInput(dg.compressedArray);
+        GorillaDecompressor d = new GorillaDecompressor(input);
+        bh.consume(d.timestamps().max());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(100000)
+    public void decodingColumnarTimestampsBenchmark(DataGenerator dg, Blackhole bh) throws Exception {
+        long[] timestamps = new long[dg.amountOfPoints];
+        new ColumnarDecompressor(dg.columnarArray).readTimestamps(timestamps);
+        bh.consume(timestamps);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(100000)
+    public void decodingColumnarBenchmark(DataGenerator dg, Blackhole bh) throws Exception {
+        bh.consume(new ColumnarDecompressor(dg.columnarArray).read());
+    }
 }
@@ -0,0 +1,120 @@
+package fi.iki.yak.ts.compression.gorilla.benchmark;
+
+import fi.iki.yak.ts.compression.gorilla.*;
+import fi.iki.yak.ts.compression.gorilla.predictors.DifferentialFCM;
+import fi.iki.yak.ts.compression.gorilla.predictors.LastValuePredictor;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the LongArrayOutput and LastValuePredictor combination with the generic codecs and with the specialized
+ * ones selected by the factories. With {@code polluted=true} every BitOutput, BitInput and Predictor implementation
+ * is run through the generic codecs before the measurement, as happens when a JVM mixes them, which turns their call
+ * sites megamorphic. The specialized compressor should be unaffected. Decoding has so far slowed down by about as
+ * much with both decompressors, so the gain is only claimed for encoding.
+ *
+ * @author Michael Burman
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class PollutedProfileBenchmark {
+
+    private static final int POINTS = 10000;
+
+    @Param({"false", "true"})
+    public boolean polluted;
+
+    private long blockStart;
+    private long[] timestamps = new long[POINTS];
+    private long[] values = new long[POINTS];
+    private long[] compressed;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        blockStart = 1500400800000L;
+        Workload.NOISY_GAUGE.generate(new Random(42), blockStart + 1, timestamps, values);
+
+        LongArrayOutput output = new LongArrayOutput();
+        compress(new GorillaCompressor(blockStart, output));
+        compressed = output.getLongArray();
+
+        if(polluted) {
+            pollute();
+        }
+    }
+
+    private void pollute() {
+        Blackhole bh = new Blackhole("Today's password is swordfish. I understand instantiating Blackholes directly " +
+                "is dangerous.");
+        for(int round = 0; round < 200; round++) {
+            Predictor[] predictors = { new LastValuePredictor(), new DifferentialFCM(1024) };
+            BitOutput[] outputs = { new LongArrayOutput(), new ByteBufferBitOutput(),
+                    new ConcurrentLongArrayOutput() };
+            BitOutput output = outputs[round % outputs.length];
+            Predictor predictor = predictors[(round / outputs.length) % predictors.length];
+            compress(new GorillaCompressor(blockStart, output, predictor));
+
+            BitInput input;
+            if(output instanceof LongArrayOutput) {
+                long[] data = ((LongArrayOutput) output).getLongArray();
+                ByteBuffer buffer = ByteBuffer.allocateDirect(data.length * Long.BYTES);
+                buffer.asLongBuffer().put(data);
+                input = round % 2 == 0 ? new LongArrayInput(data) : new ByteBufferLongInput(buffer);
+            } else {
+                ByteBuffer buffer = ((ByteBufferBitOutput) output).getByteBuffer();
+                buffer.flip();
+                input = new ByteBufferBitInput(buffer);
+            }
+            Predictor readPredictor = predictor instanceof LastValuePredictor ? new LastValuePredictor()
+                    : new DifferentialFCM(1024);
+            decompress(new GorillaDecompressor(input, readPredictor), bh);
+        }
+    }
+
+    private AbstractGorillaCompressor compress(AbstractGorillaCompressor c) {
+        for(int i = 0; i < POINTS; i++) {
+            c.addValue(timestamps[i], values[i]);
+        }
+        c.close();
+        return c;
+    }
+
+    private static void decompress(AbstractGorillaDecompressor d, Blackhole bh) {
+        while(d.next()) {
+            bh.consume(d.getTimestamp());
+            bh.consume(d.getLongValue());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public AbstractGorillaCompressor encodeGeneric() {
+        return compress(new GorillaCompressor(blockStart, new LongArrayOutput(), new LastValuePredictor()));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public AbstractGorillaCompressor encodeSpecialized() {
+        return compress(GorillaCompressor.create(blockStart, new LongArrayOutput(), new LastValuePredictor()));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void decodeGeneric(Blackhole bh) {
+        decompress(new GorillaDecompressor(new LongArrayInput(compressed), new LastValuePredictor()), bh);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void decodeSpecialized(Blackhole bh) {
+        decompress(GorillaDecompressor.create(new LongArrayInput(compressed), new LastValuePredictor()), bh);
+    }
+}
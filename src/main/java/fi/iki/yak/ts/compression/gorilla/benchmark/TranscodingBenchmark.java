@@ -0,0 +1,103 @@
+package fi.iki.yak.ts.compression.gorilla.benchmark;
+
+import fi.iki.yak.ts.compression.gorilla.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures the 1.x to 2.x transcoding speed. Results are in points per second, the single block benchmarks run on a
+ * single thread and thus report the points per second per core.
+ *
+ * @author Michael Burman
+ */
+@BenchmarkMode(Mode.Throughput)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class TranscodingBenchmark {
+
+    private static final int POINTS_PER_BLOCK = 100000;
+    private static final int BLOCKS = 16;
+
+    @State(Scope.Benchmark)
+    public static class DataGenerator {
+
+        @Param({"1", "4"})
+        public int threads;
+
+        public ByteBuffer compressedBuffer;
+        public List<ByteBuffer> compressedBuffers;
+        public ExecutorService executor;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            long blockStart = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS)
+                    .toInstant(ZoneOffset.UTC).toEpochMilli();
+
+            ByteBufferBitOutput output = new ByteBufferBitOutput();
+            Compressor c = new Compressor(blockStart, output);
+
+            long now = blockStart + 60;
+            for(int i = 0; i < POINTS_PER_BLOCK; i++) {
+                now += 60;
+                c.addValue(now, (double) i);
+            }
+            c.close();
+
+            compressedBuffer = output.getByteBuffer();
+            compressedBuffer.flip();
+
+            compressedBuffers = new ArrayList<>(BLOCKS);
+            for(int i = 0; i < BLOCKS; i++) {
+                compressedBuffers.add(compressedBuffer.duplicate());
+            }
+
+            executor = Executors.newFixedThreadPool(threads);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            executor.shutdown();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS_PER_BLOCK)
+    public void transcodeThroughPairs(DataGenerator dg, Blackhole bh) {
+        Decompressor d = new Decompressor(new ByteBufferBitInput(dg.compressedBuffer.duplicate()));
+        LongArrayOutput output = new LongArrayOutput();
+        GorillaCompressor c = new GorillaCompressor(d.getBlockTimestamp(), output);
+
+        Pair pair;
+        while((pair = d.readPair()) != null) {
+            c.addValue(pair.getTimestamp(), pair.getLongValue());
+        }
+        c.close();
+        bh.consume(output);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS_PER_BLOCK)
+    public void transcode(DataGenerator dg, Blackhole bh) {
+        bh.consume(Transcoder.transcode(new ByteBufferBitInput(dg.compressedBuffer.duplicate())));
+    }
+
+    /**
+     * Divide the result by the threads parameter to get the points per second per core
+     */
+    @Benchmark
+    @OperationsPerInvocation(POINTS_PER_BLOCK * BLOCKS)
+    public void transcodeBatch(DataGenerator dg, Blackhole bh) throws Exception {
+        bh.consume(Transcoder.transcode(dg.compressedBuffers, dg.executor));
+    }
+}
@@ -0,0 +1,109 @@
+package fi.iki.yak.ts.compression.gorilla.benchmark;
+
+import java.util.Random;
+
+/**
+ * Generators for series resembling real monitoring data. The values are stored as longs, the bits of a double for the
+ * floating point series. Every generator is deterministic for a given seed.
+ *
+ * @author Michael Burman
+ */
+public enum Workload {
+    /**
+     * Regular 10 second interval, a double that moves up or down by a random step
+     */
+    RANDOM_WALK {
+        @Override
+        void generate(Random random, long start, long[] timestamps, long[] values) {
+            double value = 100;
+            for(int i = 0; i < timestamps.length; i++) {
+                value += random.nextGaussian();
+                timestamps[i] = start + i * 10000L;
+                values[i] = Double.doubleToRawLongBits(value);
+            }
+        }
+    },
+    /**
+     * Regular 10 second interval, a gauge rounded to two decimals with noise around a slowly changing level
+     */
+    NOISY_GAUGE {
+        @Override
+        void generate(Random random, long start, long[] timestamps, long[] values) {
+            for(int i = 0; i < timestamps.length; i++) {
+                double level = 50 + 20 * Math.sin(i / 500.0);
+                timestamps[i] = start + i * 10000L;
+                values[i] = Double.doubleToRawLongBits(Math.round((level + random.nextGaussian()) * 100) / 100.0);
+            }
+        }
+    },
+    /**
+     * Regular 10 second interval, a monotonically increasing long counter with varying rate
+     */
+    COUNTER {
+        @Override
+        void generate(Random random, long start, long[] timestamps, long[] values) {
+            long value = 0;
+            for(int i = 0; i < timestamps.length; i++) {
+                value += random.nextInt(1000);
+                timestamps[i] = start + i * 10000L;
+                values[i] = value;
+            }
+        }
+    },
+    /**
+     * Event-driven series with irregular gaps from one second up to ten minutes, random doubles
+     */
+    SPARSE {
+        @Override
+        void generate(Random random, long start, long[] timestamps, long[] values) {
+            long timestamp = start;
+            for(int i = 0; i < timestamps.length; i++) {
+                timestamp += 1000 + random.nextInt(600000);
+                timestamps[i] = timestamp;
+                values[i] = Double.doubleToRawLongBits(random.nextDouble() * 1000);
+            }
+        }
+    },
+    /**
+     * Nominal 10 second interval with millisecond scheduling jitter, slowly changing integer valued doubles
+     */
+    JITTERED {
+        @Override
+        void generate(Random random, long start, long[] timestamps, long[] values) {
+            double value = 0;
+            for(int i = 0; i < timestamps.length; i++) {
+                if(random.nextInt(10) == 0) {
+                    value += random.nextInt(5) - 2;
+                }
+                timestamps[i] = start + i * 10000L + random.nextInt(100);
+                values[i] = Double.doubleToRawLongBits(value);
+            }
+        }
+    },
+    /**
+     * Regular 30 second interval, a status code that rarely changes between a few states
+     */
+    STATUS {
+        @Override
+        void generate(Random random, long start, long[] timestamps, long[] values) {
+            long status = 200;
+            for(int i = 0; i < timestamps.length; i++) {
+                if(random.nextInt(500) == 0) {
+                    status = new long[] { 200, 404, 500, 503 }[random.nextInt(4)];
+                }
+                timestamps[i] = start + i * 30000L;
+                values[i] = status;
+            }
+        }
+    };
+
+    /**
+     * Fills the arrays with the points of the series. The timestamps start after the given block timestamp.
+     *
+     * @param random Source of randomness
+     * @param start First timestamp
+     * @param timestamps Receives the timestamps
+     * @param values Receives the values, same length as the timestamps
+     */
+    abstract void generate(Random random, long start, long[] timestamps, long[] values);
+}
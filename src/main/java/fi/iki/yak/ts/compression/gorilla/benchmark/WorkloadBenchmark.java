@@ -0,0 +1,144 @@
+package fi.iki.yak.ts.compression.gorilla.benchmark;
+
+import fi.iki.yak.ts.compression.gorilla.*;
+import fi.iki.yak.ts.compression.gorilla.predictors.DifferentialFCM;
+import fi.iki.yak.ts.compression.gorilla.predictors.LastValuePredictor;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the encoding and decoding time per point and the compressed bits per point of the {@link Workload} series
+ * with every predictor and bit stream implementation. The bits per point are reported as the secondary
+ * "bitsPerPoint" result.
+ *
+ * @author Michael Burman
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class WorkloadBenchmark {
+
+    private static final int POINTS = 10000;
+
+    public enum PredictorType {
+        LAST_VALUE,
+        DFCM;
+
+        Predictor create() {
+            return this == LAST_VALUE ? new LastValuePredictor() : new DifferentialFCM(1024);
+        }
+    }
+
+    /**
+     * The BitOutput used for encoding and the BitInput reading the result
+     */
+    public enum BitStream {
+        /**
+         * LongArrayOutput and LongArrayInput
+         */
+        LONG_ARRAY,
+        /**
+         * ByteBufferBitOutput and ByteBufferBitInput
+         */
+        BYTE_BUFFER,
+        /**
+         * LongArrayOutput and ByteBufferLongInput over a direct buffer, as for off-heap and mapped blocks
+         */
+        LONG_BUFFER
+    }
+
+    @State(Scope.Benchmark)
+    public static class DataGenerator {
+        @Param
+        public Workload workload;
+
+        @Param
+        public PredictorType predictor;
+
+        @Param
+        public BitStream stream;
+
+        public long blockStart;
+        public long[] timestamps = new long[POINTS];
+        public long[] values = new long[POINTS];
+
+        public long[] compressedArray;
+        public ByteBuffer compressedBuffer;
+        public double bitsPerPoint;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            blockStart = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).toInstant(ZoneOffset.UTC).toEpochMilli();
+            workload.generate(new Random(42), blockStart + 1, timestamps, values);
+
+            BitOutput output = encode(this);
+            if(output instanceof LongArrayOutput) {
+                LongArrayOutput arrayOutput = (LongArrayOutput) output;
+                bitsPerPoint = (double) arrayOutput.getBitsWritten() / POINTS;
+                compressedArray = arrayOutput.getLongArray();
+                compressedBuffer = ByteBuffer.allocateDirect(compressedArray.length * Long.BYTES);
+                compressedBuffer.asLongBuffer().put(compressedArray);
+            } else {
+                ByteBuffer buffer = ((ByteBufferBitOutput) output).getByteBuffer();
+                bitsPerPoint = (double) buffer.position() * Byte.SIZE / POINTS;
+                buffer.flip();
+                compressedBuffer = buffer;
+            }
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Ratio {
+        public double bitsPerPoint;
+    }
+
+    static BitOutput encode(DataGenerator dg) {
+        BitOutput output = dg.stream == BitStream.BYTE_BUFFER ? new ByteBufferBitOutput() : new LongArrayOutput();
+        GorillaCompressor c = new GorillaCompressor(dg.blockStart, output, dg.predictor.create());
+        for(int i = 0; i < POINTS; i++) {
+            c.addValue(dg.timestamps[i], dg.values[i]);
+        }
+        c.close();
+        return output;
+    }
+
+    static BitInput input(DataGenerator dg) {
+        switch(dg.stream) {
+            case LONG_ARRAY:
+                return new LongArrayInput(dg.compressedArray);
+            case BYTE_BUFFER:
+                return new ByteBufferBitInput(dg.compressedBuffer.duplicate());
+            default:
+                return new ByteBufferLongInput(dg.compressedBuffer);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public BitOutput encode(DataGenerator dg, Ratio ratio) {
+        ratio.bitsPerPoint = dg.bitsPerPoint;
+        return encode(dg);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void decode(DataGenerator dg, Ratio ratio, Blackhole bh) {
+        ratio.bitsPerPoint = dg.bitsPerPoint;
+        GorillaDecompressor d = new GorillaDecompressor(input(dg), dg.predictor.create());
+        while(d.next()) {
+            bh.consume(d.getTimestamp());
+            bh.consume(d.getLongValue());
+        }
+    }
+}
@@ -1,13 +1,16 @@
 package fi.iki.yak.ts.compression.gorilla.predictors;
 
-import fi.iki.yak.ts.compression.gorilla.Predictor;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import fi.iki.yak.ts.compression.gorilla.StatefulPredictor;
 
 /**
  * Differential Finite Context Method (DFCM) is a context based predictor.
  *
  * @author Michael Burman
  */
-public class DifferentialFCM implements Predictor {
+public class DifferentialFCM implements StatefulPredictor {
 
     private long lastValue = 0L;
     private final long[] table;
@@ -44,4 +47,42 @@ public class DifferentialFCM implements Predictor {
     public long predict() {
         return table[lastHash] + lastValue;
     }
+
+    @Override
+    public void reset() {
+        Arrays.fill(table, 0L);
+        lastHash = 0;
+        lastValue = 0L;
+    }
+
+    @Override
+    public int getStateSize() {
+        return Long.BYTES + 2 * Integer.BYTES + table.length * Long.BYTES;
+    }
+
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        buffer.putLong(lastValue);
+        buffer.putInt(lastHash);
+        buffer.putInt(table.length);
+        for(long l : table) {
+            buffer.putLong(l);
+        }
+    }
+
+    @Override
+    public void restoreState(ByteBuffer buffer) {
+        long value = buffer.getLong();
+        int hash = buffer.getInt();
+        int size = buffer.getInt();
+        if(size != table.length) {
+            throw new IllegalArgumentException("Stored table size " + size + " does not match the predictor table " +
+                    "size " + table.length);
+        }
+        lastValue = value;
+        lastHash = hash;
+        for(int i = 0; i < table.length; i++) {
+            table[i] = buffer.getLong();
+        }
+    }
 }
@@ -1,13 +1,15 @@
 package fi.iki.yak.ts.compression.gorilla.predictors;
 
-import fi.iki.yak.ts.compression.gorilla.Predictor;
+import java.nio.ByteBuffer;
+
+import fi.iki.yak.ts.compression.gorilla.StatefulPredictor;
 
 /**
  * Last-Value predictor, a computational predictor using previous value as a prediction for the next one
  *
  * @author Michael Burman
  */
-public class LastValuePredictor implements Predictor {
+public class LastValuePredictor implements StatefulPredictor {
     private long storedVal = 0;
 
     public LastValuePredictor() {}
@@ -19,4 +21,24 @@ public class LastValuePredictor implements Predictor {
     public long predict() {
         return storedVal;
     }
+
+    @Override
+    public void reset() {
+        storedVal = 0;
+    }
+
+    @Override
+    public int getStateSize() {
+        return Long.BYTES;
+    }
+
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        buffer.putLong(storedVal);
+    }
+
+    @Override
+    public void restoreState(ByteBuffer buffer) {
+        storedVal = buffer.getLong();
+    }
 }
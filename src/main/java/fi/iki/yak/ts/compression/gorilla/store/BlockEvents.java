@@ -0,0 +1,57 @@
+package fi.iki.yak.ts.compression.gorilla.store;
+
+/**
+ * Block open, close, decode and merge events of the store. The Flight Recorder implementation is compiled from
+ * src/main/jfr when building with Java 11 or later and loaded reflectively, without it or on a runtime without the
+ * jdk.jfr API every event is disabled.
+ *
+ * The begin methods return null while the event is disabled, so that nothing is allocated. Otherwise the returned
+ * event times the work until it is completed.
+ *
+ * @author Michael Burman
+ */
+class BlockEvents {
+    static final BlockEvents INSTANCE = load();
+
+    interface Open {
+        void complete(long seriesId, long blockStart);
+    }
+
+    interface Close {
+        void complete(long seriesId, long blockStart, int points, long bytes);
+    }
+
+    interface Decode {
+        void complete(long seriesId, long blockStart, int points, long bytes, boolean open);
+    }
+
+    interface Merge {
+        void complete(long seriesId, long blockStart, int blocks, int points, long bytes);
+    }
+
+    Open beginOpen() {
+        return null;
+    }
+
+    Close beginClose() {
+        return null;
+    }
+
+    Decode beginDecode() {
+        return null;
+    }
+
+    Merge beginMerge() {
+        return null;
+    }
+
+    private static BlockEvents load() {
+        try {
+            return (BlockEvents) Class.forName(BlockEvents.class.getPackage().getName() + ".FlightRecorderBlockEvents")
+                    .getDeclaredConstructor()
+                    .newInstance();
+        } catch(ReflectiveOperationException | LinkageError e) {
+            return new BlockEvents();
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package fi.iki.yak.ts.compression.gorilla.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import fi.iki.yak.ts.compression.gorilla.Block;
+import fi.iki.yak.ts.compression.gorilla.BufferBlock;
+import fi.iki.yak.ts.compression.gorilla.ByteBufferLongInput;
+import fi.iki.yak.ts.compression.gorilla.GorillaDecompressor;
+import fi.iki.yak.ts.compression.gorilla.PairConsumer;
+import fi.iki.yak.ts.compression.gorilla.StatefulPredictor;
+
+/**
+ * Reads a file written by {@link BlockFileWriter}. The file is memory mapped and the blocks are decompressed in place,
+ * the footer index is searched directly from the mapped file. Only the trailer is read when opening the file.
+ *
+ * The mapping stays valid until the reader is garbage collected. Files larger than 2GB are not supported. The reader
+ * is thread-safe.
+ *
+ * @author Michael Burman
+ */
+public class BlockFileReader {
+    private static final int SERIES_ID = 0;
+    private static final int FIRST_TIMESTAMP = 1;
+    private static final int LAST_TIMESTAMP = 2;
+    private static final int OFFSET = 3;
+    private static final int LENGTH = 4;
+    private static final int COUNT = 5;
+    private static final int MIN_VALUE = 6;
+    private static final int MAX_VALUE = 7;
+
+    private static final int ENTRY_LONGS = BlockFileWriter.ENTRY_BYTES / Long.BYTES;
+
+    private final MappedByteBuffer buffer;
+    private final LongBuffer footer;
+    private final int entries;
+
+    private BlockFileReader(MappedByteBuffer buffer, LongBuffer footer, int entries) {
+        this.buffer = buffer;
+        this.footer = footer;
+        this.entries = entries;
+    }
+
+    /**
+     * Maps the file to memory and validates its header and trailer
+     *
+     * @param path Path of the file
+     * @return Reader for the file
+     * @throws IOException If the file could not be read or is not a closed block file
+     */
+    public static BlockFileReader open(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE) {
+                throw new IOException("Block files larger than 2GB are not supported, " + path + " is " + size +
+                        " bytes");
+            }
+            if(size < BlockFileWriter.HEADER_BYTES + BlockFileWriter.TRAILER_BYTES) {
+                throw new IOException(path + " is too short to be a block file");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+
+        int limit = buffer.limit();
+        if(buffer.getLong(0) != BlockFileWriter.MAGIC || buffer.getLong(limit - Long.BYTES) != BlockFileWriter.MAGIC) {
+            throw new IOException(path + " is not a block file or it was not closed properly");
+        }
+        if(buffer.getLong(Long.BYTES) != BlockFileWriter.VERSION) {
+            throw new IOException("Unsupported block file version " + buffer.getLong(Long.BYTES));
+        }
+
+        long footerOffset = buffer.getLong(limit - BlockFileWriter.TRAILER_BYTES);
+        long entries = buffer.getLong(limit - BlockFileWriter.TRAILER_BYTES + Long.BYTES);
+        if(footerOffset < BlockFileWriter.HEADER_BYTES ||
+                footerOffset + entries * BlockFileWriter.ENTRY_BYTES != limit - BlockFileWriter.TRAILER_BYTES) {
+            throw new IOException("Corrupted footer in " + path);
+        }
+
+        ByteBuffer footer = buffer.duplicate();
+        footer.position((int) footerOffset);
+        footer.limit(limit - BlockFileWriter.TRAILER_BYTES);
+        return new BlockFileReader(buffer, footer.slice().asLongBuffer(), (int) entries);
+    }
+
+    /**
+     * @return Amount of blocks in the file
+     */
+    public int getBlockCount() {
+        return entries;
+    }
+
+    /**
+     * @return Ids of the series in the file, in increasing order
+     */
+    public long[] getSeriesIds() {
+        long[] ids = new long[entries];
+        int size = 0;
+        for(int i = 0; i < entries; i++) {
+            long id = field(i, SERIES_ID);
+            if(size == 0 || ids[size - 1] != id) {
+                ids[size++] = id;
+            }
+        }
+        long[] result = new long[size];
+        System.arraycopy(ids, 0, result, 0, size);
+        return result;
+    }
+
+    /**
+     * Decompresses the points of the series inside the given range directly from the mapped file
+     *
+     * @param seriesId Id of the series
+     * @param from Start of the range, inclusive
+     * @param to End of the range, inclusive
+     * @param predictor Predictor matching the one used to compress the blocks, it is reset for every block of the
+     *                  range
+     * @param consumer Receives the points in time order
+     * @return Amount of points read
+     */
+    public int read(long seriesId, long from, long to, StatefulPredictor predictor, PairConsumer consumer) {
+        ByteBuffer block = buffer.duplicate();
+        ByteBufferLongInput input = null;
+        GorillaDecompressor d = null;
+        int read = 0;
+
+        for(int i = firstEntry(seriesId); i < entries && field(i, SERIES_ID) == seriesId; i++) {
+            if(field(i, FIRST_TIMESTAMP) > to) {
+                break;
+            }
+            if(field(i, LAST_TIMESTAMP) < from) {
+                continue;
+            }
+            block.limit((int) (field(i, OFFSET) + field(i, LENGTH) * Long.BYTES));
+            block.position((int) field(i, OFFSET));
+            if(d == null) {
+                input = new ByteBufferLongInput(block);
+                d = new GorillaDecompressor(input, predictor);
+            } else {
+                input.reset(block);
+                d.reset(input);
+            }
+
+            long count = field(i, COUNT);
+            for(int j = 0; j < count && d.next(); j++) {
+                long timestamp = d.getTimestamp();
+                if(timestamp > to) {
+                    break;
+                }
+                if(timestamp >= from) {
+                    consumer.accept(timestamp, d.getLongValue());
+                    read++;
+                }
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Copies the blocks of the series overlapping the given range to the heap
+     *
+     * @param seriesId Id of the series
+     * @param from Start of the range, inclusive
+     * @param to End of the range, inclusive
+     * @return Blocks in time order
+     */
+    public List<Block> getBlocks(long seriesId, long from, long to) {
+        List<Block> blocks = new ArrayList<>();
+        for(int i = firstEntry(seriesId); i < entries && field(i, SERIES_ID) == seriesId; i++) {
+            if(field(i, FIRST_TIMESTAMP) > to) {
+                break;
+            }
+            if(field(i, LAST_TIMESTAMP) < from) {
+                continue;
+            }
+            long[] data = new long[(int) field(i, LENGTH)];
+            ByteBuffer block = buffer.duplicate();
+            block.position((int) field(i, OFFSET));
+            block.asLongBuffer().get(data);
+            blocks.add(new Block(data, field(i, FIRST_TIMESTAMP), field(i, LAST_TIMESTAMP), (int) field(i, COUNT),
+                    minValue(i), maxValue(i)));
+        }
+        return blocks;
+    }
+
+    /**
+     * Returns the blocks of the series overlapping the given range as views of the mapped file, without copying
+     *
+     * @param seriesId Id of the series
+     * @param from Start of the range, inclusive
+     * @param to End of the range, inclusive
+     * @return Blocks in time order
+     */
+    public List<Block> getMappedBlocks(long seriesId, long from, long to) {
+        List<Block> blocks = new ArrayList<>();
+        for(int i = firstEntry(seriesId); i < entries && field(i, SERIES_ID) == seriesId; i++) {
+            if(field(i, FIRST_TIMESTAMP) > to) {
+                break;
+            }
+            if(field(i, LAST_TIMESTAMP) < from) {
+                continue;
+            }
+            ByteBuffer block = buffer.duplicate();
+            block.limit((int) (field(i, OFFSET) + field(i, LENGTH) * Long.BYTES));
+            block.position((int) field(i, OFFSET));
+            blocks.add(new BufferBlock(block, Block.Tier.MAPPED, field(i, FIRST_TIMESTAMP), field(i, LAST_TIMESTAMP),
+                    (int) field(i, COUNT), minValue(i), maxValue(i)));
+        }
+        return blocks;
+    }
+
+    private long field(int entry, int field) {
+        return footer.get(entry * ENTRY_LONGS + field);
+    }
+
+    private double minValue(int entry) {
+        return Double.longBitsToDouble(field(entry, MIN_VALUE));
+    }
+
+    private double maxValue(int entry) {
+        return Double.longBitsToDouble(field(entry, MAX_VALUE));
+    }
+
+    /**
+     * @return Index of the first footer entry of the series, or of the next series if it does not exist
+     */
+    private int firstEntry(long seriesId) {
+        int low = 0;
+        int high = entries;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(field(mid, SERIES_ID) < seriesId) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,133 @@
+package fi.iki.yak.ts.compression.gorilla.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import fi.iki.yak.ts.compression.gorilla.Block;
+
+/**
+ * Writes closed blocks of multiple series to an append-only file. The file consists of a header, the compressed
+ * blocks end to end and a footer index, which is written when the writer is closed. All the fields are big endian
+ * 8 byte words:
+ *
+ * <pre>
+ * header:  magic, version
+ * blocks:  the long arrays of the blocks
+ * footer:  seriesId, firstTimestamp, lastTimestamp, offset, length, count, minValue, maxValue (one entry per block)
+ * trailer: footer offset, amount of entries, magic
+ * </pre>
+ *
+ * The footer entries are sorted by series id and first timestamp. Offsets are in bytes from the start of the file and
+ * lengths in 8 byte words. The value range is stored as the bits of the doubles, so that filters can skip the blocks
+ * after a restart. A file without a trailer was not closed properly and can not be read.
+ *
+ * @author Michael Burman
+ */
+public class BlockFileWriter implements Closeable {
+    static final long MAGIC = 0x474F52494C4C4131L; // GORILLA1
+    static final long VERSION = 1;
+    static final int HEADER_BYTES = 2 * Long.BYTES;
+    static final int ENTRY_BYTES = 8 * Long.BYTES;
+    static final int TRAILER_BYTES = 3 * Long.BYTES;
+
+    private final FileChannel channel;
+    private final List<long[]> entries = new ArrayList<>();
+    private ByteBuffer buffer = ByteBuffer.allocate(4096);
+    private long offset;
+    private boolean closed = false;
+
+    /**
+     * Creates a new file, replacing an existing one
+     *
+     * @param path Path of the file
+     * @throws IOException If the file could not be created
+     */
+    public BlockFileWriter(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        buffer.putLong(MAGIC).putLong(VERSION);
+        flush();
+        offset = HEADER_BYTES;
+    }
+
+    /**
+     * Appends a closed block to the file. Empty blocks are skipped.
+     *
+     * @param seriesId Id of the series the block belongs to
+     * @param block Closed block
+     * @throws IOException If writing failed
+     */
+    public void write(long seriesId, Block block) throws IOException {
+        if(closed) {
+            throw new IllegalStateException("Writer is closed");
+        }
+        if(block.getCount() == 0) {
+            return;
+        }
+        long[] data = block.getLongArray();
+        ensureCapacity(data.length * Long.BYTES);
+        buffer.asLongBuffer().put(data);
+        buffer.position(data.length * Long.BYTES);
+        flush();
+
+        entries.add(new long[] { seriesId, block.getFirstTimestamp(), block.getLastTimestamp(), offset, data.length,
+                block.getCount(), Double.doubleToRawLongBits(block.getMinValue()),
+                Double.doubleToRawLongBits(block.getMaxValue()) });
+        offset += (long) data.length * Long.BYTES;
+    }
+
+    /**
+     * @return Amount of blocks written
+     */
+    public int getBlockCount() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the footer and the trailer and closes the file. The file is forced to the storage device.
+     *
+     * @throws IOException If writing failed
+     */
+    @Override
+    public void close() throws IOException {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        try {
+            entries.sort(Comparator.<long[]>comparingLong(e -> e[0]).thenComparingLong(e -> e[1]));
+            ensureCapacity(entries.size() * ENTRY_BYTES + TRAILER_BYTES);
+            for(long[] entry : entries) {
+                for(long field : entry) {
+                    buffer.putLong(field);
+                }
+            }
+            buffer.putLong(offset).putLong(entries.size()).putLong(MAGIC);
+            flush();
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void ensureCapacity(int bytes) {
+        if(buffer.capacity() < bytes) {
+            buffer = ByteBuffer.allocate(bytes);
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
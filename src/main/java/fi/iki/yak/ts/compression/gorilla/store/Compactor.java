@@ -0,0 +1,186 @@
+package fi.iki.yak.ts.compression.gorilla.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import fi.iki.yak.ts.compression.gorilla.AbstractGorillaCompressor;
+import fi.iki.yak.ts.compression.gorilla.AbstractGorillaDecompressor;
+import fi.iki.yak.ts.compression.gorilla.Block;
+import fi.iki.yak.ts.compression.gorilla.BlockCache;
+import fi.iki.yak.ts.compression.gorilla.GorillaCompressor;
+import fi.iki.yak.ts.compression.gorilla.GorillaDecompressor;
+import fi.iki.yak.ts.compression.gorilla.GorillaMerger;
+import fi.iki.yak.ts.compression.gorilla.LongArrayOutput;
+
+/**
+ * Merges the closed blocks of a series that share a block window into a single block. Multiple blocks per window
+ * are created when a series is rolled over and then receives more points, for example after a writer restart. Each
+ * merged block saves the header, the first delta, the first value and the end marker of the blocks it replaces.
+ *
+ * The blocks are merged on the given executor without holding the shard locks, streaming the points from the
+ * decompressors directly to the new compressor. Merging is rate limited to the given amount of input blocks per
+ * second.
+ *
+ * @author Michael Burman
+ */
+public class Compactor {
+
+    static class Candidate {
+        final Shard shard;
+        final long partitionStart;
+        final long seriesId;
+        final Block[] blocks;
+
+        Candidate(Shard shard, long partitionStart, long seriesId, Block[] blocks) {
+            this.shard = shard;
+            this.partitionStart = partitionStart;
+            this.seriesId = seriesId;
+            this.blocks = blocks;
+        }
+    }
+
+    private final SeriesStore store;
+    private final ScheduledExecutorService executor;
+    private final long nanosPerBlock;
+    private final AtomicLong compacted = new AtomicLong();
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private long nextPermit = System.nanoTime();
+
+    /**
+     * @param store Store to compact
+     * @param executor Executor for the merges and the scheduled passes
+     * @param blocksPerSecond Maximum amount of input blocks merged per second
+     */
+    public Compactor(SeriesStore store, ScheduledExecutorService executor, double blocksPerSecond) {
+        if(blocksPerSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be positive");
+        }
+        this.store = store;
+        this.executor = executor;
+        this.nanosPerBlock = (long) (TimeUnit.SECONDS.toNanos(1) / blocksPerSecond);
+    }
+
+    /**
+     * Runs a single compaction pass, merging every series window with more than one closed block
+     *
+     * @return Future completing with the amount of blocks removed by the pass
+     */
+    public CompletableFuture<Integer> compact() {
+        List<Candidate> candidates = new ArrayList<>();
+        for(Shard shard : store.shards()) {
+            shard.collectCompactable(2, candidates);
+        }
+
+        List<CompletableFuture<Integer>> futures = new ArrayList<>(candidates.size());
+        for(Candidate candidate : candidates) {
+            futures.add(CompletableFuture.supplyAsync(() -> merge(candidate), executor));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+                .thenApply(v -> futures.stream().mapToInt(CompletableFuture::join).sum());
+    }
+
+    /**
+     * Runs a compaction pass periodically. A pass is not started before the previous one has finished, a period that
+     * ends while a pass is still running is skipped. The scheduled task only starts the pass, the merges run on the
+     * same executor, so a single thread executor is enough.
+     *
+     * @param period Time between the passes
+     * @param unit Unit of the period
+     * @return Future for cancelling the scheduled passes
+     */
+    public ScheduledFuture<?> schedule(long period, TimeUnit unit) {
+        return executor.scheduleWithFixedDelay(() -> {
+            if(running.compareAndSet(false, true)) {
+                // Blocks that failed to merge are kept and retried in the next pass
+                compact().whenComplete((removed, e) -> running.set(false));
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * @return Total amount of blocks removed by merging
+     */
+    public long getCompactedBlocks() {
+        return compacted.get();
+    }
+
+    private int merge(Candidate candidate) {
+        acquire(candidate.blocks.length);
+
+        Reclaimer reclaimer = store.reclaimer();
+        int epoch = reclaimer.enter();
+        try {
+            // Blocks that expired after they were collected may already have been reused
+            if(!candidate.shard.contains(candidate.partitionStart, candidate.seriesId, candidate.blocks)) {
+                return 0;
+            }
+            return mergeBlocks(candidate);
+        } finally {
+            reclaimer.exit(epoch);
+        }
+    }
+
+    private int mergeBlocks(Candidate candidate) {
+        BlockEvents.Merge event = BlockEvents.INSTANCE.beginMerge();
+        AbstractGorillaDecompressor[] inputs = new AbstractGorillaDecompressor[candidate.blocks.length];
+        for(int i = 0; i < inputs.length; i++) {
+            inputs[i] = GorillaDecompressor.create(candidate.blocks[i].getInput(), store.getPredictorSupplier().get());
+        }
+        LongArrayOutput output = new LongArrayOutput();
+        AbstractGorillaCompressor compressor = GorillaCompressor.create(candidate.partitionStart, output,
+                store.getPredictorSupplier().get());
+        // Blocks of a series do not overlap, but the same timestamp may end one block and start the next
+        int count = new GorillaMerger(GorillaMerger.DuplicatePolicy.KEEP_ALL).merge(inputs, compressor);
+        compressor.close();
+
+        Block first = candidate.blocks[0];
+        Block last = candidate.blocks[candidate.blocks.length - 1];
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for(Block block : candidate.blocks) {
+            min = Math.min(min, block.getMinValue());
+            max = Math.max(max, block.getMaxValue());
+        }
+        Block merged = new Block(output.getLongArray(), first.getFirstTimestamp(), last.getLastTimestamp(), count,
+                min, max);
+        if(!candidate.shard.replace(candidate.partitionStart, candidate.seriesId, candidate.blocks, merged)) {
+            return 0;
+        }
+        if(event != null) {
+            event.complete(candidate.seriesId, candidate.partitionStart, candidate.blocks.length, count,
+                    merged.getSizeInBytes());
+        }
+
+        BlockCache cache = store.getBlockCache();
+        if(cache != null) {
+            for(Block block : candidate.blocks) {
+                cache.invalidate(block);
+            }
+        }
+        compacted.addAndGet(candidate.blocks.length - 1);
+        return candidate.blocks.length - 1;
+    }
+
+    /**
+     * Waits until the given amount of blocks can be merged without exceeding the rate
+     */
+    private void acquire(int blocks) {
+        long permit;
+        synchronized(this) {
+            permit = Math.max(nextPermit, System.nanoTime());
+            nextPermit = permit + blocks * nanosPerBlock;
+        }
+        long wait;
+        while((wait = permit - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+}
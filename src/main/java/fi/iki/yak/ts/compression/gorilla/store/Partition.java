@@ -0,0 +1,93 @@
+package fi.iki.yak.ts.compression.gorilla.store;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import fi.iki.yak.ts.compression.gorilla.Block;
+
+/**
+ * Closed blocks of a single block window, keyed by the series id. Grouping the blocks by their window allows to
+ * find and release a whole window at once. Guarded by the owning Shard, the block arrays are replaced on every change
+ * so that they can be read outside the lock.
+ *
+ * @author Michael Burman
+ */
+class Partition {
+    final long start;
+    final Map<Long, Block[]> blocks = new HashMap<>();
+
+    Partition(long start) {
+        this.start = start;
+    }
+
+    void add(long seriesId, Block block) {
+        Block[] existing = blocks.get(seriesId);
+        if(existing == null) {
+            blocks.put(seriesId, new Block[] { block });
+        } else {
+            Block[] added = Arrays.copyOf(existing, existing.length + 1);
+            added[existing.length] = block;
+            blocks.put(seriesId, added);
+        }
+    }
+
+    /**
+     * Replaces the first blocks of the series with a merged block, if they are still the same blocks
+     *
+     * @return true if the blocks were replaced
+     */
+    boolean replace(long seriesId, Block[] replaced, Block merged) {
+        if(!startsWith(seriesId, replaced)) {
+            return false;
+        }
+        Block[] existing = blocks.get(seriesId);
+        // Blocks closed while merging are kept after the merged block
+        Block[] result = new Block[existing.length - replaced.length + 1];
+        result[0] = merged;
+        System.arraycopy(existing, replaced.length, result, 1, existing.length - replaced.length);
+        blocks.put(seriesId, result);
+        return true;
+    }
+
+    /**
+     * @return true if the first blocks of the series are the given blocks
+     */
+    boolean startsWith(long seriesId, Block[] prefix) {
+        Block[] existing = blocks.get(seriesId);
+        if(existing == null || existing.length < prefix.length) {
+            return false;
+        }
+        for(int i = 0; i < prefix.length; i++) {
+            if(existing[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replaces a single block of the series, if it still exists
+     *
+     * @return true if the block was replaced
+     */
+    boolean replace(long seriesId, Block replaced, Block replacement) {
+        Block[] existing = blocks.get(seriesId);
+        if(existing == null) {
+            return false;
+        }
+        for(int i = 0; i < existing.length; i++) {
+            if(existing[i] == replaced) {
+                Block[] result = existing.clone();
+                result[i] = replacement;
+                blocks.put(seriesId, result);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    Block[] get(long seriesId) {
+        return blocks.get(seriesId);
+    }
+}
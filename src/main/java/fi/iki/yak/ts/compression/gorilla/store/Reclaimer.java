@@ -0,0 +1,86 @@
+package fi.iki.yak.ts.compression.gorilla.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fi.iki.yak.ts.compression.gorilla.LongArrayPool;
+
+/**
+ * Hands the arrays of removed blocks to a LongArrayPool once no reader can be using them anymore. Readers register
+ * to the current epoch for the duration of a read. Arrays retired during an epoch are released to the pool after the
+ * epoch has been advanced and every reader registered to the previous epoch has finished, as any later reader could
+ * not have found the removed blocks.
+ *
+ * @author Michael Burman
+ */
+class Reclaimer {
+    private final AtomicInteger[] readers = { new AtomicInteger(), new AtomicInteger() };
+    private volatile int epoch = 0;
+    private volatile LongArrayPool pool;
+
+    // Guarded by this
+    private List<long[]> retired = new ArrayList<>();
+    private List<long[]> waiting = new ArrayList<>();
+
+    /**
+     * Registers a reader
+     *
+     * @return Epoch to pass to {@link #exit(int)}
+     */
+    int enter() {
+        for(;;) {
+            int e = epoch;
+            readers[e & 1].incrementAndGet();
+            if(epoch == e) {
+                return e;
+            }
+            // The epoch was advanced meanwhile, register to the new one
+            readers[e & 1].decrementAndGet();
+        }
+    }
+
+    void exit(int e) {
+        readers[e & 1].decrementAndGet();
+    }
+
+    void setPool(LongArrayPool pool) {
+        this.pool = pool;
+    }
+
+    LongArrayPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Retires the arrays of blocks that have been removed from the store
+     */
+    synchronized void retire(List<long[]> arrays) {
+        if(pool != null) {
+            retired.addAll(arrays);
+        }
+        tryAdvance();
+    }
+
+    /**
+     * Releases the arrays waiting for the readers of the previous epoch if they have all finished, and starts
+     * waiting for the readers of the current epoch
+     */
+    synchronized void tryAdvance() {
+        int e = epoch;
+        if(readers[(e - 1) & 1].get() != 0) {
+            return;
+        }
+        LongArrayPool pool = this.pool;
+        if(pool != null) {
+            for(long[] array : waiting) {
+                pool.release(array);
+            }
+        }
+        waiting.clear();
+        List<long[]> swap = waiting;
+        waiting = retired;
+        retired = swap;
+        epoch = e + 1;
+    }
+}
@@ -0,0 +1,25 @@
+package fi.iki.yak.ts.compression.gorilla.store;
+
+import fi.iki.yak.ts.compression.gorilla.OpenBlock;
+
+/**
+ * State of a single series in the store: the open block and its window. Guarded by the owning Shard.
+ *
+ * @author Michael Burman
+ */
+class Series {
+    final long id;
+
+    long blockStart;
+    OpenBlock block;
+
+    long lastTimestamp = Long.MIN_VALUE;
+
+    Series(long id) {
+        this.id = id;
+    }
+
+    boolean isOpen() {
+        return block != null;
+    }
+}
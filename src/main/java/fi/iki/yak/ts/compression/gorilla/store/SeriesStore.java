@@ -0,0 +1,380 @@
+package fi.iki.yak.ts.compression.gorilla.store;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import fi.iki.yak.ts.compression.gorilla.Block;
+import fi.iki.yak.ts.compression.gorilla.BlockCache;
+import fi.iki.yak.ts.compression.gorilla.BlockSet;
+import fi.iki.yak.ts.compression.gorilla.GorillaCompressor;
+import fi.iki.yak.ts.compression.gorilla.LongArrayPool;
+import fi.iki.yak.ts.compression.gorilla.OpenBlock;
+import fi.iki.yak.ts.compression.gorilla.PairConsumer;
+import fi.iki.yak.ts.compression.gorilla.StatefulPredictor;
+import fi.iki.yak.ts.compression.gorilla.predictors.LastValuePredictor;
+
+/**
+ * In-memory store for multiple series, modelled after the TSmap of the Gorilla paper. Each series has an open
+ * GorillaCompressor block, which is closed and replaced with a new one once a point crosses the block window
+ * boundary. Closed blocks are kept as immutable long arrays.
+ *
+ * The series are sharded by their id, each shard having its own lock. By default there is one shard per core.
+ *
+ * @author Michael Burman
+ */
+public class SeriesStore {
+    public static final long DEFAULT_BLOCK_SIZE = TimeUnit.HOURS.toMillis(2);
+
+    private final long blockSize;
+    private final Shard[] shards;
+    private final Supplier<StatefulPredictor> predictorSupplier;
+    private final Reclaimer reclaimer = new Reclaimer();
+    private final Map<Long, Long> retentions = new ConcurrentHashMap<>();
+    private volatile long retention = Long.MAX_VALUE;
+    private volatile BlockCache cache;
+    private volatile TieredStorage tieredStorage;
+    private volatile LatencyHistogram decodeHistogram;
+
+    /**
+     * Creates a new store with two hour blocks, one shard per core and the LastValuePredictor.
+     */
+    public SeriesStore() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param blockSize Length of a block window in milliseconds
+     */
+    public SeriesStore(long blockSize) {
+        this(blockSize, Runtime.getRuntime().availableProcessors(), LastValuePredictor::new);
+    }
+
+    /**
+     * @param blockSize Length of a block window in milliseconds, less than 2^27 - 1 (about 37 hours)
+     * @param shards Amount of shards, will be rounded to the next power of two
+     * @param predictorSupplier Creates the predictors for each block
+     */
+    public SeriesStore(long blockSize, int shards, Supplier<StatefulPredictor> predictorSupplier) {
+        // The first delta of a block must fit in FIRST_DELTA_BITS and all bits set marks an empty block
+        if(blockSize <= 0 || blockSize >= (1 << GorillaCompressor.FIRST_DELTA_BITS) - 1) {
+            throw new IllegalArgumentException("Block size must be positive and less than " +
+                    ((1 << GorillaCompressor.FIRST_DELTA_BITS) - 1) + " ms");
+        }
+        if(shards <= 0) {
+            throw new IllegalArgumentException("Amount of shards must be positive");
+        }
+        int size = 1 << (Integer.SIZE - Integer.numberOfLeadingZeros(shards - 1));
+
+        this.blockSize = blockSize;
+        this.predictorSupplier = predictorSupplier;
+        this.shards = new Shard[size];
+        for(int i = 0; i < size; i++) {
+            this.shards[i] = new Shard(blockSize, predictorSupplier, reclaimer);
+        }
+    }
+
+    Shard shard(long seriesId) {
+        long h = seriesId * 0x9E3779B97F4A7C15L; // Fibonacci hashing, spreads sequential ids over the shards
+        return shards[(int) (h >>> 32) & (shards.length - 1)];
+    }
+
+    Shard[] shards() {
+        return shards;
+    }
+
+    Reclaimer reclaimer() {
+        return reclaimer;
+    }
+
+    /**
+     * Adds a new long value to the series. Values of a series must be inserted in order.
+     *
+     * @param seriesId Id of the series
+     * @param timestamp Timestamp in milliseconds
+     * @param value next long value in the series
+     */
+    public void append(long seriesId, long timestamp, long value) {
+        shard(seriesId).append(seriesId, timestamp, value);
+    }
+
+    /**
+     * Adds a new double value to the series. Values of a series must be inserted in order.
+     *
+     * @param seriesId Id of the series
+     * @param timestamp Timestamp in milliseconds
+     * @param value next floating point value in the series
+     */
+    public void append(long seriesId, long timestamp, double value) {
+        append(seriesId, timestamp, Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Adds a batch of points, possibly of different series. Consecutive points of the same shard are added while
+     * holding the shard lock only once. Values of a series must be inserted in order.
+     *
+     * @param seriesIds Ids of the series
+     * @param timestamps Timestamps in milliseconds
+     * @param values Long values or bits of doubles
+     * @param length Amount of points in the arrays
+     */
+    public void append(long[] seriesIds, long[] timestamps, long[] values, int length) {
+        int start = 0;
+        Shard shard = length > 0 ? shard(seriesIds[0]) : null;
+        for(int i = 1; i <= length; i++) {
+            Shard next = i < length ? shard(seriesIds[i]) : null;
+            if(next != shard) {
+                shard.append(seriesIds, timestamps, values, start, i);
+                shard = next;
+                start = i;
+            }
+        }
+    }
+
+    /**
+     * Closes the open blocks of all the series whose block window ends at or before the given timestamp. Use this to
+     * close the blocks of series that are no longer receiving points.
+     *
+     * @param timestamp Current time in milliseconds
+     * @return Amount of blocks closed
+     */
+    public int rollover(long timestamp) {
+        int closed = 0;
+        for(Shard shard : shards) {
+            closed += shard.rollover(timestamp);
+        }
+        return closed;
+    }
+
+    /**
+     * Returns the blocks of the series that overlap the given range, in time order. The open block is included as a
+     * snapshot.
+     *
+     * @param seriesId Id of the series
+     * @param from Start of the range, inclusive
+     * @param to End of the range, inclusive
+     * @return Blocks overlapping the range
+     */
+    public List<Block> getBlocks(long seriesId, long from, long to) {
+        List<Block> blocks = new ArrayList<>();
+        shard(seriesId).collect(seriesId, from, to, blocks);
+        return blocks;
+    }
+
+    /**
+     * Returns the blocks of the series that overlap the given range as a BlockSet, allowing parallel scans. The open
+     * block is included as a snapshot.
+     *
+     * @param seriesId Id of the series
+     * @param from Start of the range, inclusive
+     * @param to End of the range, inclusive
+     * @return BlockSet of the blocks overlapping the range
+     */
+    public BlockSet getBlockSet(long seriesId, long from, long to) {
+        return new BlockSet(getBlocks(seriesId, from, to), predictorSupplier);
+    }
+
+    /**
+     * Reads the points of the series inside the given range, in time order. The blocks, including the open block,
+     * are decompressed without holding the shard lock.
+     *
+     * @param seriesId Id of the series
+     * @param from Start of the range, inclusive
+     * @param to End of the range, inclusive
+     * @param consumer Receives the points
+     * @return Amount of points read
+     */
+    public int query(long seriesId, long from, long to, PairConsumer consumer) {
+        int epoch = reclaimer.enter();
+        try {
+            return read(seriesId, from, to, consumer);
+        } finally {
+            reclaimer.exit(epoch);
+        }
+    }
+
+    private int read(long seriesId, long from, long to, PairConsumer consumer) {
+        List<Block> blocks = new ArrayList<>();
+        OpenBlock open = shard(seriesId).collectClosed(seriesId, from, to, blocks);
+
+        BlockCache cache = this.cache;
+        TieredStorage tieredStorage = this.tieredStorage;
+        LatencyHistogram histogram = this.decodeHistogram;
+        int read = 0;
+        for(Block block : blocks) {
+            if(tieredStorage != null) {
+                block = tieredStorage.accessed(seriesId, block);
+            }
+            BlockEvents.Decode event = BlockEvents.INSTANCE.beginDecode();
+            long start = histogram != null ? System.nanoTime() : 0;
+            int points = cache != null ? cache.read(block, from, to, consumer)
+                    : block.read(predictorSupplier.get(), from, to, consumer);
+            if(histogram != null) {
+                histogram.record(System.nanoTime() - start);
+            }
+            if(event != null) {
+                event.complete(seriesId, block.getBlockTimestamp(), points, block.getSizeInBytes(), false);
+            }
+            read += points;
+        }
+        if(open != null) {
+            BlockEvents.Decode event = BlockEvents.INSTANCE.beginDecode();
+            long start = histogram != null ? System.nanoTime() : 0;
+            // Reads the committed points concurrently with the writer, without copying
+            int points = open.read(predictorSupplier.get(), from, to, consumer);
+            if(histogram != null) {
+                histogram.record(System.nanoTime() - start);
+            }
+            if(event != null) {
+                event.complete(seriesId, open.getBlockTimestamp(), points,
+                        (open.getBitsWritten() + Byte.SIZE - 1) / Byte.SIZE, true);
+            }
+            read += points;
+        }
+        return read;
+    }
+
+    /**
+     * Sets the cache used by {@link #query(long, long, long, PairConsumer)} for the closed blocks. The cache must
+     * decompress with the predictors of this store.
+     *
+     * @param cache Cache for the decompressed blocks, or null to disable caching
+     */
+    public void setBlockCache(BlockCache cache) {
+        this.cache = cache;
+    }
+
+    public BlockCache getBlockCache() {
+        return cache;
+    }
+
+    /**
+     * Sets the histogram receiving the time to decompress each block read by
+     * {@link #query(long, long, long, PairConsumer)}, including the open block. Independent of the histogram, the
+     * reads are reported as Flight Recorder events when the recording enables them.
+     *
+     * @param histogram Histogram for the decompression latencies, or null to disable timing
+     */
+    public void setDecodeHistogram(LatencyHistogram histogram) {
+        this.decodeHistogram = histogram;
+    }
+
+    public LatencyHistogram getDecodeHistogram() {
+        return decodeHistogram;
+    }
+
+    /**
+     * Sets the default retention of the series. Blocks are removed by {@link #expire(long)}.
+     *
+     * @param retention Milliseconds after the end of a block window before the blocks of the window are removed,
+     *                  Long.MAX_VALUE to keep them forever
+     */
+    public void setRetention(long retention) {
+        if(retention < 0) {
+            throw new IllegalArgumentException("Retention must not be negative");
+        }
+        this.retention = retention;
+    }
+
+    /**
+     * Sets the retention of a single series, overriding the default retention
+     *
+     * @param seriesId Id of the series
+     * @param retention Milliseconds after the end of a block window before the blocks of the series in the window
+     *                  are removed, Long.MAX_VALUE to keep them forever
+     */
+    public void setRetention(long seriesId, long retention) {
+        if(retention < 0) {
+            throw new IllegalArgumentException("Retention must not be negative");
+        }
+        retentions.put(seriesId, retention);
+    }
+
+    /**
+     * Removes the closed blocks whose retention has passed. The blocks are grouped by their window, so all the
+     * expired blocks of a window are removed at once, only series with their own retention are handled separately.
+     *
+     * If a buffer pool is set, the arrays of the removed blocks are given to the pool once no query is reading them.
+     * The pending arrays are released on a later call.
+     *
+     * @param now Current time in milliseconds
+     * @return Amount of block windows removed from the shards
+     */
+    public int expire(long now) {
+        long defaultCutoff = cutoff(now, retention);
+        Map<Shard, Map<Long, Long>> cutoffs = new HashMap<>();
+        for(Map.Entry<Long, Long> entry : retentions.entrySet()) {
+            cutoffs.computeIfAbsent(shard(entry.getKey()), s -> new HashMap<>())
+                    .put(entry.getKey(), cutoff(now, entry.getValue()));
+        }
+
+        boolean pooled = reclaimer.getPool() != null;
+        int removed = 0;
+        for(Shard shard : shards) {
+            List<long[]> released = pooled ? new ArrayList<>() : null;
+            removed += shard.expire(defaultCutoff, cutoffs.getOrDefault(shard, new HashMap<>()), released);
+            if(pooled) {
+                reclaimer.retire(released);
+            }
+        }
+        reclaimer.tryAdvance();
+        return removed;
+    }
+
+    private static long cutoff(long now, long retention) {
+        long cutoff = now - retention;
+        // Underflow means nothing has expired
+        return cutoff > now ? Long.MIN_VALUE : cutoff;
+    }
+
+    /**
+     * Sets a pool for the arrays of the blocks. The buffers of closed and expired blocks are returned to the pool
+     * and new blocks are written to arrays taken from it.
+     *
+     * With a pool, the blocks returned by {@link #getBlocks(long, long, long)} and
+     * {@link #getBlockSet(long, long, long)} must not be used after their retention has passed, as their arrays may
+     * have been reused. {@link #query(long, long, long, PairConsumer)} is always safe.
+     *
+     * @param pool Pool for the arrays, or null to leave the arrays to the garbage collector
+     */
+    public void setBufferPool(LongArrayPool pool) {
+        reclaimer.setPool(pool);
+    }
+
+    public LongArrayPool getBufferPool() {
+        return reclaimer.getPool();
+    }
+
+    void setTieredStorage(TieredStorage tieredStorage) {
+        this.tieredStorage = tieredStorage;
+    }
+
+    /**
+     * @return Amount of series in the store
+     */
+    public int getSeriesCount() {
+        int count = 0;
+        for(Shard shard : shards) {
+            count += shard.seriesCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return Length of a block window in milliseconds
+     */
+    public long getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @return Supplier of the predictors used to compress and decompress the blocks
+     */
+    public Supplier<StatefulPredictor> getPredictorSupplier() {
+        return predictorSupplier;
+    }
+}
@@ -0,0 +1,410 @@
+package fi.iki.yak.ts.compression.gorilla.store;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+import fi.iki.yak.ts.compression.gorilla.Block;
+import fi.iki.yak.ts.compression.gorilla.LongArrayOutput;
+import fi.iki.yak.ts.compression.gorilla.LongArrayPool;
+import fi.iki.yak.ts.compression.gorilla.OpenBlock;
+import fi.iki.yak.ts.compression.gorilla.StatefulPredictor;
+
+/**
+ * A part of the SeriesStore that is guarded by a single lock. Each series belongs to exactly one shard, so writers of
+ * different shards never contend with each other.
+ *
+ * @author Michael Burman
+ */
+class Shard {
+    private final long blockSize;
+    private final Supplier<StatefulPredictor> predictorSupplier;
+    private final Reclaimer reclaimer;
+
+    final Map<Long, Series> series = new HashMap<>();
+    final TreeMap<Long, Partition> partitions = new TreeMap<>();
+    // Series without an open block by the window of their last block, so that expiring them does not scan every series
+    final TreeMap<Long, Set<Long>> idleSeries = new TreeMap<>();
+
+    Shard(long blockSize, Supplier<StatefulPredictor> predictorSupplier, Reclaimer reclaimer) {
+        this.blockSize = blockSize;
+        this.predictorSupplier = predictorSupplier;
+        this.reclaimer = reclaimer;
+    }
+
+    synchronized void append(long seriesId, long timestamp, long value) {
+        Series s = series.get(seriesId);
+        if(s == null) {
+            s = new Series(seriesId);
+            series.put(seriesId, s);
+        }
+        if(timestamp < s.lastTimestamp) {
+            throw new IllegalArgumentException("Timestamp " + timestamp + " is older than the last timestamp " +
+                    s.lastTimestamp + " of series " + seriesId + ", out-of-order insertions are not supported");
+        }
+        if(!s.isOpen() || timestamp >= s.blockStart + blockSize) {
+            if(!s.isOpen()) {
+                removeIdle(s);
+            }
+            closeBlock(s);
+            openBlock(s, timestamp - Math.floorMod(timestamp, blockSize));
+        }
+
+        s.block.addValue(timestamp, value);
+        s.lastTimestamp = timestamp;
+    }
+
+    /**
+     * Appends the points [from, to) of the arrays while holding the lock only once
+     */
+    synchronized void append(long[] seriesIds, long[] timestamps, long[] values, int from, int to) {
+        for(int i = from; i < to; i++) {
+            append(seriesIds[i], timestamps[i], values[i]);
+        }
+    }
+
+    private void openBlock(Series s, long blockStart) {
+        BlockEvents.Open event = BlockEvents.INSTANCE.beginOpen();
+        s.blockStart = blockStart;
+        LongArrayPool pool = reclaimer.getPool();
+        s.block = pool != null
+                ? new OpenBlock(blockStart, predictorSupplier.get(), pool.acquire(LongArrayOutput.DEFAULT_ALLOCATION))
+                : new OpenBlock(blockStart, predictorSupplier.get());
+        if(event != null) {
+            event.complete(s.id, blockStart);
+        }
+    }
+
+    private void closeBlock(Series s) {
+        if(!s.isOpen()) {
+            return;
+        }
+        OpenBlock open = s.block;
+        s.block = null;
+        if(open.getCount() > 0) {
+            BlockEvents.Close event = BlockEvents.INSTANCE.beginClose();
+            Block block = open.close();
+            if(event != null) {
+                event.complete(s.id, s.blockStart, block.getCount(), block.getSizeInBytes());
+            }
+            Partition partition = partitions.get(s.blockStart);
+            if(partition == null) {
+                partition = new Partition(s.blockStart);
+                partitions.put(s.blockStart, partition);
+            }
+            partition.add(s.id, block);
+        }
+        if(reclaimer.getPool() != null) {
+            // Concurrent readers of the open block may still be using the buffer
+            reclaimer.retire(Collections.singletonList(open.getBuffer()));
+        }
+    }
+
+    /**
+     * Closes all the open blocks which end at or before the given timestamp
+     */
+    synchronized int rollover(long timestamp) {
+        int closed = 0;
+        for(Series s : series.values()) {
+            if(s.isOpen() && s.blockStart + blockSize <= timestamp) {
+                closeBlock(s);
+                addIdle(s);
+                closed++;
+            }
+        }
+        return closed;
+    }
+
+    /**
+     * Collects the closed blocks and a snapshot of the open block of the series that overlap the given range
+     */
+    synchronized void collect(long seriesId, long from, long to, List<Block> blocks) {
+        OpenBlock open = collectClosed(seriesId, from, to, blocks);
+        if(open != null) {
+            blocks.add(open.snapshot());
+        }
+    }
+
+    /**
+     * Collects the closed blocks of the series that overlap the given range and returns the open block if it overlaps
+     * the range. The open block can be read outside the lock.
+     */
+    synchronized OpenBlock collectClosed(long seriesId, long from, long to, List<Block> blocks) {
+        long firstWindow = from - Math.floorMod(from, blockSize);
+        if(firstWindow > from) {
+            // Overflow, the range starts from the beginning of time
+            firstWindow = Long.MIN_VALUE;
+        }
+        for(Partition partition : partitions.subMap(firstWindow, true, to, true).values()) {
+            Block[] closed = partition.get(seriesId);
+            if(closed != null) {
+                for(Block block : closed) {
+                    if(block.overlaps(from, to)) {
+                        blocks.add(block);
+                    }
+                }
+            }
+        }
+
+        Series s = series.get(seriesId);
+        if(s != null && s.isOpen()) {
+            OpenBlock open = s.block;
+            if(open.getCount() > 0 && open.getFirstTimestamp() <= to && open.getLastTimestamp() >= from) {
+                return open;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Collects the series of each partition that have at least the given amount of closed blocks
+     */
+    synchronized void collectCompactable(int minBlocks, List<Compactor.Candidate> candidates) {
+        for(Partition partition : partitions.values()) {
+            for(Map.Entry<Long, Block[]> entry : partition.blocks.entrySet()) {
+                if(entry.getValue().length >= minBlocks) {
+                    candidates.add(new Compactor.Candidate(this, partition.start, entry.getKey(), entry.getValue()));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the blocks collected for compaction have not been changed or removed
+     */
+    synchronized boolean contains(long partitionStart, long seriesId, Block[] blocks) {
+        Partition partition = partitions.get(partitionStart);
+        return partition != null && partition.startsWith(seriesId, blocks);
+    }
+
+    /**
+     * Replaces the compacted blocks of the series with the merged block
+     *
+     * @return false if the blocks were changed or removed while merging
+     */
+    synchronized boolean replace(long partitionStart, long seriesId, Block[] replaced, Block merged) {
+        Partition partition = partitions.get(partitionStart);
+        return partition != null && partition.replace(seriesId, replaced, merged);
+    }
+
+    /**
+     * @return Starts of the partitions whose window ends at or before the timestamp
+     */
+    synchronized List<Long> partitionsBefore(long timestamp) {
+        List<Long> starts = new ArrayList<>();
+        for(Long start : partitions.keySet()) {
+            if(start + blockSize > timestamp) {
+                break;
+            }
+            starts.add(start);
+        }
+        return starts;
+    }
+
+    /**
+     * @return Copy of the closed blocks of the partition by series id, empty if the partition does not exist
+     */
+    synchronized Map<Long, Block[]> copyBlocks(long partitionStart) {
+        Partition partition = partitions.get(partitionStart);
+        return partition != null ? new HashMap<>(partition.blocks) : new HashMap<>();
+    }
+
+    /**
+     * Replaces a single closed block, such as a block moved to another storage tier
+     *
+     * @return false if the block no longer exists
+     */
+    synchronized boolean replace(long partitionStart, long seriesId, Block replaced, Block replacement) {
+        Partition partition = partitions.get(partitionStart);
+        return partition != null && partition.replace(seriesId, replaced, replacement);
+    }
+
+    /**
+     * Removes the closed blocks whose window has ended at or before the cutoff of their series. Partitions past the
+     * default cutoff are removed as a whole, only the series with their own cutoff are handled one by one.
+     *
+     * @param defaultCutoff Cutoff of the series without their own retention
+     * @param cutoffs Cutoffs of the series of this shard with their own retention
+     * @param released Receives the arrays of the removed blocks, or null if they are not needed
+     * @return Amount of partitions removed
+     */
+    synchronized int expire(long defaultCutoff, Map<Long, Long> cutoffs, List<long[]> released) {
+        NavigableMap<Long, Partition> expired = endingBefore(defaultCutoff);
+        List<Partition> dropped = new ArrayList<>(expired.values());
+        if(!dropped.isEmpty()) {
+            expired.clear();
+        }
+
+        int removed = 0;
+        for(Partition partition : dropped) {
+            // Keep the series with a longer retention
+            Partition kept = null;
+            for(Map.Entry<Long, Long> cutoff : cutoffs.entrySet()) {
+                if(partition.start + blockSize > cutoff.getValue()) {
+                    Block[] blocks = partition.blocks.remove(cutoff.getKey());
+                    if(blocks != null) {
+                        if(kept == null) {
+                            kept = new Partition(partition.start);
+                        }
+                        kept.blocks.put(cutoff.getKey(), blocks);
+                    }
+                }
+            }
+            if(kept != null) {
+                partitions.put(kept.start, kept);
+            } else {
+                removed++;
+            }
+            if(released != null) {
+                for(Block[] blocks : partition.blocks.values()) {
+                    addArrays(blocks, released);
+                }
+            }
+        }
+
+        // Series with a shorter retention
+        for(Map.Entry<Long, Long> cutoff : cutoffs.entrySet()) {
+            if(cutoff.getValue() <= defaultCutoff) {
+                continue;
+            }
+            List<Long> empty = new ArrayList<>();
+            for(Partition partition : endingBefore(cutoff.getValue()).values()) {
+                Block[] blocks = partition.blocks.remove(cutoff.getKey());
+                if(blocks != null && released != null) {
+                    addArrays(blocks, released);
+                }
+                if(partition.blocks.isEmpty()) {
+                    empty.add(partition.start);
+                }
+            }
+            for(Long start : empty) {
+                partitions.remove(start);
+                removed++;
+            }
+        }
+
+        // Forget the series whose every block has expired
+        Iterator<Set<Long>> windows = endingBefore(idleSeries, defaultCutoff).values().iterator();
+        while(windows.hasNext()) {
+            Set<Long> ids = windows.next();
+            Iterator<Long> iterator = ids.iterator();
+            while(iterator.hasNext()) {
+                Long id = iterator.next();
+                if(!cutoffs.containsKey(id)) {
+                    // The series with their own retention are handled below
+                    series.remove(id);
+                    iterator.remove();
+                }
+            }
+            if(ids.isEmpty()) {
+                windows.remove();
+            }
+        }
+        for(Map.Entry<Long, Long> cutoff : cutoffs.entrySet()) {
+            Series s = series.get(cutoff.getKey());
+            if(s != null && !s.isOpen() && s.blockStart + blockSize <= cutoff.getValue()) {
+                removeIdle(s);
+                series.remove(s.id);
+            }
+        }
+        return removed;
+    }
+
+    private void addIdle(Series s) {
+        idleSeries.computeIfAbsent(s.blockStart, start -> new HashSet<>()).add(s.id);
+    }
+
+    private void removeIdle(Series s) {
+        Set<Long> ids = idleSeries.get(s.blockStart);
+        if(ids != null && ids.remove(s.id) && ids.isEmpty()) {
+            idleSeries.remove(s.blockStart);
+        }
+    }
+
+    private NavigableMap<Long, Partition> endingBefore(long cutoff) {
+        return endingBefore(partitions, cutoff);
+    }
+
+    private <T> NavigableMap<Long, T> endingBefore(NavigableMap<Long, T> windows, long cutoff) {
+        if(cutoff < Long.MIN_VALUE + blockSize) {
+            return Collections.emptyNavigableMap();
+        }
+        return windows.headMap(cutoff - blockSize, true);
+    }
+
+    private static void addArrays(Block[] blocks, List<long[]> released) {
+        for(Block block : blocks) {
+            if(block.hasArray()) {
+                released.add(block.getLongArray());
+            }
+        }
+    }
+
+    /**
+     * Collects the closed blocks by window and copies the state of the open blocks
+     */
+    synchronized void snapshot(List<StoreSnapshot.Record> records) {
+        for(Partition partition : partitions.values()) {
+            for(Map.Entry<Long, Block[]> entry : partition.blocks.entrySet()) {
+                for(Block block : entry.getValue()) {
+                    records.add(StoreSnapshot.Record.closed(entry.getKey(), partition.start, block));
+                }
+            }
+        }
+        for(Series s : series.values()) {
+            records.add(s.isOpen()
+                    ? StoreSnapshot.Record.open(s.id, s.blockStart, s.block)
+                    : StoreSnapshot.Record.series(s.id, s.blockStart, s.lastTimestamp));
+        }
+    }
+
+    /**
+     * Adds a closed block read from a snapshot
+     */
+    synchronized void restore(long partitionStart, long seriesId, Block block) {
+        Partition partition = partitions.get(partitionStart);
+        if(partition == null) {
+            partition = new Partition(partitionStart);
+            partitions.put(partitionStart, partition);
+        }
+        partition.add(seriesId, block);
+    }
+
+    /**
+     * Adds a series read from a snapshot
+     *
+     * @param open Open block of the series, or null if it has none
+     */
+    synchronized void restore(long seriesId, long blockStart, long lastTimestamp, OpenBlock open) {
+        if(series.containsKey(seriesId)) {
+            throw new IllegalStateException("Series " + seriesId + " already exists in the store");
+        }
+        Series s = new Series(seriesId);
+        s.blockStart = blockStart;
+        s.lastTimestamp = lastTimestamp;
+        s.block = open;
+        series.put(seriesId, s);
+        if(open == null) {
+            addIdle(s);
+        }
+    }
+
+    /**
+     * @return true if the partition exists
+     */
+    synchronized boolean hasPartition(long partitionStart) {
+        return partitions.containsKey(partitionStart);
+    }
+
+    synchronized int seriesCount() {
+        return series.size();
+    }
+}
@@ -0,0 +1,373 @@
+package fi.iki.yak.ts.compression.gorilla.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import fi.iki.yak.ts.compression.gorilla.Block;
+import fi.iki.yak.ts.compression.gorilla.BufferBlock;
+import fi.iki.yak.ts.compression.gorilla.OpenBlock;
+
+/**
+ * Writes every block of a SeriesStore to a single file and loads it back. The compressed words are written as they
+ * are with gathering writes, nothing is decompressed or compressed again. Blocks in buffers are written from their
+ * buffers and the words of heap blocks are staged in a reused direct buffer. All the fields are big endian 8 byte
+ * words:
+ *
+ * <pre>
+ * header:  magic, version, block size
+ * data:    the words of the blocks, an open block is followed by its compressor state padded to 8 bytes
+ * index:   kind, seriesId, blockStart, firstTimestamp, lastTimestamp, count, offset, length, bitsWritten, stateLength,
+ *          minValue, maxValue
+ * trailer: index offset, amount of entries, magic
+ * </pre>
+ *
+ * Offsets and state lengths are in bytes, lengths in 8 byte words. The value range is stored as the bits of the
+ * doubles, so that filters can skip the loaded blocks. Closed blocks are written by window in the order they are
+ * stored, followed by one entry per series: the open block or, for a series without one, only its window and last
+ * timestamp.
+ *
+ * Loading maps the file and reads only the index and the open blocks. The closed blocks are read directly from the
+ * mapping as {@link Block.Tier#MAPPED} blocks, so they are paged in on first access and a {@link TieredStorage} of the
+ * store promotes them to the heap when they are queried. Restart time depends on the amount of blocks and open
+ * blocks, not on the size of the closed data.
+ *
+ * The shards are copied one at a time, so the writers should be stopped for a consistent snapshot. The predictors
+ * must support state snapshots.
+ *
+ * @author Michael Burman
+ */
+public class StoreSnapshot {
+    static final long MAGIC = 0x474F52534E415031L; // GORSNAP1
+    static final long VERSION = 1;
+    static final int HEADER_BYTES = 3 * Long.BYTES;
+    static final int ENTRY_LONGS = 12;
+    static final int ENTRY_BYTES = ENTRY_LONGS * Long.BYTES;
+    static final int TRAILER_BYTES = 3 * Long.BYTES;
+
+    static final long CLOSED = 0;
+    static final long OPEN = 1;
+    static final long SERIES = 2;
+
+    // Mapped regions are split on block boundaries, a single MappedByteBuffer can not exceed 2GB
+    private static final long MAX_REGION = Integer.MAX_VALUE & ~(Long.BYTES - 1);
+    private static final int MAX_GATHER = 256;
+
+    private StoreSnapshot() {
+    }
+
+    /**
+     * A block or a series copied from a shard
+     */
+    static class Record {
+        final long kind;
+        final long seriesId;
+        final long blockStart;
+        final long firstTimestamp;
+        final long lastTimestamp;
+        final long count;
+        final Block block;
+        final long[] words;
+        final long bitsWritten;
+        final byte[] state;
+        final double minValue;
+        final double maxValue;
+
+        private Record(long kind, long seriesId, long blockStart, long firstTimestamp, long lastTimestamp, long count,
+                       Block block, long[] words, long bitsWritten, byte[] state, double minValue, double maxValue) {
+            this.kind = kind;
+            this.seriesId = seriesId;
+            this.blockStart = blockStart;
+            this.firstTimestamp = firstTimestamp;
+            this.lastTimestamp = lastTimestamp;
+            this.count = count;
+            this.block = block;
+            this.words = words;
+            this.bitsWritten = bitsWritten;
+            this.state = state;
+            this.minValue = minValue;
+            this.maxValue = maxValue;
+        }
+
+        static Record closed(long seriesId, long partitionStart, Block block) {
+            return new Record(CLOSED, seriesId, partitionStart, block.getFirstTimestamp(), block.getLastTimestamp(),
+                    block.getCount(), block, null, 0, null, block.getMinValue(), block.getMaxValue());
+        }
+
+        /**
+         * Copies the open block, must be called by the writer of the block
+         */
+        static Record open(long seriesId, long blockStart, OpenBlock open) {
+            ByteBuffer state = ByteBuffer.allocate(open.getStateSize());
+            open.saveState(state);
+            return new Record(OPEN, seriesId, blockStart, open.getFirstTimestamp(), open.getLastTimestamp(),
+                    open.getCount(), null, open.getWords(), open.getBitsWritten(), state.array(), open.getMinValue(),
+                    open.getMaxValue());
+        }
+
+        static Record series(long seriesId, long blockStart, long lastTimestamp) {
+            return new Record(SERIES, seriesId, blockStart, lastTimestamp, lastTimestamp, 0, null, null, 0, null,
+                    Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        }
+    }
+
+    /**
+     * Writes the blocks of the store to a file. The snapshot is written to a temporary file which replaces the
+     * given file once it is complete, so an existing snapshot stays valid until then, even if it is loaded.
+     *
+     * @param store Store to write
+     * @param path Path of the snapshot
+     * @return Size of the snapshot in bytes
+     * @throws IOException If the snapshot could not be written
+     */
+    public static long write(SeriesStore store, Path path) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        List<long[]> index = new ArrayList<>();
+        long size;
+
+        try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Gatherer gatherer = new Gatherer(channel);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putLong(MAGIC).putLong(VERSION).putLong(store.getBlockSize()).flip();
+            gatherer.add(header);
+
+            List<Record> records = new ArrayList<>();
+            for(Shard shard : store.shards()) {
+                records.clear();
+                shard.snapshot(records);
+                for(Record record : records) {
+                    long offset = gatherer.getPosition();
+                    long length = 0;
+                    long stateLength = 0;
+                    if(record.block instanceof BufferBlock) {
+                        ByteBuffer words = ((BufferBlock) record.block).getBuffer();
+                        length = words.remaining() / Long.BYTES;
+                        gatherer.add(words);
+                    } else if(record.kind != SERIES) {
+                        long[] words = record.kind == CLOSED ? record.block.getLongArray() : record.words;
+                        length = words.length;
+                        gatherer.add(words);
+                    }
+                    if(record.kind == OPEN) {
+                        // Keep the following words aligned
+                        ByteBuffer state = ByteBuffer.allocate(align(record.state.length));
+                        state.put(record.state).clear();
+                        gatherer.add(state);
+                        stateLength = record.state.length;
+                    }
+                    index.add(new long[] { record.kind, record.seriesId, record.blockStart, record.firstTimestamp,
+                            record.lastTimestamp, record.count, offset, length, record.bitsWritten, stateLength,
+                            Double.doubleToRawLongBits(record.minValue), Double.doubleToRawLongBits(record.maxValue) });
+                }
+            }
+
+            long indexOffset = gatherer.getPosition();
+            ByteBuffer entries = ByteBuffer.allocate(4096);
+            for(long[] entry : index) {
+                if(entries.remaining() < ENTRY_BYTES) {
+                    entries.flip();
+                    gatherer.add(entries);
+                    entries = ByteBuffer.allocate(4096);
+                }
+                for(long field : entry) {
+                    entries.putLong(field);
+                }
+            }
+            entries.flip();
+            gatherer.add(entries);
+
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+            trailer.putLong(indexOffset).putLong(index.size()).putLong(MAGIC).flip();
+            gatherer.add(trailer);
+            gatherer.flush();
+            size = gatherer.getPosition();
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return size;
+    }
+
+    /**
+     * Loads a snapshot to an empty store. The closed blocks stay in the mapped file, which must not be modified
+     * while the store uses them. Replacing it with {@link #write(SeriesStore, Path)} is safe.
+     *
+     * @param path Path of the snapshot
+     * @param store Empty store with the block size of the snapshot
+     * @return Amount of blocks loaded, including the open blocks
+     * @throws IOException If the file could not be read or is not a complete snapshot
+     */
+    public static int load(Path path, SeriesStore store) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size < HEADER_BYTES + TRAILER_BYTES) {
+                throw new IOException(path + " is too short to be a snapshot");
+            }
+            ByteBuffer header = read(channel, 0, HEADER_BYTES);
+            ByteBuffer trailer = read(channel, size - TRAILER_BYTES, TRAILER_BYTES);
+            if(header.getLong(0) != MAGIC || trailer.getLong(2 * Long.BYTES) != MAGIC) {
+                throw new IOException(path + " is not a snapshot or it was not written completely");
+            }
+            if(header.getLong(Long.BYTES) != VERSION) {
+                throw new IOException("Unsupported snapshot version " + header.getLong(Long.BYTES));
+            }
+            if(header.getLong(2 * Long.BYTES) != store.getBlockSize()) {
+                throw new IllegalArgumentException("Snapshot block size " + header.getLong(2 * Long.BYTES) +
+                        " does not match the block size " + store.getBlockSize() + " of the store");
+            }
+
+            long indexOffset = trailer.getLong(0);
+            long entries = trailer.getLong(Long.BYTES);
+            if(indexOffset < HEADER_BYTES || entries < 0 || entries > MAX_REGION / ENTRY_BYTES ||
+                    indexOffset + entries * ENTRY_BYTES != size - TRAILER_BYTES) {
+                throw new IOException("Corrupted index in " + path);
+            }
+            LongBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, entries * ENTRY_BYTES)
+                    .asLongBuffer();
+
+            MappedByteBuffer region = null;
+            long regionStart = 0;
+            int loaded = 0;
+            for(int i = 0; i < entries; i++) {
+                int e = i * ENTRY_LONGS;
+                long kind = index.get(e);
+                long seriesId = index.get(e + 1);
+                long blockStart = index.get(e + 2);
+                long firstTimestamp = index.get(e + 3);
+                long lastTimestamp = index.get(e + 4);
+                int count = (int) index.get(e + 5);
+                long offset = index.get(e + 6);
+                long bytes = index.get(e + 7) * Long.BYTES + align(index.get(e + 9));
+                double minValue = Double.longBitsToDouble(index.get(e + 10));
+                double maxValue = Double.longBitsToDouble(index.get(e + 11));
+                if(offset < HEADER_BYTES || bytes < 0 || bytes > MAX_REGION || offset + bytes > indexOffset) {
+                    throw new IOException("Corrupted index entry " + i + " in " + path);
+                }
+
+                if(kind == SERIES) {
+                    store.shard(seriesId).restore(seriesId, blockStart, lastTimestamp, null);
+                    continue;
+                }
+                if(region == null || offset < regionStart || offset + bytes > regionStart + region.capacity()) {
+                    regionStart = offset;
+                    region = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                            Math.min(MAX_REGION, indexOffset - offset));
+                }
+                ByteBuffer words = region.duplicate();
+                words.position((int) (offset - regionStart));
+                words.limit((int) (offset - regionStart + index.get(e + 7) * Long.BYTES));
+
+                if(kind == CLOSED) {
+                    store.shard(seriesId).restore(blockStart, seriesId,
+                            new BufferBlock(words, Block.Tier.MAPPED, firstTimestamp, lastTimestamp, count, minValue,
+                                    maxValue));
+                } else if(kind == OPEN) {
+                    long[] data = new long[(int) index.get(e + 7)];
+                    words.slice().asLongBuffer().get(data);
+                    ByteBuffer state = region.duplicate();
+                    state.position(words.limit());
+                    state.limit(words.limit() + (int) index.get(e + 9));
+                    OpenBlock open = OpenBlock.restore(data, index.get(e + 8), state.slice(),
+                            store.getPredictorSupplier().get(), firstTimestamp, lastTimestamp, count, minValue,
+                            maxValue);
+                    store.shard(seriesId).restore(seriesId, blockStart, lastTimestamp, open);
+                } else {
+                    throw new IOException("Unknown entry kind " + kind + " in " + path);
+                }
+                loaded++;
+            }
+            return loaded;
+        }
+    }
+
+    private static int align(int bytes) {
+        return (bytes + Long.BYTES - 1) & ~(Long.BYTES - 1);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + Long.BYTES - 1) & ~(Long.BYTES - 1);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Collects buffers and writes them to the channel with a single gathering write. Long arrays are copied to a
+     * staging buffer, which is reused once the buffers referring to it have been written.
+     */
+    private static class Gatherer {
+        private static final int MAX_BYTES = 8 * 1024 * 1024;
+
+        private final FileChannel channel;
+        private final ByteBuffer[] buffers = new ByteBuffer[MAX_GATHER];
+        private final ByteBuffer staging = ByteBuffer.allocateDirect(MAX_BYTES);
+        private int size = 0;
+        private long pending = 0;
+        private long position = 0;
+
+        Gatherer(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void add(ByteBuffer buffer) throws IOException {
+            buffers[size++] = buffer;
+            pending += buffer.remaining();
+            position += buffer.remaining();
+            if(size == buffers.length || pending >= MAX_BYTES) {
+                flush();
+            }
+        }
+
+        void add(long[] words) throws IOException {
+            int offset = 0;
+            while(offset < words.length) {
+                if(staging.remaining() < Long.BYTES) {
+                    flush();
+                }
+                int length = Math.min(words.length - offset, staging.remaining() / Long.BYTES);
+                ByteBuffer chunk = staging.slice();
+                chunk.limit(length * Long.BYTES);
+                chunk.asLongBuffer().put(words, offset, length);
+                staging.position(staging.position() + chunk.limit());
+                offset += length;
+                add(chunk);
+            }
+        }
+
+        void flush() throws IOException {
+            long written = 0;
+            while(written < pending) {
+                written += channel.write(buffers, 0, size);
+            }
+            for(int i = 0; i < size; i++) {
+                buffers[i] = null;
+            }
+            size = 0;
+            pending = 0;
+            staging.clear();
+        }
+
+        /**
+         * @return Position of the next buffer in the file
+         */
+        long getPosition() {
+            return position;
+        }
+    }
+}
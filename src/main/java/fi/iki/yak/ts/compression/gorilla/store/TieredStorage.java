@@ -0,0 +1,242 @@
+package fi.iki.yak.ts.compression.gorilla.store;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fi.iki.yak.ts.compression.gorilla.Block;
+import fi.iki.yak.ts.compression.gorilla.BufferBlock;
+
+/**
+ * Moves the closed blocks of a SeriesStore between storage tiers by their age. Blocks start on the heap, are moved
+ * off-heap once their window has ended more than the off-heap age ago and to memory mapped files once it has ended
+ * more than the mapped age ago. Each demotion to the mapped tier writes the blocks of a window to a new block file.
+ *
+ * A block read by {@link SeriesStore#query} that is not on the heap is promoted back to the heap, and is not demoted
+ * again before it has gone unread for the off-heap age. All the tiers are decompressed the same way, only the input
+ * reading the words differs.
+ *
+ * @author Michael Burman
+ */
+public class TieredStorage {
+    private final SeriesStore store;
+    private final Path directory;
+    private final long offHeapAge;
+    private final long mappedAge;
+
+    private final Map<Block, Long> promoted = new ConcurrentHashMap<>();
+    private final AtomicLong fileSequence = new AtomicLong();
+    private final AtomicLong demotions = new AtomicLong();
+    private final AtomicLong promotions = new AtomicLong();
+
+    /**
+     * Creates the tiering for the store and starts promoting the blocks read from it
+     *
+     * @param store Store to manage
+     * @param directory Directory for the mapped block files, created if it does not exist
+     * @param offHeapAge Milliseconds after the end of a window before its blocks are moved off-heap
+     * @param mappedAge Milliseconds after the end of a window before its blocks are moved to a mapped file
+     * @throws IOException If the directory could not be created
+     */
+    public TieredStorage(SeriesStore store, Path directory, long offHeapAge, long mappedAge) throws IOException {
+        if(offHeapAge < 0 || mappedAge < offHeapAge) {
+            throw new IllegalArgumentException("Ages must not be negative and the mapped age must not be less than " +
+                    "the off-heap age");
+        }
+        this.store = store;
+        this.directory = directory;
+        this.offHeapAge = offHeapAge;
+        this.mappedAge = mappedAge;
+        Files.createDirectories(directory);
+        store.setTieredStorage(this);
+    }
+
+    /**
+     * Moves the blocks that have reached the age of a lower tier
+     *
+     * @param now Current time in milliseconds
+     * @return Amount of blocks moved
+     * @throws IOException If a block file could not be written
+     */
+    public int demote(long now) throws IOException {
+        // Promoted blocks that have not been read for a while are demoted like the rest
+        promoted.values().removeIf(accessed -> accessed <= now - offHeapAge);
+
+        int moved = 0;
+        for(Shard shard : store.shards()) {
+            for(long start : shard.partitionsBefore(now - offHeapAge)) {
+                boolean mapped = start + store.getBlockSize() <= now - mappedAge;
+                // The copied blocks are read outside the shard lock, keep them from being reused if they expire
+                int epoch = store.reclaimer().enter();
+                try {
+                    moved += mapped ? demoteToFile(shard, start, now) : demoteOffHeap(shard, start, now);
+                } finally {
+                    store.reclaimer().exit(epoch);
+                }
+            }
+        }
+        demotions.addAndGet(moved);
+        deleteExpiredFiles();
+        return moved;
+    }
+
+    /**
+     * Deletes the block files of the windows that have been expired from the store
+     */
+    private void deleteExpiredFiles() throws IOException {
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(directory, "tier-*.blocks")) {
+            for(Path file : files) {
+                String name = file.getFileName().toString();
+                long start;
+                try {
+                    start = Long.parseLong(name.substring(5, name.lastIndexOf('-')));
+                } catch(NumberFormatException | StringIndexOutOfBoundsException e) {
+                    continue;
+                }
+                if(!hasPartition(start)) {
+                    try {
+                        // The mapping stays valid until the reader is collected
+                        Files.deleteIfExists(file);
+                    } catch(IOException e) {
+                        // Platforms that do not allow deleting mapped files, retried on the next run
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean hasPartition(long start) {
+        for(Shard shard : store.shards()) {
+            if(shard.hasPartition(start)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the demotion periodically with the system clock
+     *
+     * @param executor Executor to run the demotion on
+     * @param period Time between the runs
+     * @param unit Unit of the period
+     * @return Future for cancelling the scheduled runs
+     */
+    public ScheduledFuture<?> schedule(ScheduledExecutorService executor, long period, TimeUnit unit) {
+        return executor.scheduleWithFixedDelay(() -> {
+            try {
+                demote(System.currentTimeMillis());
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, period, period, unit);
+    }
+
+    public long getDemotionCount() {
+        return demotions.get();
+    }
+
+    public long getPromotionCount() {
+        return promotions.get();
+    }
+
+    /**
+     * Called by the store when a closed block is read
+     *
+     * @return The block to read, the heap copy if the block was promoted
+     */
+    Block accessed(long seriesId, Block block) {
+        if(block.getTier() == Block.Tier.HEAP) {
+            promoted.computeIfPresent(block, (b, t) -> System.currentTimeMillis());
+            return block;
+        }
+        Block heap = new Block(block.getLongArray(), block.getFirstTimestamp(), block.getLastTimestamp(),
+                block.getCount(), block.getMinValue(), block.getMaxValue());
+        if(store.shard(seriesId).replace(block.getBlockTimestamp(), seriesId, block, heap)) {
+            promoted.put(heap, System.currentTimeMillis());
+            promotions.incrementAndGet();
+        }
+        return heap;
+    }
+
+    private boolean recentlyRead(Block block, long now) {
+        Long accessed = promoted.get(block);
+        return accessed != null && accessed > now - offHeapAge;
+    }
+
+    private int demoteOffHeap(Shard shard, long start, long now) {
+        int moved = 0;
+        for(Map.Entry<Long, Block[]> entry : shard.copyBlocks(start).entrySet()) {
+            for(Block block : entry.getValue()) {
+                if(block.getTier() != Block.Tier.HEAP || recentlyRead(block, now)) {
+                    continue;
+                }
+                if(shard.replace(start, entry.getKey(), block, BufferBlock.allocateDirect(block))) {
+                    promoted.remove(block);
+                    moved++;
+                }
+            }
+        }
+        return moved;
+    }
+
+    private int demoteToFile(Shard shard, long start, long now) throws IOException {
+        Map<Long, Block[]> blocks = shard.copyBlocks(start);
+        Map<Long, List<Block>> demoted = new HashMap<>();
+        for(Map.Entry<Long, Block[]> entry : blocks.entrySet()) {
+            for(Block block : entry.getValue()) {
+                if(block.getTier() != Block.Tier.MAPPED && !recentlyRead(block, now)) {
+                    demoted.computeIfAbsent(entry.getKey(), id -> new ArrayList<>()).add(block);
+                }
+            }
+        }
+        if(demoted.isEmpty()) {
+            return 0;
+        }
+
+        Path file = directory.resolve(String.format("tier-%d-%d.blocks", start, fileSequence.incrementAndGet()));
+        try(BlockFileWriter writer = new BlockFileWriter(file)) {
+            for(Map.Entry<Long, List<Block>> entry : demoted.entrySet()) {
+                for(Block block : entry.getValue()) {
+                    writer.write(entry.getKey(), block);
+                }
+            }
+        }
+        BlockFileReader reader = BlockFileReader.open(file);
+
+        int moved = 0;
+        for(Map.Entry<Long, List<Block>> entry : demoted.entrySet()) {
+            List<Block> mapped = reader.getMappedBlocks(entry.getKey(), Long.MIN_VALUE, Long.MAX_VALUE);
+            for(Block block : entry.getValue()) {
+                Block replacement = find(mapped, block);
+                if(replacement != null && shard.replace(start, entry.getKey(), block, replacement)) {
+                    promoted.remove(block);
+                    moved++;
+                }
+            }
+        }
+        return moved;
+    }
+
+    private static Block find(List<Block> mapped, Block block) {
+        for(Block candidate : mapped) {
+            if(candidate.getFirstTimestamp() == block.getFirstTimestamp() &&
+                    candidate.getLastTimestamp() == block.getLastTimestamp() &&
+                    candidate.getCount() == block.getCount()) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+}
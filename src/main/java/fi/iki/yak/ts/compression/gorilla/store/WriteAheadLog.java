@@ -0,0 +1,474 @@
+package fi.iki.yak.ts.compression.gorilla.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log for the points of the open blocks. The points are appended to segment files in batches, each batch
+ * being written and synced by a single background thread (group commit). Concurrent appenders share the cost of one
+ * fsync.
+ *
+ * With a sync interval of zero, every append returns only once its point is synced to disk. With a positive
+ * interval, appends return immediately and the points are synced at most the interval later, so a crash can lose the
+ * points of the last interval.
+ *
+ * A batch is stored as the amount of points and a CRC32 of the points followed by the points as (seriesId,
+ * timestamp, value) longs. Replay stops at the first incomplete or corrupted batch of a segment.
+ *
+ * @author Michael Burman
+ */
+public class WriteAheadLog implements Closeable {
+    public static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final int RECORD_BYTES = 3 * Long.BYTES;
+    private static final int BATCH_HEADER_BYTES = 2 * Integer.BYTES;
+    private static final int MAX_PENDING_BYTES = 4 * 1024 * 1024;
+    private static final String PREFIX = "wal-";
+    private static final String SUFFIX = ".log";
+
+    /**
+     * Receives the replayed points one batch at a time. The arrays are only valid during the call.
+     */
+    @FunctionalInterface
+    public interface BatchConsumer {
+        void accept(long[] seriesIds, long[] timestamps, long[] values, int length);
+    }
+
+    private static class Segment {
+        final long id;
+        final Path path;
+        long maxTimestamp = Long.MIN_VALUE;
+
+        Segment(long id, Path path) {
+            this.id = id;
+            this.path = path;
+        }
+    }
+
+    private final Path directory;
+    private final long syncInterval;
+    private final long segmentSize;
+    private final Thread syncer;
+
+    // Guarded by lock
+    private final Object lock = new Object();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer spare = ByteBuffer.allocate(64 * 1024);
+    private long pendingMaxTimestamp = Long.MIN_VALUE;
+    private long appended = 0;
+    private long synced = 0;
+    private IOException failure;
+    private boolean closed = false;
+
+    // Only used by the syncer thread
+    private Segment current;
+    private FileChannel channel;
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Opens the log with a default segment size, syncing every append
+     *
+     * @param directory Directory of the segments, created if it does not exist
+     * @throws IOException If the directory or a segment could not be opened
+     */
+    public WriteAheadLog(Path directory) throws IOException {
+        this(directory, 0, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens the log. Existing segments are kept for replay and a new segment is started.
+     *
+     * @param directory Directory of the segments, created if it does not exist
+     * @param syncInterval Maximum time in milliseconds before an appended point is synced, zero to sync before
+     *                     returning from the append
+     * @param segmentSize Size in bytes after which a new segment is started
+     * @throws IOException If the directory or a segment could not be opened
+     */
+    public WriteAheadLog(Path directory, long syncInterval, long segmentSize) throws IOException {
+        if(syncInterval < 0) {
+            throw new IllegalArgumentException("Sync interval must not be negative");
+        }
+        if(segmentSize <= 0) {
+            throw new IllegalArgumentException("Segment size must be positive");
+        }
+        this.directory = directory;
+        this.syncInterval = syncInterval;
+        this.segmentSize = segmentSize;
+
+        Files.createDirectories(directory);
+        for(Segment segment : listSegments(directory)) {
+            readSegment(segment.path, (ids, timestamps, values, length) -> {
+                for(int i = 0; i < length; i++) {
+                    segment.maxTimestamp = Math.max(segment.maxTimestamp, timestamps[i]);
+                }
+            });
+            segments.put(segment.id, segment);
+        }
+        openSegment(segments.isEmpty() ? 0 : segments.lastKey() + 1);
+
+        syncer = new Thread(this::runSyncer, "gorilla-wal-" + directory.getFileName());
+        syncer.setDaemon(true);
+        syncer.start();
+    }
+
+    /**
+     * Appends a point to the log. Blocks until the point is synced if the sync interval is zero.
+     *
+     * @param seriesId Id of the series
+     * @param timestamp Timestamp in milliseconds
+     * @param value Long value or bits of a double
+     * @throws IOException If the log has failed
+     */
+    public void append(long seriesId, long timestamp, long value) throws IOException {
+        long sequence;
+        synchronized(lock) {
+            awaitCapacity(RECORD_BYTES);
+            pending.putLong(seriesId).putLong(timestamp).putLong(value);
+            pendingMaxTimestamp = Math.max(pendingMaxTimestamp, timestamp);
+            sequence = ++appended;
+            lock.notifyAll();
+        }
+        if(syncInterval == 0) {
+            await(sequence);
+        }
+    }
+
+    /**
+     * Appends a batch of points to the log. Blocks until the points are synced if the sync interval is zero.
+     *
+     * @param seriesIds Ids of the series
+     * @param timestamps Timestamps in milliseconds
+     * @param values Long values or bits of doubles
+     * @param length Amount of points in the arrays
+     * @throws IOException If the log has failed
+     */
+    public void append(long[] seriesIds, long[] timestamps, long[] values, int length) throws IOException {
+        long sequence = 0;
+        int i = 0;
+        while(i < length) {
+            synchronized(lock) {
+                awaitCapacity(RECORD_BYTES);
+                for(; i < length && pending.remaining() >= RECORD_BYTES; i++) {
+                    pending.putLong(seriesIds[i]).putLong(timestamps[i]).putLong(values[i]);
+                    pendingMaxTimestamp = Math.max(pendingMaxTimestamp, timestamps[i]);
+                }
+                sequence = ++appended;
+                lock.notifyAll();
+            }
+        }
+        if(syncInterval == 0 && length > 0) {
+            await(sequence);
+        }
+    }
+
+    /**
+     * Blocks until all the points appended so far are synced
+     *
+     * @throws IOException If the log has failed
+     */
+    public void sync() throws IOException {
+        long sequence;
+        synchronized(lock) {
+            sequence = appended;
+        }
+        await(sequence);
+    }
+
+    /**
+     * Deletes the segments that only have points older than the given timestamp. Call this once the blocks of those
+     * points have been persisted, for example with {@link BlockFileWriter}. The segment being written is never
+     * deleted.
+     *
+     * @param timestamp Timestamp before which all the points have been persisted
+     * @return Amount of segments deleted
+     * @throws IOException If a segment could not be deleted
+     */
+    public int truncate(long timestamp) throws IOException {
+        List<Segment> deleted = new ArrayList<>();
+        synchronized(lock) {
+            Iterator<Map.Entry<Long, Segment>> iterator = segments.entrySet().iterator();
+            while(iterator.hasNext()) {
+                Segment segment = iterator.next().getValue();
+                if(segment.id != segments.lastKey() && segment.maxTimestamp < timestamp) {
+                    iterator.remove();
+                    deleted.add(segment);
+                }
+            }
+        }
+        for(Segment segment : deleted) {
+            Files.deleteIfExists(segment.path);
+        }
+        return deleted.size();
+    }
+
+    /**
+     * @return Amount of segments in the log, including the one being written
+     */
+    public int getSegmentCount() {
+        synchronized(lock) {
+            return segments.size();
+        }
+    }
+
+    /**
+     * Syncs the pending points and closes the log
+     *
+     * @throws IOException If the pending points could not be synced
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized(lock) {
+            if(closed) {
+                return;
+            }
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            syncer.join();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing the write-ahead log");
+        }
+        synchronized(lock) {
+            if(failure != null) {
+                throw new IOException("Write-ahead log has failed", failure);
+            }
+        }
+    }
+
+    /**
+     * Reads all the segments of the directory in order
+     *
+     * @param directory Directory of the segments
+     * @param consumer Receives the points in batches, in the order they were appended
+     * @return Amount of points replayed
+     * @throws IOException If a segment could not be read
+     */
+    public static long replay(Path directory, BatchConsumer consumer) throws IOException {
+        long replayed = 0;
+        if(Files.isDirectory(directory)) {
+            for(Segment segment : listSegments(directory)) {
+                replayed += readSegment(segment.path, consumer);
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * Appends all the points of the log to the store. The store must not have newer points of the same series.
+     *
+     * @param directory Directory of the segments
+     * @param store Store to add the points to
+     * @return Amount of points replayed
+     * @throws IOException If a segment could not be read
+     */
+    public static long replay(Path directory, SeriesStore store) throws IOException {
+        return replay(directory, store::append);
+    }
+
+    private void awaitCapacity(int bytes) throws IOException {
+        while(pending.position() + bytes > MAX_PENDING_BYTES && failure == null && !closed) {
+            waitLock();
+        }
+        checkState();
+        if(pending.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.min(pending.capacity() * 2, MAX_PENDING_BYTES));
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+    }
+
+    private void await(long sequence) throws IOException {
+        synchronized(lock) {
+            while(synced < sequence && failure == null) {
+                waitLock();
+            }
+            if(failure != null) {
+                throw new IOException("Write-ahead log has failed", failure);
+            }
+        }
+    }
+
+    private void checkState() throws IOException {
+        if(failure != null) {
+            throw new IOException("Write-ahead log has failed", failure);
+        }
+        if(closed) {
+            throw new IllegalStateException("Write-ahead log is closed");
+        }
+    }
+
+    private void waitLock() throws InterruptedIOException {
+        try {
+            lock.wait();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the write-ahead log");
+        }
+    }
+
+    /**
+     * Main loop of the syncer thread, writes the pending points as a single batch and syncs them
+     */
+    private void runSyncer() {
+        try {
+            while(true) {
+                ByteBuffer batch;
+                long sequence;
+                long maxTimestamp;
+                synchronized(lock) {
+                    while(pending.position() == 0 && !closed) {
+                        lock.wait();
+                    }
+                    if(syncInterval > 0) {
+                        // Let the appenders fill the batch, they are not waiting for the sync. Every append wakes
+                        // us up, so wait until the deadline unless the log is closed or the batch is full.
+                        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(syncInterval);
+                        long remaining;
+                        while(!closed && pending.position() + RECORD_BYTES <= MAX_PENDING_BYTES
+                                && (remaining = deadline - System.nanoTime()) > 0) {
+                            TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                        }
+                    }
+                    if(pending.position() == 0) {
+                        break; // Closed
+                    }
+                    batch = pending;
+                    pending = spare;
+                    spare = batch;
+                    sequence = appended;
+                    maxTimestamp = pendingMaxTimestamp;
+                    pendingMaxTimestamp = Long.MIN_VALUE;
+                    lock.notifyAll();
+                }
+
+                write(batch, maxTimestamp);
+                batch.clear();
+
+                synchronized(lock) {
+                    synced = sequence;
+                    lock.notifyAll();
+                }
+            }
+            channel.close();
+        } catch(IOException | RuntimeException e) {
+            fail(e instanceof IOException ? (IOException) e : new IOException(e));
+        } catch(InterruptedException e) {
+            fail(new InterruptedIOException("Write-ahead log syncer was interrupted"));
+        }
+    }
+
+    private void fail(IOException e) {
+        synchronized(lock) {
+            failure = e;
+            lock.notifyAll();
+        }
+        try {
+            channel.close();
+        } catch(IOException suppressed) {
+            e.addSuppressed(suppressed);
+        }
+    }
+
+    private void write(ByteBuffer batch, long maxTimestamp) throws IOException {
+        batch.flip();
+        crc.reset();
+        crc.update(batch.array(), 0, batch.limit());
+
+        ByteBuffer header = ByteBuffer.allocate(BATCH_HEADER_BYTES);
+        header.putInt(batch.limit() / RECORD_BYTES).putInt((int) crc.getValue()).flip();
+        ByteBuffer[] buffers = { header, batch };
+        while(batch.hasRemaining()) {
+            channel.write(buffers);
+        }
+        channel.force(false);
+
+        synchronized(lock) {
+            current.maxTimestamp = Math.max(current.maxTimestamp, maxTimestamp);
+        }
+        if(channel.size() >= segmentSize) {
+            channel.close();
+            openSegment(current.id + 1);
+        }
+    }
+
+    private void openSegment(long id) throws IOException {
+        Segment segment = new Segment(id, directory.resolve(String.format("%s%020d%s", PREFIX, id, SUFFIX)));
+        channel = FileChannel.open(segment.path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        current = segment;
+        synchronized(lock) {
+            segments.put(id, segment);
+        }
+    }
+
+    private static List<Segment> listSegments(Path directory) throws IOException {
+        TreeMap<Long, Segment> segments = new TreeMap<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for(Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    long id = Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+                    segments.put(id, new Segment(id, path));
+                } catch(NumberFormatException e) {
+                    // Not a segment of this log
+                }
+            }
+        }
+        return new ArrayList<>(segments.values());
+    }
+
+    /**
+     * @return Amount of points read from the segment
+     */
+    private static long readSegment(Path path, BatchConsumer consumer) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        CRC32 crc = new CRC32();
+        long read = 0;
+        long[] seriesIds = new long[0];
+        long[] timestamps = new long[0];
+        long[] values = new long[0];
+
+        while(buffer.remaining() >= BATCH_HEADER_BYTES) {
+            int count = buffer.getInt();
+            int checksum = buffer.getInt();
+            if(count <= 0 || (long) count * RECORD_BYTES > buffer.remaining()) {
+                break; // Incomplete batch, the log was not synced
+            }
+            crc.reset();
+            crc.update(buffer.array(), buffer.position(), count * RECORD_BYTES);
+            if((int) crc.getValue() != checksum) {
+                break;
+            }
+            if(seriesIds.length < count) {
+                seriesIds = new long[count];
+                timestamps = new long[count];
+                values = new long[count];
+            }
+            for(int i = 0; i < count; i++) {
+                seriesIds[i] = buffer.getLong();
+                timestamps[i] = buffer.getLong();
+                values[i] = buffer.getLong();
+            }
+            consumer.accept(seriesIds, timestamps, values, count);
+            read += count;
+        }
+        return read;
+    }
+}
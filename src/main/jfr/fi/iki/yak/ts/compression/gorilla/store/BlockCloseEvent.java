@@ -0,0 +1,48 @@
+package fi.iki.yak.ts.compression.gorilla.store;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timestamp;
+
+/**
+ * Flight Recorder event for closing the open block of a series, the duration covers writing the end marker and
+ * trimming the array.
+ *
+ * @author Michael Burman
+ */
+@Name("fi.iki.yak.gorilla.BlockClose")
+@Label("Block Close")
+@Category("Gorilla")
+@Description("The open block of a series was closed")
+@StackTrace(false)
+class BlockCloseEvent extends jdk.jfr.Event implements BlockEvents.Close {
+    @Label("Series Id")
+    long seriesId;
+
+    @Label("Block Start")
+    @Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+    long blockStart;
+
+    @Label("Points")
+    int points;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+    @Override
+    public void complete(long seriesId, long blockStart, int points, long bytes) {
+        end();
+        if(shouldCommit()) {
+            this.seriesId = seriesId;
+            this.blockStart = blockStart;
+            this.points = points;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package fi.iki.yak.ts.compression.gorilla.store;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timestamp;
+
+/**
+ * Flight Recorder event for decompressing a block of a series in a query. Blocks served from the
+ * {@link fi.iki.yak.ts.compression.gorilla.BlockCache} are included.
+ *
+ * @author Michael Burman
+ */
+@Name("fi.iki.yak.gorilla.BlockDecode")
+@Label("Block Decode")
+@Category("Gorilla")
+@Description("A block was read by a query")
+@StackTrace(false)
+class BlockDecodeEvent extends jdk.jfr.Event implements BlockEvents.Decode {
+    @Label("Series Id")
+    long seriesId;
+
+    @Label("Block Start")
+    @Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+    long blockStart;
+
+    @Label("Points")
+    @Description("Points inside the queried range")
+    int points;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Open")
+    @Description("The block was the open block of the series")
+    boolean open;
+
+    @Override
+    public void complete(long seriesId, long blockStart, int points, long bytes, boolean open) {
+        end();
+        if(shouldCommit()) {
+            this.seriesId = seriesId;
+            this.blockStart = blockStart;
+            this.points = points;
+            this.bytes = bytes;
+            this.open = open;
+            commit();
+        }
+    }
+}
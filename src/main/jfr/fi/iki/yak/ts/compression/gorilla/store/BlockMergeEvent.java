@@ -0,0 +1,52 @@
+package fi.iki.yak.ts.compression.gorilla.store;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timestamp;
+
+/**
+ * Flight Recorder event for merging the blocks of a series in a partition by the {@link Compactor}.
+ *
+ * @author Michael Burman
+ */
+@Name("fi.iki.yak.gorilla.BlockMerge")
+@Label("Block Merge")
+@Category("Gorilla")
+@Description("Blocks of a series were merged into one")
+@StackTrace(false)
+class BlockMergeEvent extends jdk.jfr.Event implements BlockEvents.Merge {
+    @Label("Series Id")
+    long seriesId;
+
+    @Label("Block Start")
+    @Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+    long blockStart;
+
+    @Label("Input Blocks")
+    int blocks;
+
+    @Label("Points")
+    int points;
+
+    @Label("Size")
+    @Description("Size of the merged block")
+    @DataAmount
+    long bytes;
+
+    @Override
+    public void complete(long seriesId, long blockStart, int blocks, int points, long bytes) {
+        end();
+        if(shouldCommit()) {
+            this.seriesId = seriesId;
+            this.blockStart = blockStart;
+            this.blocks = blocks;
+            this.points = points;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
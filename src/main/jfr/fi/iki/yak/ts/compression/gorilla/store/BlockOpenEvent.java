@@ -0,0 +1,37 @@
+package fi.iki.yak.ts.compression.gorilla.store;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timestamp;
+
+/**
+ * Flight Recorder event for opening a new block of a series.
+ *
+ * @author Michael Burman
+ */
+@Name("fi.iki.yak.gorilla.BlockOpen")
+@Label("Block Open")
+@Category("Gorilla")
+@Description("A new block was opened for a series")
+@StackTrace(false)
+class BlockOpenEvent extends jdk.jfr.Event implements BlockEvents.Open {
+    @Label("Series Id")
+    long seriesId;
+
+    @Label("Block Start")
+    @Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+    long blockStart;
+
+    @Override
+    public void complete(long seriesId, long blockStart) {
+        end();
+        if(shouldCommit()) {
+            this.seriesId = seriesId;
+            this.blockStart = blockStart;
+            commit();
+        }
+    }
+}
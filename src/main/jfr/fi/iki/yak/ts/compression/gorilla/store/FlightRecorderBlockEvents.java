@@ -0,0 +1,56 @@
+package fi.iki.yak.ts.compression.gorilla.store;
+
+import jdk.jfr.EventType;
+
+/**
+ * Flight Recorder implementation of the block events, loaded by {@link BlockEvents}. The event types are checked
+ * before creating an event, so that nothing is allocated while no recording enables them.
+ *
+ * @author Michael Burman
+ */
+final class FlightRecorderBlockEvents extends BlockEvents {
+    private final EventType openType = EventType.getEventType(BlockOpenEvent.class);
+    private final EventType closeType = EventType.getEventType(BlockCloseEvent.class);
+    private final EventType decodeType = EventType.getEventType(BlockDecodeEvent.class);
+    private final EventType mergeType = EventType.getEventType(BlockMergeEvent.class);
+
+    @Override
+    Open beginOpen() {
+        if(!openType.isEnabled()) {
+            return null;
+        }
+        BlockOpenEvent event = new BlockOpenEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    Close beginClose() {
+        if(!closeType.isEnabled()) {
+            return null;
+        }
+        BlockCloseEvent event = new BlockCloseEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    Decode beginDecode() {
+        if(!decodeType.isEnabled()) {
+            return null;
+        }
+        BlockDecodeEvent event = new BlockDecodeEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    Merge beginMerge() {
+        if(!mergeType.isEnabled()) {
+            return null;
+        }
+        BlockMergeEvent event = new BlockMergeEvent();
+        event.begin();
+        return event;
+    }
+}
@@ -0,0 +1,230 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import fi.iki.yak.ts.compression.gorilla.predictors.DifferentialFCM;
+import fi.iki.yak.ts.compression.gorilla.predictors.LastValuePredictor;
+
+/**
+ * Guards the per point paths against allocation regressions. Every BitOutput, BitInput and predictor combination is
+ * run through the generic codecs and through the factories, and the specialized codecs are also run directly. Each is
+ * run until the JIT has compiled it and then the bytes allocated by the thread during one more run are measured. The
+ * buffers are sized up front, so growing them is not counted.
+ *
+ * @author Michael Burman
+ */
+public class AllocationTest {
+
+    private static final int POINTS = 20000;
+    private static final int WARMUP = 30;
+    // Covers the measurement itself, a single allocation per point would exceed it many times over
+    private static final long TOLERANCE = 256;
+
+    private static final com.sun.management.ThreadMXBean THREADS;
+
+    static {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        THREADS = bean instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) bean : null;
+    }
+
+    private static final long BLOCK_TIMESTAMP = 1500400800000L;
+    private static final long[] timestamps = new long[POINTS];
+    private static final long[] values = new long[POINTS];
+
+    @BeforeAll
+    static void generate() {
+        Random random = new Random(11);
+        long timestamp = BLOCK_TIMESTAMP;
+        double value = 100;
+        for(int i = 0; i < POINTS; i++) {
+            // Jitter and occasional gaps take every timestamp case, the random walk every value case
+            int r = random.nextInt(100);
+            timestamp += 10000 + (r < 80 ? 0 : r < 95 ? random.nextInt(100) : random.nextInt(100000));
+            if(random.nextBoolean()) {
+                value += random.nextGaussian();
+            }
+            timestamps[i] = timestamp;
+            values[i] = Double.doubleToRawLongBits(value);
+        }
+    }
+
+    private static long allocated() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Runs the setup and the measured part WARMUP times and asserts the last run of the measured part did not
+     * allocate
+     */
+    private static <T> void assertNoAllocation(String name, Supplier<T> setup, Consumer<T> run) {
+        assumeTrue(THREADS != null && THREADS.isThreadAllocatedMemorySupported());
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+
+        long bytes = 0;
+        for(int i = 0; i < WARMUP; i++) {
+            T t = setup.get();
+            long before = allocated();
+            run.accept(t);
+            bytes = allocated() - before;
+        }
+        assertTrue(bytes <= TOLERANCE, name + " allocated " + bytes + " bytes for " + POINTS + " points");
+    }
+
+    private static List<Supplier<Predictor>> predictors() {
+        return Arrays.asList(LastValuePredictor::new, () -> new DifferentialFCM(1024));
+    }
+
+    private static List<Supplier<BitOutput>> outputs() {
+        // Large enough for the points, the values take at most 64 + 14 bits and the timestamps 36 bits
+        int words = POINTS * 2 + 16;
+        return Arrays.asList(
+                () -> new LongArrayOutput(words),
+                () -> new ConcurrentLongArrayOutput(words),
+                () -> new BoundedLongArrayOutput(new long[words]),
+                () -> new ByteBufferBitOutput(words * Long.BYTES));
+    }
+
+    private static List<Supplier<BitInput>> inputs(long[] data) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length * Long.BYTES);
+        buffer.asLongBuffer().put(data);
+        return Arrays.asList(
+                () -> new LongArrayInput(data),
+                () -> new ByteBufferLongInput(buffer.duplicate()),
+                // Big-endian longs have the same bit order as the byte stream
+                () -> new ByteBufferBitInput(buffer.duplicate()));
+    }
+
+    /**
+     * The generic compressor and the factory, which selects the specialized compressor where it can while
+     * CompressionStats are disabled
+     */
+    private static List<BiFunction<BitOutput, Predictor, AbstractGorillaCompressor>> compressors() {
+        return Arrays.asList(
+                (output, predictor) -> new GorillaCompressor(BLOCK_TIMESTAMP, output, predictor),
+                (output, predictor) -> GorillaCompressor.create(BLOCK_TIMESTAMP, output, predictor));
+    }
+
+    private static List<BiFunction<BitInput, Predictor, AbstractGorillaDecompressor>> decompressors() {
+        return Arrays.asList(GorillaDecompressor::new, GorillaDecompressor::create);
+    }
+
+    private static void compress(AbstractGorillaCompressor c) {
+        for(int i = 0; i < POINTS; i++) {
+            c.addValue(timestamps[i], values[i]);
+        }
+        c.close();
+    }
+
+    private static void decompress(AbstractGorillaDecompressor d) {
+        int count = 0;
+        long xor = 0;
+        while(d.next()) {
+            xor ^= d.getTimestamp() ^ d.getLongValue();
+            count++;
+        }
+        assertEquals(POINTS, count);
+        assertTrue(xor != 0);
+    }
+
+    private static long[] encode(Predictor predictor) {
+        LongArrayOutput output = new LongArrayOutput();
+        compress(new GorillaCompressor(BLOCK_TIMESTAMP, output, predictor));
+        return output.getLongArray();
+    }
+
+    @Test
+    void testBitOutputs() throws Exception {
+        for(Supplier<BitOutput> output : outputs()) {
+            assertNoAllocation(output.get().getClass().getSimpleName(), output, out -> {
+                for(int i = 0; i < POINTS; i++) {
+                    out.writeBits(values[i], 1 + (i & 63));
+                    out.writeBit();
+                    out.skipBit();
+                }
+            });
+        }
+    }
+
+    @Test
+    void testBitInputs() throws Exception {
+        long[] data = new long[POINTS * 2];
+        for(int i = 0; i < POINTS; i++) {
+            data[i] = values[i];
+        }
+        for(Supplier<BitInput> input : inputs(data)) {
+            assertNoAllocation(input.get().getClass().getSimpleName(), input, in -> {
+                long sum = 0;
+                for(int i = 0; i < POINTS; i++) {
+                    sum += in.getLong(1 + (i & 63));
+                    sum += in.readBit() ? 1 : 0;
+                    sum += in.nextClearBit(4);
+                }
+                assertTrue(sum != 0);
+            });
+        }
+    }
+
+    @Test
+    void testAddValue() throws Exception {
+        for(BiFunction<BitOutput, Predictor, AbstractGorillaCompressor> compressor : compressors()) {
+            for(Supplier<Predictor> predictor : predictors()) {
+                for(Supplier<BitOutput> output : outputs()) {
+                    String name = compressor.apply(output.get(), predictor.get()).getClass().getSimpleName() +
+                            " for " + predictor.get().getClass().getSimpleName() + " with " +
+                            output.get().getClass().getSimpleName();
+                    assertNoAllocation(name, () -> compressor.apply(output.get(), predictor.get()),
+                            AllocationTest::compress);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testNext() throws Exception {
+        for(BiFunction<BitInput, Predictor, AbstractGorillaDecompressor> decompressor : decompressors()) {
+            for(Supplier<Predictor> predictor : predictors()) {
+                long[] data = encode(predictor.get());
+                for(Supplier<BitInput> input : inputs(data)) {
+                    String name = decompressor.apply(input.get(), predictor.get()).getClass().getSimpleName() +
+                            " for " + predictor.get().getClass().getSimpleName() + " with " +
+                            input.get().getClass().getSimpleName();
+                    assertNoAllocation(name, () -> decompressor.apply(input.get(), predictor.get()),
+                            AllocationTest::decompress);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testAddValueSpecialized() throws Exception {
+        int words = POINTS * 2 + 16;
+        List<Supplier<LongArrayOutput>> outputs = Arrays.asList(
+                () -> new LongArrayOutput(words),
+                () -> new ConcurrentLongArrayOutput(words));
+        for(Supplier<LongArrayOutput> output : outputs) {
+            assertNoAllocation("LongArrayGorillaCompressor with " + output.get().getClass().getSimpleName(),
+                    () -> new LongArrayGorillaCompressor(BLOCK_TIMESTAMP, output.get()), AllocationTest::compress);
+        }
+    }
+
+    @Test
+    void testNextSpecialized() throws Exception {
+        long[] data = encode(new LastValuePredictor());
+        assertNoAllocation("LongArrayGorillaDecompressor",
+                () -> new LongArrayGorillaDecompressor(new LongArrayInput(data)), AllocationTest::decompress);
+    }
+}
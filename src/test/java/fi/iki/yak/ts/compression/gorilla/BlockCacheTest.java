@@ -0,0 +1,90 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+
+import org.junit.jupiter.api.Test;
+
+import fi.iki.yak.ts.compression.gorilla.predictors.DifferentialFCM;
+
+/**
+ * Tests the cache of decompressed blocks and its eviction.
+ *
+ * @author Michael Burman
+ */
+public class BlockCacheTest {
+
+    private static final int POINTS = 1000;
+
+    private Block createBlock(long blockStart) {
+        LongArrayOutput output = new LongArrayOutput();
+        GorillaCompressor c = new GorillaCompressor(blockStart, output, new DifferentialFCM(64));
+        for(int i = 0; i < POINTS; i++) {
+            c.addValue(blockStart + i * 10, (double) i);
+        }
+        c.close();
+        return new Block(output.getLongArray(), blockStart, blockStart + (POINTS - 1) * 10, POINTS);
+    }
+
+    private void cacheAndEvict(boolean offHeap) {
+        long blockStart = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS).toInstant(ZoneOffset.UTC).toEpochMilli();
+        Block first = createBlock(blockStart);
+        Block second = createBlock(blockStart + POINTS * 10);
+        Block third = createBlock(blockStart + 2 * POINTS * 10);
+
+        // Fits two blocks
+        BlockCache cache = new BlockCache(2 * (16 * POINTS + 128), offHeap, () -> new DifferentialFCM(64));
+
+        for(int round = 0; round < 2; round++) {
+            DataPoints points = new DataPoints();
+            assertEquals(100, cache.read(first, blockStart + 100, blockStart + 1099, points));
+            assertEquals(100, points.size());
+            for(int i = 0; i < points.size(); i++) {
+                assertEquals(blockStart + 100 + i * 10, points.getTimestamp(i));
+                assertEquals(10.0 + i, points.getDoubleValue(i));
+            }
+
+            double[] sum = new double[1];
+            assertEquals(POINTS, cache.read(first, Long.MIN_VALUE, Long.MAX_VALUE,
+                    (t, v) -> sum[0] += Double.longBitsToDouble(v)));
+            assertEquals(POINTS * (POINTS - 1) / 2.0, sum[0]);
+        }
+        assertEquals(1, cache.getMissCount());
+        assertEquals(3, cache.getHitCount());
+
+        assertEquals(POINTS, cache.get(second).size());
+        assertEquals(0, cache.read(second, blockStart, blockStart + 1, (t, v) -> {}));
+        assertEquals(2, cache.size());
+
+        // Reading the third block evicts the least recently used first block
+        cache.read(first, blockStart, blockStart, (t, v) -> {});
+        cache.read(second, blockStart + POINTS * 10, blockStart + POINTS * 10, (t, v) -> {});
+        assertEquals(POINTS, cache.get(third).size());
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2 * (16 * POINTS + 128), cache.getBytes());
+
+        long misses = cache.getMissCount();
+        cache.get(second);
+        assertEquals(misses, cache.getMissCount());
+        cache.get(first);
+        assertEquals(misses + 1, cache.getMissCount());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    void testHeapCache() throws Exception {
+        cacheAndEvict(false);
+    }
+
+    @Test
+    void testOffHeapCache() throws Exception {
+        cacheAndEvict(true);
+    }
+}
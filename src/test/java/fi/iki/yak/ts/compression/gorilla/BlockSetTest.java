@@ -0,0 +1,329 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.Spliterator;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import fi.iki.yak.ts.compression.gorilla.predictors.DifferentialFCM;
+import fi.iki.yak.ts.compression.gorilla.predictors.LastValuePredictor;
+
+/**
+ * Tests sequential and parallel scans over multiple blocks.
+ *
+ * @author Michael Burman
+ */
+public class BlockSetTest {
+
+    private static final long BLOCK_SIZE = TimeUnit.HOURS.toMillis(2);
+    private static final long INTERVAL = TimeUnit.SECONDS.toMillis(10);
+
+    private List<Block> createBlocks(long start, int amountOfBlocks) {
+        List<Block> blocks = new ArrayList<>();
+        long timestamp = start;
+        for(int b = 0; b < amountOfBlocks; b++) {
+            long blockStart = start + b * BLOCK_SIZE;
+            LongArrayOutput output = new LongArrayOutput();
+            GorillaCompressor c = new GorillaCompressor(blockStart, output, new DifferentialFCM(64));
+            long first = timestamp;
+            int count = 0;
+            for(; timestamp < blockStart + BLOCK_SIZE; timestamp += INTERVAL) {
+                c.addValue(timestamp, (double) (timestamp - start) / INTERVAL);
+                count++;
+            }
+            c.close();
+            blocks.add(new Block(output.getLongArray(), first, timestamp - INTERVAL, count));
+        }
+        Collections.shuffle(blocks);
+        return blocks;
+    }
+
+    private void assertRange(long start, long from, long to, DataPoints points) {
+        long expected = from;
+        for(int i = 0; i < points.size(); i++) {
+            assertEquals(expected, points.getTimestamp(i), "Timestamp did not match at point " + i);
+            assertEquals((double) (expected - start) / INTERVAL, points.getDoubleValue(i));
+            expected += INTERVAL;
+        }
+        assertEquals(to + INTERVAL, expected);
+    }
+
+    @Test
+    void testParallelScan() throws Exception {
+        long start = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).toInstant(ZoneOffset.UTC).toEpochMilli();
+        BlockSet set = new BlockSet(createBlocks(start, 84), () -> new DifferentialFCM(64));
+        assertEquals(84, set.size());
+        assertEquals(84 * BLOCK_SIZE / INTERVAL, set.getCount());
+
+        long from = start + BLOCK_SIZE / 2;
+        long to = start + 80 * BLOCK_SIZE + 100 * INTERVAL;
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            DataPoints points = new DataPoints();
+            set.scan(from, to, points, pool, 4);
+            assertRange(start, from, to, points);
+
+            // Reuse the output
+            set.scan(start, start + 5 * INTERVAL, points, pool, 4);
+            assertRange(start, start, start + 5 * INTERVAL, points);
+
+            set.scan(start - BLOCK_SIZE, start - 1, points, pool, 4);
+            assertEquals(0, points.size());
+        } finally {
+            pool.shutdown();
+        }
+
+        assertRange(start, start, start + 84 * BLOCK_SIZE - INTERVAL, set.scan(Long.MIN_VALUE, Long.MAX_VALUE));
+
+        DataPoints sequential = new DataPoints();
+        assertEquals((to - from) / INTERVAL + 1, set.scan(from, to, sequential));
+        assertRange(start, from, to, sequential);
+    }
+
+    @Test
+    void testOverlappingBlocksRejected() throws Exception {
+        long start = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).toInstant(ZoneOffset.UTC).toEpochMilli();
+        List<Block> blocks = createBlocks(start, 2);
+        blocks.addAll(createBlocks(start, 1));
+        assertThrows(IllegalArgumentException.class, () -> new BlockSet(blocks));
+    }
+
+    @Test
+    void testStreams() throws Exception {
+        long start = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).toInstant(ZoneOffset.UTC).toEpochMilli();
+        BlockSet set = new BlockSet(createBlocks(start, 12), () -> new DifferentialFCM(64));
+        long count = 12 * BLOCK_SIZE / INTERVAL;
+
+        Spliterator.OfLong spliterator = set.timestamps().spliterator();
+        assertEquals(count, spliterator.getExactSizeIfKnown());
+        Spliterator.OfLong prefix = spliterator.trySplit();
+        assertEquals(count, prefix.estimateSize() + spliterator.estimateSize());
+        long[] first = new long[1];
+        prefix.tryAdvance((long t) -> first[0] = t);
+        assertEquals(start, first[0]);
+
+        long[] timestamps = set.timestamps().parallel().toArray();
+        assertEquals(count, timestamps.length);
+        for(int i = 0; i < timestamps.length; i++) {
+            assertEquals(start + i * INTERVAL, timestamps[i]);
+        }
+
+        assertEquals((count - 1) * count / 2.0, set.doubleValues().parallel().sum());
+        assertEquals(count, set.longValues().count());
+        assertEquals(count / 2, set.stream().parallel()
+                .filter(p -> (p.getTimestamp() - start) / INTERVAL % 2 == 0)
+                .count());
+    }
+
+    private List<Block> summarize(List<Block> blocks) {
+        List<Block> summarized = new ArrayList<>();
+        for(Block block : blocks) {
+            summarized.add(Block.of(block.getLongArray(), new DifferentialFCM(64)));
+        }
+        return summarized;
+    }
+
+    /**
+     * Counts the tested pairs of the delegate, to tell which blocks were decompressed
+     */
+    private static class CountingPredicate implements PairPredicate {
+        private final PairPredicate delegate;
+        int tested = 0;
+
+        CountingPredicate(PairPredicate delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean test(long timestamp, long value) {
+            tested++;
+            return delegate.test(timestamp, value);
+        }
+
+        @Override
+        public boolean mayMatch(double minValue, double maxValue) {
+            return delegate.mayMatch(minValue, maxValue);
+        }
+    }
+
+    @Test
+    void testPredicates() throws Exception {
+        long one = Double.doubleToRawLongBits(1.0);
+        long nan = Double.doubleToRawLongBits(Double.NaN);
+
+        assertTrue(PairPredicate.doubleAbove(0.5).test(0, one));
+        assertFalse(PairPredicate.doubleAbove(1.0).test(0, one));
+        assertFalse(PairPredicate.doubleAbove(0.5).test(0, nan));
+        assertTrue(PairPredicate.doubleAbove(0.5).mayMatch(0.0, 1.0));
+        assertFalse(PairPredicate.doubleAbove(1.0).mayMatch(0.0, 1.0));
+
+        assertTrue(PairPredicate.doubleBelow(1.5).test(0, one));
+        assertFalse(PairPredicate.doubleBelow(1.0).test(0, one));
+        assertTrue(PairPredicate.doubleBelow(0.5).mayMatch(0.0, 1.0));
+        assertFalse(PairPredicate.doubleBelow(0.0).mayMatch(0.0, 1.0));
+
+        assertTrue(PairPredicate.doubleBetween(1.0, 1.0).test(0, one));
+        assertFalse(PairPredicate.doubleBetween(1.5, 2.0).test(0, one));
+        assertTrue(PairPredicate.doubleBetween(1.0, 2.0).mayMatch(0.0, 1.0));
+        assertFalse(PairPredicate.doubleBetween(1.5, 2.0).mayMatch(0.0, 1.0));
+
+        // Without a summary every block may match
+        assertTrue(((PairPredicate) (t, v) -> false).mayMatch(0.0, 1.0));
+    }
+
+    @Test
+    void testBlockValueRange() throws Exception {
+        long start = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).toInstant(ZoneOffset.UTC).toEpochMilli();
+        List<Block> blocks = createBlocks(start, 12);
+        int perBlock = (int) (BLOCK_SIZE / INTERVAL);
+
+        for(Block block : blocks) {
+            assertEquals(Double.NEGATIVE_INFINITY, block.getMinValue());
+            assertEquals(Double.POSITIVE_INFINITY, block.getMaxValue());
+        }
+        for(Block block : summarize(blocks)) {
+            double first = (double) (block.getFirstTimestamp() - start) / INTERVAL;
+            assertEquals(first, block.getMinValue());
+            assertEquals(first + perBlock - 1, block.getMaxValue());
+        }
+    }
+
+    @Test
+    void testFilterPushdown() throws Exception {
+        long start = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).toInstant(ZoneOffset.UTC).toEpochMilli();
+        List<Block> blocks = createBlocks(start, 12);
+        int perBlock = (int) (BLOCK_SIZE / INTERVAL);
+
+        // Values are the index of the point, only the last two blocks have values above the threshold
+        double threshold = 10.5 * perBlock + 0.5;
+        long from = start + BLOCK_SIZE;
+        long to = start + 11 * BLOCK_SIZE + 100 * INTERVAL;
+
+        CountingPredicate counting = new CountingPredicate(PairPredicate.doubleAbove(threshold));
+        DataPoints points = new DataPoints();
+        int matched = new BlockSet(summarize(blocks), () -> new DifferentialFCM(64)).filter(from, to, counting,
+                points);
+        assertRange(start, start + (long) Math.ceil(threshold) * INTERVAL, to, points);
+        assertEquals(points.size(), matched);
+        assertTrue(counting.tested <= 2 * perBlock, "Blocks below the threshold were decompressed");
+    }
+
+    @Test
+    void testFilterWithoutSummary() throws Exception {
+        long start = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).toInstant(ZoneOffset.UTC).toEpochMilli();
+        List<Block> blocks = createBlocks(start, 12);
+        int perBlock = (int) (BLOCK_SIZE / INTERVAL);
+
+        // Blocks without a value range are all decompressed, with the same result
+        double threshold = 10.5 * perBlock + 0.5;
+        long from = start + BLOCK_SIZE;
+        long to = start + 11 * BLOCK_SIZE + 100 * INTERVAL;
+
+        CountingPredicate counting = new CountingPredicate(PairPredicate.doubleAbove(threshold));
+        DataPoints points = new DataPoints();
+        int matched = new BlockSet(blocks, () -> new DifferentialFCM(64)).filter(from, to, counting, points);
+        assertRange(start, start + (long) Math.ceil(threshold) * INTERVAL, to, points);
+        assertEquals(points.size(), matched);
+        assertTrue(counting.tested > 2 * perBlock);
+    }
+
+    @Test
+    void testFilterBitmap() throws Exception {
+        long start = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).toInstant(ZoneOffset.UTC).toEpochMilli();
+        int perBlock = (int) (BLOCK_SIZE / INTERVAL);
+        Block block = createBlocks(start, 1).get(0);
+
+        // Read in chunks to a reused bitmap
+        GorillaDecompressor d = new GorillaDecompressor(block.getInput(), new DifferentialFCM(64));
+        long[] bitmap = new long[3];
+        BitSet actual = new BitSet();
+        int read = 0;
+        int chunk;
+        while((chunk = d.filter(PairPredicate.doubleBetween(0.25 * perBlock, 0.75 * perBlock), bitmap)) > 0) {
+            BitSet bits = BitSet.valueOf(bitmap);
+            for(int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+                actual.set(read + i);
+            }
+            read += chunk;
+        }
+        assertEquals(perBlock, read);
+
+        BitSet expected = new BitSet();
+        expected.set((int) Math.ceil(0.25 * perBlock), (int) (0.75 * perBlock) + 1);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void testFilterBitmapClearsAfterEnd() throws Exception {
+        long start = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).toInstant(ZoneOffset.UTC).toEpochMilli();
+        LongArrayOutput output = new LongArrayOutput();
+        GorillaCompressor c = new GorillaCompressor(start, output);
+        for(int i = 0; i < 70; i++) {
+            c.addValue(start + i * INTERVAL, 1.0);
+        }
+        c.close();
+
+        // A dirty bitmap, as left by a previous chunk
+        long[] bitmap = new long[3];
+        Arrays.fill(bitmap, -1L);
+        GorillaDecompressor d = new GorillaDecompressor(new LongArrayInput(output.getLongArray()));
+        assertEquals(70, d.filter((t, v) -> true, bitmap));
+        assertEquals(-1L, bitmap[0]);
+        assertEquals((1L << 6) - 1, bitmap[1]);
+        assertEquals(0L, bitmap[2]);
+
+        Arrays.fill(bitmap, -1L);
+        assertEquals(0, d.filter((t, v) -> true, bitmap));
+        assertArrayEquals(new long[3], bitmap);
+    }
+
+    @Test
+    void testOpenBlockValueRange() throws Exception {
+        long start = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).toInstant(ZoneOffset.UTC).toEpochMilli();
+
+        // The open block tracks the range, NaN values are not part of it
+        OpenBlock open = new OpenBlock(start);
+        open.addValue(start + 1, 5.0);
+        open.addValue(start + 2, Double.NaN);
+        open.addValue(start + 3, -1.5);
+        Block closed = open.close();
+        assertEquals(-1.5, closed.getMinValue());
+        assertEquals(5.0, closed.getMaxValue());
+    }
+
+    @Test
+    void testBlockFilter() throws Exception {
+        long start = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).toInstant(ZoneOffset.UTC).toEpochMilli();
+        OpenBlock open = new OpenBlock(start);
+        open.addValue(start + 1, 5.0);
+        open.addValue(start + 2, Double.NaN);
+        open.addValue(start + 3, -1.5);
+        Block closed = open.close();
+
+        // Skipped by the range without decompressing
+        assertEquals(0, closed.filter(new LastValuePredictor(), start, start + 3, PairPredicate.doubleAbove(5.0),
+                (t, v) -> { throw new AssertionError(); }));
+
+        DataPoints points = new DataPoints();
+        assertEquals(1, closed.filter(new LastValuePredictor(), start, start + 3, PairPredicate.doubleBelow(0),
+                points));
+        assertEquals(start + 3, points.getTimestamp(0));
+        assertEquals(-1.5, points.getDoubleValue(0));
+    }
+}
@@ -0,0 +1,86 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.jupiter.api.Test;
+
+import fi.iki.yak.ts.compression.gorilla.predictors.DifferentialFCM;
+
+/**
+ * Tests the columnar block layout against the interleaved one.
+ *
+ * @author Michael Burman
+ */
+public class ColumnarTest {
+
+    @Test
+    void testSameAsInterleaved() throws Exception {
+        long blockStart = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS).toInstant(ZoneOffset.UTC).toEpochMilli();
+        int amountOfPoints = 10000;
+
+        LongArrayOutput output = new LongArrayOutput();
+        GorillaCompressor interleaved = new GorillaCompressor(blockStart, output, new DifferentialFCM(256));
+        ColumnarCompressor columnar = new ColumnarCompressor(blockStart, new DifferentialFCM(256));
+
+        long now = blockStart;
+        for(int i = 0; i < amountOfPoints; i++) {
+            // Jittered timestamps and a mix of repeating and random values
+            now += 1000 + ThreadLocalRandom.current().nextInt(-50, 50);
+            double value = i % 3 == 0 ? ThreadLocalRandom.current().nextDouble() : i % 100;
+            interleaved.addValue(now, value);
+            columnar.addValue(now, value);
+        }
+        interleaved.close();
+        long[] block = columnar.close();
+
+        DataPoints expected = new DataPoints();
+        GorillaDecompressor d = new GorillaDecompressor(new LongArrayInput(output.getLongArray()),
+                new DifferentialFCM(256));
+        while(d.next()) {
+            expected.accept(d.getTimestamp(), d.getLongValue());
+        }
+
+        ColumnarDecompressor cd = new ColumnarDecompressor(block, () -> new DifferentialFCM(256));
+        assertEquals(blockStart, cd.getBlockTimestamp());
+        assertEquals(amountOfPoints, cd.getCount());
+
+        DataPoints actual = cd.read();
+        assertEquals(amountOfPoints, actual.size());
+        for(int i = 0; i < amountOfPoints; i++) {
+            assertEquals(expected.getTimestamp(i), actual.getTimestamp(i));
+            assertEquals(expected.getLongValue(i), actual.getLongValue(i));
+        }
+
+        long[] timestamps = new long[amountOfPoints];
+        cd.readTimestamps(timestamps);
+        assertArrayEquals(timestamps, cd.timestamps().toArray());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            DataPoints parallel = cd.read(executor).get();
+            for(int i = 0; i < amountOfPoints; i++) {
+                assertEquals(expected.getTimestamp(i), parallel.getTimestamp(i));
+                assertEquals(expected.getLongValue(i), parallel.getLongValue(i));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testEmptyBlock() throws Exception {
+        long[] block = new ColumnarCompressor(0).close();
+        ColumnarDecompressor cd = new ColumnarDecompressor(block);
+        assertEquals(0, cd.getCount());
+        assertEquals(0, cd.read().size());
+        assertEquals(0, cd.timestamps().count());
+    }
+}
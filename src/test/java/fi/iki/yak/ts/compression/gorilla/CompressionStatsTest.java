@@ -0,0 +1,167 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import fi.iki.yak.ts.compression.gorilla.predictors.DifferentialFCM;
+
+/**
+ * Checks that the statistics count every encoded bit and that the encoder and decoder agree on the cases. The
+ * surefire configuration enables the counting.
+ *
+ * @author Michael Burman
+ */
+public class CompressionStatsTest {
+
+    private void assertSameCases(CompressionStats expected, CompressionStats actual) {
+        for(CompressionStats.TimestampCase c : CompressionStats.TimestampCase.values()) {
+            assertEquals(expected.getCount(c), actual.getCount(c), c.toString());
+        }
+        for(CompressionStats.ValueCase c : CompressionStats.ValueCase.values()) {
+            assertEquals(expected.getCount(c), actual.getCount(c), c.toString());
+        }
+        assertEquals(expected.getTimestampBits(), actual.getTimestampBits());
+        assertEquals(expected.getValueBits(), actual.getValueBits());
+        assertEquals(expected.getPoints(), actual.getPoints());
+    }
+
+    @Test
+    void testExactBits() throws Exception {
+        assumeTrue(CompressionStats.ENABLED);
+
+        long now = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS)
+                .toInstant(ZoneOffset.UTC).toEpochMilli();
+        Random random = new Random(17);
+
+        LongArrayOutput output = new LongArrayOutput();
+        GorillaCompressor c = new GorillaCompressor(now, output, new DifferentialFCM(256));
+        CompressionStats encoded = new CompressionStats();
+        c.setStats(encoded);
+
+        long timestamp = now;
+        double value = 0;
+        int amount = 5000;
+        for(int i = 0; i < amount; i++) {
+            // Mostly regular interval with occasional jitter and gaps to hit every timestamp case
+            int jitter = random.nextInt(20);
+            timestamp += 1000 + (jitter < 14 ? 0 : jitter < 17 ? random.nextInt(50) : jitter < 19 ?
+                    random.nextInt(2000) : random.nextInt(1000000));
+            if(random.nextInt(4) == 0) {
+                value += random.nextGaussian();
+            }
+            c.addValue(timestamp, value);
+        }
+        c.close();
+
+        assertEquals(amount, encoded.getPoints());
+        assertEquals(1, encoded.getBlocks());
+        for(CompressionStats.TimestampCase tc : CompressionStats.TimestampCase.values()) {
+            assertTrue(encoded.getCount(tc) > 0, tc.toString());
+        }
+        for(CompressionStats.ValueCase vc : CompressionStats.ValueCase.values()) {
+            assertTrue(encoded.getCount(vc) > 0, vc.toString());
+        }
+
+        // Only the padding of the last word is not counted
+        long words = (encoded.getBits() + Long.SIZE - 1) / Long.SIZE;
+        assertEquals(words * Long.SIZE, output.getBitsWritten());
+
+        GorillaDecompressor d = new GorillaDecompressor(new LongArrayInput(output.getLongArray()),
+                new DifferentialFCM(256));
+        CompressionStats decoded = new CompressionStats();
+        d.setStats(decoded);
+        int count = 0;
+        while(d.next()) {
+            count++;
+        }
+        assertEquals(amount, count);
+        assertSameCases(encoded, decoded);
+        assertEquals(1, decoded.getBlocks());
+    }
+
+    @Test
+    void testSharedBetweenBlocks() throws Exception {
+        assumeTrue(CompressionStats.ENABLED);
+
+        CompressionStats stats = new CompressionStats();
+        for(int block = 0; block < 2; block++) {
+            GorillaCompressor c = new GorillaCompressor(0, new LongArrayOutput());
+            c.setStats(stats);
+            c.addValue(10, 1L);
+            c.addValue(20, 1L);
+            c.addValue(35, 2L);
+            c.close();
+        }
+
+        assertEquals(2, stats.getBlocks());
+        assertEquals(6, stats.getPoints());
+        assertEquals(2, stats.getCount(CompressionStats.TimestampCase.ZERO));
+        assertEquals(2, stats.getCount(CompressionStats.TimestampCase.BITS_7));
+        assertEquals(2, stats.getCount(CompressionStats.ValueCase.ZERO_XOR));
+        assertEquals(2, stats.getCount(CompressionStats.ValueCase.NEW_WINDOW));
+        assertEquals(2 * (64 + 37), stats.getHeaderBits());
+
+        stats.reset();
+        assertEquals(0, stats.getBits());
+        assertEquals(0.0, stats.getBitsPerPoint());
+    }
+
+    /**
+     * Each block header is counted once, however often the stats are attached and even if the block is continued by
+     * a restored compressor or read with a reset decompressor.
+     */
+    @Test
+    void testHeaderCountedOnce() throws Exception {
+        assumeTrue(CompressionStats.ENABLED);
+
+        CompressionStats encoded = new CompressionStats();
+        LongArrayOutput output = new LongArrayOutput();
+        GorillaCompressor c = new GorillaCompressor(0, output);
+        c.setStats(encoded);
+        c.setStats(encoded);
+        c.addValue(10, 1L);
+        c.addValue(20, 2L);
+
+        ByteBuffer state = ByteBuffer.allocate(c.getStateSize());
+        c.saveState(state);
+        state.flip();
+        LongArrayOutput restoredOutput = new LongArrayOutput(output.getLongArray(), output.getBitsWritten());
+        GorillaCompressor restored = GorillaCompressor.restore(state, restoredOutput);
+        restored.setStats(encoded);
+        restored.addValue(30, 3L);
+        restored.close();
+
+        assertEquals(64 + 37, encoded.getHeaderBits());
+        assertEquals(3, encoded.getPoints());
+
+        LongArrayOutput empty = new LongArrayOutput();
+        GorillaCompressor e = new GorillaCompressor(0, empty);
+        e.setStats(encoded);
+        e.close();
+        assertEquals(2 * (64 + 37), encoded.getHeaderBits());
+
+        CompressionStats decoded = new CompressionStats();
+        long[] block = restoredOutput.getLongArray();
+        GorillaDecompressor d = new GorillaDecompressor(new LongArrayInput(block));
+        d.setStats(decoded);
+        d.setStats(decoded);
+        while(d.next()) {
+        }
+        d.reset(new LongArrayInput(block));
+        while(d.next()) {
+        }
+        assertEquals(2, decoded.getBlocks());
+        assertEquals(6, decoded.getPoints());
+        // The decoder counts the 4 control bits and the 32 bits of the end marker
+        assertEquals(2 * (64 + 36), decoded.getHeaderBits());
+    }
+}
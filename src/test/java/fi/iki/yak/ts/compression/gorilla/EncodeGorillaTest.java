@@ -2,18 +2,27 @@ package fi.iki.yak.ts.compression.gorilla;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.nio.ByteBuffer;
 import java.time.LocalDateTime;
 import java.time.Month;
 import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.DoubleStream;
+import java.util.stream.LongStream;
 
 import org.junit.jupiter.api.Test;
 
 import fi.iki.yak.ts.compression.gorilla.predictors.DifferentialFCM;
+import fi.iki.yak.ts.compression.gorilla.predictors.LastValuePredictor;
 
 /**
  * These are generic tests to test that input matches the output after compression + decompression cycle, using
@@ -588,4 +597,412 @@ public class EncodeGorillaTest {
         assertNull(d.readPair());
     }
 
+    /**
+     * Repeated values and constant steps are predicted exactly by the DifferentialFCM. The decompressor must update
+     * the predictor with them like the compressor does, or the following predictions diverge.
+     */
+    @Test
+    void testDifferentialFCMRepeatedValues() throws Exception {
+        int amountOfPoints = 10000;
+        long blockStart = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS)
+                .toInstant(ZoneOffset.UTC).toEpochMilli();
+        long[] values = new long[amountOfPoints];
+        for(int i = 0; i < amountOfPoints; i++) {
+            // Runs of equal values, constant steps and noise
+            values[i] = (i / 100) % 3 == 0 ? i / 7 : (i / 100) % 3 == 1 ? 5L * i : i * 31L % 97;
+        }
+
+        LongArrayOutput output = new LongArrayOutput();
+        GorillaCompressor c = new GorillaCompressor(blockStart, output, new DifferentialFCM(256));
+        for(int i = 0; i < amountOfPoints; i++) {
+            c.addValue(blockStart + i * 60, values[i]);
+        }
+        c.close();
+
+        GorillaDecompressor d = new GorillaDecompressor(new LongArrayInput(output.getLongArray()),
+                new DifferentialFCM(256));
+        for(int i = 0; i < amountOfPoints; i++) {
+            Pair pair = d.readPair();
+            assertEquals(blockStart + i * 60, pair.getTimestamp(), "Timestamp did not match at point " + i);
+            assertEquals(values[i], pair.getLongValue(), "Value did not match at point " + i);
+        }
+        assertNull(d.readPair());
+    }
+
+    @Test
+    void testStatelessPredictorState() throws Exception {
+        Predictor stateless = new Predictor() {
+            private long value;
+
+            @Override
+            public void update(long value) {
+                this.value = value;
+            }
+
+            @Override
+            public long predict() {
+                return value;
+            }
+        };
+        GorillaCompressor c = new GorillaCompressor(0, new LongArrayOutput(), stateless);
+        assertThrows(IllegalStateException.class, c::getStateSize);
+        assertThrows(IllegalStateException.class, () -> c.saveState(ByteBuffer.allocate(64)));
+
+        GorillaDecompressor d = new GorillaDecompressor(new LongArrayInput(new long[2]), stateless);
+        assertThrows(IllegalStateException.class, () -> d.reset(new LongArrayInput(new long[2])));
+    }
+
+    private void restoreAndContinue(Predictor writePredictor, StatefulPredictor restorePredictor,
+                                    Predictor readPredictor) throws Exception {
+        int amountOfPoints = 10000;
+        long blockStart = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS)
+                .toInstant(ZoneOffset.UTC).toEpochMilli();
+
+        long[] timestamps = new long[amountOfPoints];
+        double[] values = new double[amountOfPoints];
+        for(int i = 0; i < amountOfPoints; i++) {
+            timestamps[i] = blockStart + 60 + i * 60 + ThreadLocalRandom.current().nextInt(10);
+            values[i] = i * Math.random();
+        }
+
+        LongArrayOutput output = new LongArrayOutput();
+        GorillaCompressor c = new GorillaCompressor(blockStart, output, writePredictor);
+        for(int i = 0; i < amountOfPoints / 2; i++) {
+            c.addValue(timestamps[i], values[i]);
+        }
+
+        // Persist the partial block and the state, then continue with fresh instances
+        long[] partialBlock = output.getLongArray();
+        long bitsWritten = output.getBitsWritten();
+        ByteBuffer state = ByteBuffer.allocate(c.getStateSize());
+        c.saveState(state);
+        assertEquals(0, state.remaining());
+        state.flip();
+
+        LongArrayOutput restoredOutput = new LongArrayOutput(partialBlock, bitsWritten);
+        GorillaCompressor restored = GorillaCompressor.restore(state, restoredOutput, restorePredictor);
+        for(int i = amountOfPoints / 2; i < amountOfPoints; i++) {
+            restored.addValue(timestamps[i], values[i]);
+        }
+        restored.close();
+
+        LongArrayInput input = new LongArrayInput(restoredOutput.getLongArray());
+        GorillaDecompressor d = new GorillaDecompressor(input, readPredictor);
+
+        for(int i = 0; i < amountOfPoints; i++) {
+            Pair pair = d.readPair();
+            assertEquals(timestamps[i], pair.getTimestamp(), "Expected timestamp did not match at point " + i);
+            assertEquals(values[i], pair.getDoubleValue());
+        }
+        assertNull(d.readPair());
+    }
+
+    /**
+     * A compressor restored from a saved state should continue the persisted block as if it was never interrupted
+     */
+    @Test
+    void testRestoreCompressorState() throws Exception {
+        restoreAndContinue(new LastValuePredictor(), new LastValuePredictor(), new LastValuePredictor());
+        restoreAndContinue(new DifferentialFCM(1024), new DifferentialFCM(1024), new DifferentialFCM(1024));
+    }
+
+    @Test
+    void testStreams() throws Exception {
+        long blockStart = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS)
+                .toInstant(ZoneOffset.UTC).toEpochMilli();
+        int amountOfPoints = 1000;
+
+        LongArrayOutput output = new LongArrayOutput();
+        GorillaCompressor c = new GorillaCompressor(blockStart, output);
+        c.compress(LongStream.range(0, amountOfPoints).map(i -> blockStart + i * 60),
+                DoubleStream.iterate(0.5, d -> d + 1).limit(amountOfPoints));
+        c.close();
+        long[] compressed = output.getLongArray();
+
+        long[] timestamps = new GorillaDecompressor(new LongArrayInput(compressed)).timestamps().toArray();
+        assertEquals(amountOfPoints, timestamps.length);
+        for(int i = 0; i < amountOfPoints; i++) {
+            assertEquals(blockStart + i * 60, timestamps[i]);
+        }
+        assertEquals(amountOfPoints * amountOfPoints / 2.0,
+                new GorillaDecompressor(new LongArrayInput(compressed)).doubleValues().sum());
+
+        // Recompressing the pair stream should produce the same block
+        LongArrayOutput copy = new LongArrayOutput();
+        GorillaCompressor cc = new GorillaCompressor(blockStart, copy);
+        cc.compress(new GorillaDecompressor(new LongArrayInput(compressed)).stream());
+        cc.close();
+        assertEquals(Arrays.toString(compressed), Arrays.toString(copy.getLongArray()));
+
+        // The pair instance is reused
+        assertEquals(1, new GorillaDecompressor(new LongArrayInput(compressed)).stream()
+                .collect(Collectors.toSet()).size());
+
+        GorillaCompressor invalid = new GorillaCompressor(blockStart, new LongArrayOutput());
+        assertThrows(IllegalArgumentException.class,
+                () -> invalid.compress(LongStream.of(blockStart, blockStart + 1), LongStream.of(1)));
+    }
+
+    /**
+     * The specialized codecs must write and read exactly the same stream as the generic ones
+     */
+    @Test
+    void testSpecializedCodecs() throws Exception {
+        int amountOfPoints = 10000;
+        long blockStart = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS)
+                .toInstant(ZoneOffset.UTC).toEpochMilli();
+
+        long[] timestamps = new long[amountOfPoints];
+        long[] values = new long[amountOfPoints];
+        long timestamp = blockStart;
+        for(int i = 0; i < amountOfPoints; i++) {
+            int r = ThreadLocalRandom.current().nextInt(100);
+            timestamp += 1000 + (r < 70 ? 0 : r < 90 ? r : ThreadLocalRandom.current().nextInt(1000000));
+            timestamps[i] = timestamp;
+            values[i] = i % 3 == 0 ? values[Math.max(0, i - 1)] : i % 3 == 1 ? i
+                    : Double.doubleToRawLongBits(i * Math.random());
+        }
+
+        LongArrayOutput generic = new LongArrayOutput();
+        GorillaCompressor gc = new GorillaCompressor(blockStart, generic);
+        LongArrayOutput specialized = new LongArrayOutput();
+        LongArrayGorillaCompressor sc = new LongArrayGorillaCompressor(blockStart, specialized);
+        ByteBuffer state = null;
+        long[] partialBlock = null;
+        long bitsWritten = 0;
+        for(int i = 0; i < amountOfPoints; i++) {
+            gc.addValue(timestamps[i], values[i]);
+            sc.addValue(timestamps[i], values[i]);
+            if(i == amountOfPoints / 2) {
+                state = ByteBuffer.allocate(sc.getStateSize());
+                sc.saveState(state);
+                state.flip();
+                partialBlock = specialized.getLongArray();
+                bitsWritten = specialized.getBitsWritten();
+            }
+        }
+        gc.close();
+        sc.close();
+        long[] compressed = generic.getLongArray();
+        assertEquals(Arrays.toString(compressed), Arrays.toString(specialized.getLongArray()));
+
+        // The state of the specialized compressor continues with the generic one
+        LongArrayOutput restoredOutput = new LongArrayOutput(partialBlock, bitsWritten);
+        GorillaCompressor restored = GorillaCompressor.restore(state, restoredOutput);
+        for(int i = amountOfPoints / 2 + 1; i < amountOfPoints; i++) {
+            restored.addValue(timestamps[i], values[i]);
+        }
+        restored.close();
+        assertEquals(Arrays.toString(compressed), Arrays.toString(restoredOutput.getLongArray()));
+
+        LongArrayGorillaDecompressor d = new LongArrayGorillaDecompressor(
+                new LongArrayInput(new long[] { blockStart, -1 }));
+        assertEquals(false, d.next());
+        d.reset(new LongArrayInput(compressed));
+        for(int i = 0; i < amountOfPoints; i++) {
+            assertEquals(true, d.next());
+            assertEquals(timestamps[i], d.getTimestamp(), "Timestamp did not match at point " + i);
+            assertEquals(values[i], d.getLongValue(), "Value did not match at point " + i);
+        }
+        assertEquals(false, d.next());
+        assertThrows(IllegalArgumentException.class, () -> d.reset(new ByteBufferLongInput(ByteBuffer.allocate(16))));
+    }
+
+    /**
+     * The specialized compressor writes to the array of the output directly, a ConcurrentLongArrayOutput must still
+     * publish its expanded arrays and the specialized decompressor must advance its input.
+     */
+    @Test
+    void testSpecializedConcurrentOutput() throws Exception {
+        int amountOfPoints = 1000;
+        long blockStart = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS)
+                .toInstant(ZoneOffset.UTC).toEpochMilli();
+
+        ConcurrentLongArrayOutput output = new ConcurrentLongArrayOutput(4);
+        LongArrayGorillaCompressor c = new LongArrayGorillaCompressor(blockStart, output);
+        LongArrayOutput generic = new LongArrayOutput();
+        GorillaCompressor gc = new GorillaCompressor(blockStart, generic);
+        for(int i = 0; i < amountOfPoints; i++) {
+            double value = i % 5 == 0 ? i * Math.random() : i;
+            c.addValue(blockStart + i * 60, value);
+            gc.addValue(blockStart + i * 60, value);
+            output.commit();
+
+            long committedBits = output.getCommittedBits();
+            LongArrayInput input = new LongArrayInput(output.getPublishedArray());
+            LongArrayGorillaDecompressor d = new LongArrayGorillaDecompressor(input);
+            int read = 0;
+            while(input.getBitsRead() < committedBits && d.next()) {
+                read++;
+            }
+            assertEquals(i + 1, read);
+        }
+        c.close();
+        gc.close();
+        assertEquals(Arrays.toString(generic.getLongArray()), Arrays.toString(output.getLongArray()));
+
+        // A subclass may change the bit writing, the factories only select the specialized codecs for the known types
+        LongArrayOutput subclass = new LongArrayOutput() {
+        };
+        assertTrue(GorillaCompressor.create(blockStart, subclass, new LastValuePredictor())
+                instanceof GorillaCompressor);
+        LongArrayInput subclassInput = new LongArrayInput(generic.getLongArray()) {
+        };
+        assertTrue(GorillaDecompressor.create(subclassInput, new LastValuePredictor()) instanceof GorillaDecompressor);
+    }
+
+    @Test
+    void testPeekAndConsume() throws Exception {
+        long[] data = new long[64];
+        for(int i = 0; i < data.length; i++) {
+            data[i] = ThreadLocalRandom.current().nextLong();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(data.length * Long.BYTES);
+        buffer.asLongBuffer().put(data);
+
+        BitInput[] peeking = { new LongArrayInput(data), new ByteBufferLongInput(buffer.duplicate()),
+                new ByteBufferBitInput(buffer.duplicate()) };
+        for(BitInput in : peeking) {
+            BitInput reference = new LongArrayInput(data);
+            long read = 0;
+            while(read < (data.length - 2) * Long.SIZE) {
+                int bits = 1 + ThreadLocalRandom.current().nextInt(32);
+                long peeked = in.peekBits(bits);
+                assertEquals(peeked, in.peekBits(bits));
+                assertEquals(reference.getLong(bits), peeked, in.getClass().getSimpleName() + " at bit " + read);
+                if(ThreadLocalRandom.current().nextBoolean()) {
+                    in.consume(bits);
+                } else {
+                    in.getLong(bits);
+                }
+                read += bits;
+            }
+        }
+
+        // Past the end of the stream the bits are zeros
+        LongArrayInput last = new LongArrayInput(new long[] { 0xFFL });
+        last.consume(60);
+        assertEquals(0xF0, last.peekBits(8));
+        assertEquals(0x7, last.peekBits(3));
+    }
+
+    @Test
+    void testBoundedOutput() throws Exception {
+        long blockStart = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS)
+                .toInstant(ZoneOffset.UTC).toEpochMilli();
+
+        for(boolean random : new boolean[] { false, true }) {
+            BoundedLongArrayOutput output = new BoundedLongArrayOutput();
+            LongArrayOutput reference = new LongArrayOutput();
+            GorillaCompressor c = new GorillaCompressor(blockStart, output);
+            GorillaCompressor rc = new GorillaCompressor(blockStart, reference);
+
+            int added = 0;
+            long timestamp = blockStart;
+            while(true) {
+                // Random timestamps and values take close to the worst case bits per point
+                timestamp += random ? 1 + ThreadLocalRandom.current().nextInt(100000) : 1000;
+                long value = random ? ThreadLocalRandom.current().nextLong() : added;
+                if(!c.tryAddValue(timestamp, value)) {
+                    break;
+                }
+                rc.addValue(timestamp, value);
+                added++;
+            }
+            c.close();
+            rc.close();
+
+            assertTrue(output.getBitsWritten() <= BoundedLongArrayOutput.PAGE_WORDS * Long.SIZE);
+            assertTrue(output.getRemainingBits() < GorillaCompressor.MAX_POINT_BITS + Long.SIZE);
+            assertEquals(BoundedLongArrayOutput.PAGE_WORDS, output.getLongArray().length);
+
+            // Same stream as an unbounded output
+            long[] expected = reference.getLongArray();
+            long[] written = output.getLongArray();
+            int words = (int) ((output.getBitsWritten() + Long.SIZE - 1) / Long.SIZE);
+            assertEquals(Arrays.toString(Arrays.copyOf(expected, words)),
+                    Arrays.toString(Arrays.copyOf(written, words)));
+
+            GorillaDecompressor d = new GorillaDecompressor(new LongArrayInput(written));
+            int read = 0;
+            while(d.next()) {
+                read++;
+            }
+            assertEquals(added, read);
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> new BoundedLongArrayOutput(new long[1]));
+        assertTrue(new GorillaCompressor(blockStart, new LongArrayOutput()).tryAddValue(blockStart, 1.0));
+    }
+
+    @Test
+    void testSkipAndCount() throws Exception {
+        int amountOfPoints = 5000;
+        long blockStart = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS)
+                .toInstant(ZoneOffset.UTC).toEpochMilli();
+
+        long[] timestamps = new long[amountOfPoints];
+        long[] values = new long[amountOfPoints];
+        long timestamp = blockStart;
+        for(int i = 0; i < amountOfPoints; i++) {
+            int r = ThreadLocalRandom.current().nextInt(100);
+            timestamp += 1000 + (r < 70 ? 0 : r < 90 ? r : ThreadLocalRandom.current().nextInt(1000000));
+            timestamps[i] = timestamp;
+            values[i] = i % 3 == 0 ? values[Math.max(0, i - 1)] : Double.doubleToRawLongBits(i * Math.random());
+        }
+
+        for(boolean lastValue : new boolean[] { true, false }) {
+            LongArrayOutput output = new LongArrayOutput();
+            GorillaCompressor c = new GorillaCompressor(blockStart, output,
+                    lastValue ? new LastValuePredictor() : new DifferentialFCM(256));
+            for(int i = 0; i < amountOfPoints; i++) {
+                c.addValue(timestamps[i], values[i]);
+            }
+            c.close();
+            long[] compressed = output.getLongArray();
+
+            List<Supplier<AbstractGorillaDecompressor>> decompressors = new ArrayList<>();
+            decompressors.add(() -> new GorillaDecompressor(new LongArrayInput(compressed),
+                    lastValue ? new LastValuePredictor() : new DifferentialFCM(256)));
+            if(lastValue) {
+                decompressors.add(() -> new LongArrayGorillaDecompressor(new LongArrayInput(compressed)));
+            }
+            for(Supplier<AbstractGorillaDecompressor> decompressor : decompressors) {
+                assertEquals(amountOfPoints, decompressor.get().count());
+
+                AbstractGorillaDecompressor d = decompressor.get();
+
+                // Alternate skips and reads, the current pair after a skip is the last skipped one
+                int position = -1;
+                while(position < amountOfPoints - 1) {
+                    int n = ThreadLocalRandom.current().nextInt(100);
+                    int skipped = d.skip(n);
+                    assertEquals(Math.min(n, amountOfPoints - 1 - position), skipped);
+                    position += skipped;
+                    if(position >= 0) {
+                        assertEquals(timestamps[position], d.getTimestamp(), "Timestamp did not match at " + position);
+                        assertEquals(values[position], d.getLongValue(), "Value did not match at " + position);
+                    }
+                    if(position < amountOfPoints - 1 && ThreadLocalRandom.current().nextBoolean()) {
+                        assertEquals(true, d.next());
+                        position++;
+                        assertEquals(values[position], d.getLongValue(), "Value did not match at " + position);
+                    }
+                }
+                assertEquals(0, d.skip(1));
+                assertEquals(false, d.next());
+                assertEquals(0, d.count());
+
+                AbstractGorillaDecompressor partial = decompressor.get();
+                partial.skip(100);
+                assertEquals(amountOfPoints - 100, partial.count());
+                assertEquals(false, partial.next());
+                assertThrows(IllegalArgumentException.class, () -> partial.skip(-1));
+            }
+        }
+
+        GorillaDecompressor empty = new GorillaDecompressor(new LongArrayInput(new long[] { blockStart, -1 }));
+        assertEquals(0, empty.count());
+        assertEquals(0, new GorillaDecompressor(new LongArrayInput(new long[] { blockStart, -1 })).skip(5));
+    }
 }
@@ -8,7 +8,11 @@ import java.time.LocalDateTime;
 import java.time.Month;
 import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadLocalRandom;
 
 import org.junit.jupiter.api.Test;
@@ -487,4 +491,55 @@ public class EncodeTest {
         }
         assertNull(d.readPair());
     }
+
+    /**
+     * Blocks in the 1.x format should be transcoded to the 2.x format without changes to the points
+     */
+    @Test
+    void testTranscodeToGorilla() throws Exception {
+        int amountOfPoints = 10000;
+        int amountOfBlocks = 8;
+        long blockStart = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS)
+                .toInstant(ZoneOffset.UTC).toEpochMilli();
+
+        long[] timestamps = new long[amountOfPoints];
+        double[] values = new double[amountOfPoints];
+
+        ByteBufferBitOutput output = new ByteBufferBitOutput();
+        Compressor c = new Compressor(blockStart, output);
+        for(int i = 0; i < amountOfPoints; i++) {
+            timestamps[i] = blockStart + 60 + i * 60 + ThreadLocalRandom.current().nextInt(100);
+            values[i] = i * Math.random();
+            c.addValue(timestamps[i], values[i]);
+        }
+        c.close();
+
+        ByteBuffer byteBuffer = output.getByteBuffer();
+        byteBuffer.flip();
+
+        List<ByteBuffer> blocks = new ArrayList<>();
+        for(int i = 0; i < amountOfBlocks; i++) {
+            blocks.add(byteBuffer);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<long[]> transcoded;
+        try {
+            transcoded = Transcoder.transcode(blocks, executor);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(amountOfBlocks, transcoded.size());
+        for(long[] block : transcoded) {
+            GorillaDecompressor d = new GorillaDecompressor(new LongArrayInput(block));
+            assertEquals(blockStart, d.getBlockTimestamp());
+            for(int i = 0; i < amountOfPoints; i++) {
+                Pair pair = d.readPair();
+                assertEquals(timestamps[i], pair.getTimestamp(), "Expected timestamp did not match at point " + i);
+                assertEquals(values[i], pair.getDoubleValue());
+            }
+            assertNull(d.readPair());
+        }
+    }
 }
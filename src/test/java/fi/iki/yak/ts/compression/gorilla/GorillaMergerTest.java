@@ -0,0 +1,83 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests merging of compressed blocks.
+ *
+ * @author Michael Burman
+ */
+public class GorillaMergerTest {
+
+    private long[] compress(long blockTimestamp, long[] timestamps, double[] values) {
+        LongArrayOutput output = new LongArrayOutput();
+        GorillaCompressor c = new GorillaCompressor(blockTimestamp, output);
+        for(int i = 0; i < timestamps.length; i++) {
+            c.addValue(timestamps[i], values[i]);
+        }
+        c.close();
+        return output.getLongArray();
+    }
+
+    private void assertBlock(long[] block, long[] timestamps, double[] values) {
+        GorillaDecompressor d = new GorillaDecompressor(new LongArrayInput(block));
+        for(int i = 0; i < timestamps.length; i++) {
+            assertTrue(d.next(), "Missing point " + i);
+            assertEquals(timestamps[i], d.getTimestamp(), "Timestamp did not match at point " + i);
+            assertEquals(values[i], d.getDoubleValue(), "Value did not match at point " + i);
+        }
+        assertFalse(d.next());
+        assertFalse(d.next());
+    }
+
+    @Test
+    void testMergeInterleaved() throws Exception {
+        long now = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS)
+                .toInstant(ZoneOffset.UTC).toEpochMilli();
+
+        long[] first = compress(now, new long[] { now + 10, now + 30, now + 50 }, new double[] { 1.0, 3.0, 5.0 });
+        long[] late = compress(now, new long[] { now + 20, now + 40, now + 60 }, new double[] { 2.0, 4.0, 6.0 });
+
+        long[] merged = new GorillaMerger().merge(first, late);
+
+        assertBlock(merged,
+                new long[] { now + 10, now + 20, now + 30, now + 40, now + 50, now + 60 },
+                new double[] { 1.0, 2.0, 3.0, 4.0, 5.0, 6.0 });
+    }
+
+    @Test
+    void testDuplicatePolicies() throws Exception {
+        long now = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS)
+                .toInstant(ZoneOffset.UTC).toEpochMilli();
+
+        long[] first = compress(now, new long[] { now + 10, now + 20 }, new double[] { 1.0, 2.0 });
+        long[] late = compress(now, new long[] { now + 20, now + 30 }, new double[] { -2.0, 3.0 });
+
+        assertBlock(new GorillaMerger(GorillaMerger.DuplicatePolicy.KEEP_LAST).merge(first, late),
+                new long[] { now + 10, now + 20, now + 30 }, new double[] { 1.0, -2.0, 3.0 });
+        assertBlock(new GorillaMerger(GorillaMerger.DuplicatePolicy.KEEP_FIRST).merge(first, late),
+                new long[] { now + 10, now + 20, now + 30 }, new double[] { 1.0, 2.0, 3.0 });
+        assertBlock(new GorillaMerger(GorillaMerger.DuplicatePolicy.KEEP_ALL).merge(first, late),
+                new long[] { now + 10, now + 20, now + 20, now + 30 }, new double[] { 1.0, 2.0, -2.0, 3.0 });
+    }
+
+    @Test
+    void testMergeWithEmptyBlock() throws Exception {
+        long now = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS)
+                .toInstant(ZoneOffset.UTC).toEpochMilli();
+
+        long[] empty = compress(now, new long[0], new double[0]);
+        long[] block = compress(now, new long[] { now + 1, now + 2 }, new double[] { 1.0, 2.0 });
+
+        assertBlock(new GorillaMerger().merge(empty, block, empty), new long[] { now + 1, now + 2 },
+                new double[] { 1.0, 2.0 });
+    }
+}
@@ -0,0 +1,83 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+
+import org.junit.jupiter.api.Test;
+
+import fi.iki.yak.ts.compression.gorilla.predictors.DifferentialFCM;
+
+/**
+ * Tests blocks of multiple series sharing the timestamps.
+ *
+ * @author Michael Burman
+ */
+public class MultiValueTest {
+
+    private static final int COLUMNS = 8;
+
+    private static double value(int row, int column) {
+        return column % 2 == 0 ? row * column : Math.sin(row + column);
+    }
+
+    @Test
+    void testRowsAndColumns() throws Exception {
+        long blockStart = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS).toInstant(ZoneOffset.UTC).toEpochMilli();
+        int amountOfRows = 1000;
+
+        MultiValueCompressor c = new MultiValueCompressor(blockStart, COLUMNS, () -> new DifferentialFCM(64));
+        int separateWords = 0;
+        double[] values = new double[COLUMNS];
+        for(int i = 0; i < amountOfRows; i++) {
+            for(int j = 0; j < COLUMNS; j++) {
+                values[j] = value(i, j);
+            }
+            c.addRow(blockStart + i * 15000L, values);
+        }
+        long[] block = c.close();
+
+        for(int j = 0; j < COLUMNS; j++) {
+            LongArrayOutput output = new LongArrayOutput();
+            GorillaCompressor gc = new GorillaCompressor(blockStart, output, new DifferentialFCM(64));
+            for(int i = 0; i < amountOfRows; i++) {
+                gc.addValue(blockStart + i * 15000L, value(i, j));
+            }
+            gc.close();
+            separateWords += output.getLongArray().length;
+        }
+        assertTrue(block.length < separateWords, "Shared timestamps should be smaller than separate blocks");
+
+        MultiValueDecompressor d = new MultiValueDecompressor(block, () -> new DifferentialFCM(64));
+        assertEquals(amountOfRows, d.getCount());
+        assertEquals(COLUMNS, d.getColumnCount());
+        long[] row = new long[COLUMNS];
+        for(int i = 0; i < amountOfRows; i++) {
+            assertTrue(d.next());
+            assertEquals(blockStart + i * 15000L, d.getTimestamp());
+            d.getRow(row);
+            for(int j = 0; j < COLUMNS; j++) {
+                assertEquals(value(i, j), Double.longBitsToDouble(row[j]));
+            }
+        }
+        assertFalse(d.next());
+
+        // Selected columns only
+        MultiValueDecompressor selected = new MultiValueDecompressor(block, () -> new DifferentialFCM(64), 5, 2);
+        DataPoints column = selected.readColumn(0);
+        assertEquals(amountOfRows, column.size());
+        for(int i = 0; i < amountOfRows; i++) {
+            assertEquals(blockStart + i * 15000L, column.getTimestamp(i));
+            assertEquals(value(i, 5), Double.longBitsToDouble(column.getLongValue(i)));
+        }
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new MultiValueDecompressor(block, () -> new DifferentialFCM(64), COLUMNS));
+        assertThrows(IllegalArgumentException.class, () -> c.addRow(blockStart, new long[COLUMNS - 1]));
+    }
+}
@@ -0,0 +1,77 @@
+package fi.iki.yak.ts.compression.gorilla;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+import fi.iki.yak.ts.compression.gorilla.predictors.DifferentialFCM;
+
+/**
+ * Tests reading an open block concurrently with the writer.
+ *
+ * @author Michael Burman
+ */
+public class OpenBlockTest {
+
+    @Test
+    void testReadWhileWriting() throws Exception {
+        long blockStart = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS)
+                .toInstant(ZoneOffset.UTC).toEpochMilli();
+        int amountOfPoints = 200000; // Causes several array expansions while reading
+        int readers = 3;
+
+        OpenBlock block = new OpenBlock(blockStart, new DifferentialFCM(256));
+        AtomicBoolean done = new AtomicBoolean();
+
+        ExecutorService executor = Executors.newFixedThreadPool(readers);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for(int r = 0; r < readers; r++) {
+                futures.add(executor.submit(() -> {
+                    int maxRead = 0;
+                    boolean finished;
+                    do {
+                        finished = done.get();
+                        int[] i = new int[1];
+                        int read = block.read(new DifferentialFCM(256), Long.MIN_VALUE, Long.MAX_VALUE, (t, v) -> {
+                            assertEquals(blockStart + 1 + i[0], t, "Timestamp did not match at point " + i[0]);
+                            assertEquals((double) (i[0] % 1000), Double.longBitsToDouble(v));
+                            i[0]++;
+                        });
+                        assertTrue(read >= maxRead, "Committed points should never disappear");
+                        maxRead = read;
+                    } while(!finished);
+                    return maxRead;
+                }));
+            }
+
+            for(int i = 0; i < amountOfPoints; i++) {
+                block.addValue(blockStart + 1 + i, (double) (i % 1000));
+            }
+            done.set(true);
+
+            for(Future<Integer> future : futures) {
+                assertEquals(amountOfPoints, future.get().intValue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Block closed = block.close();
+        assertEquals(amountOfPoints, closed.getCount());
+        assertEquals(amountOfPoints, block.read(new DifferentialFCM(256), Long.MIN_VALUE, Long.MAX_VALUE,
+                (t, v) -> {}));
+        assertEquals(amountOfPoints, Block.of(closed.getLongArray()).getCount());
+    }
+}
@@ -0,0 +1,152 @@
+package fi.iki.yak.ts.compression.gorilla.store;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import fi.iki.yak.ts.compression.gorilla.Block;
+import fi.iki.yak.ts.compression.gorilla.BlockSet;
+import fi.iki.yak.ts.compression.gorilla.DataPoints;
+import fi.iki.yak.ts.compression.gorilla.PairPredicate;
+import fi.iki.yak.ts.compression.gorilla.predictors.DifferentialFCM;
+
+/**
+ * Tests writing blocks to a file and reading them back from the mapped file.
+ *
+ * @author Michael Burman
+ */
+public class BlockFileTest {
+
+    private static final long BLOCK_SIZE = TimeUnit.HOURS.toMillis(2);
+    private static final long INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+    @Test
+    void testWriteAndRead() throws Exception {
+        long start = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).toInstant(ZoneOffset.UTC).toEpochMilli();
+        SeriesStore store = new SeriesStore(BLOCK_SIZE, 2, () -> new DifferentialFCM(64));
+        int amountOfPoints = 1000; // Five blocks per series
+        for(int i = 0; i < amountOfPoints; i++) {
+            for(long id = 3; id > 0; id--) {
+                store.append(id, start + i * INTERVAL, (double) (i * id));
+            }
+        }
+        store.rollover(Long.MAX_VALUE);
+
+        Path file = Files.createTempFile("gorilla", ".blocks");
+        try {
+            try(BlockFileWriter writer = new BlockFileWriter(file)) {
+                // Written newest series first, the footer is sorted on close
+                for(long id = 3; id > 0; id--) {
+                    for(Block block : store.getBlocks(id, Long.MIN_VALUE, Long.MAX_VALUE)) {
+                        writer.write(id, block);
+                    }
+                }
+                assertEquals(15, writer.getBlockCount());
+            }
+
+            BlockFileReader reader = BlockFileReader.open(file);
+            assertEquals(15, reader.getBlockCount());
+            assertArrayEquals(new long[] { 1, 2, 3 }, reader.getSeriesIds());
+
+            for(long id = 1; id <= 3; id++) {
+                long seriesId = id;
+                long from = start + 100 * INTERVAL;
+                long to = start + 899 * INTERVAL;
+                int[] i = { 100 };
+                assertEquals(800, reader.read(id, from, to, new DifferentialFCM(64), (t, v) -> {
+                    assertEquals(start + i[0] * INTERVAL, t);
+                    assertEquals((double) (i[0] * seriesId), Double.longBitsToDouble(v));
+                    i[0]++;
+                }));
+
+                List<Block> blocks = reader.getBlocks(id, Long.MIN_VALUE, Long.MAX_VALUE);
+                List<Block> original = store.getBlocks(id, Long.MIN_VALUE, Long.MAX_VALUE);
+                assertEquals(original.size(), blocks.size());
+                for(int b = 0; b < blocks.size(); b++) {
+                    assertArrayEquals(original.get(b).getLongArray(), blocks.get(b).getLongArray());
+                    assertEquals(original.get(b).getCount(), blocks.get(b).getCount());
+                }
+            }
+            assertEquals(0, reader.read(4, Long.MIN_VALUE, Long.MAX_VALUE, new DifferentialFCM(64), (t, v) -> {}));
+            assertEquals(0, reader.read(1, start - BLOCK_SIZE, start - 1, new DifferentialFCM(64), (t, v) -> {}));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void testFilterAfterReopen() throws Exception {
+        long start = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).toInstant(ZoneOffset.UTC).toEpochMilli();
+        SeriesStore store = new SeriesStore(BLOCK_SIZE, 1, () -> new DifferentialFCM(64));
+        int amountOfPoints = 1000; // Four blocks of 240 points and one of 40
+        for(int i = 0; i < amountOfPoints; i++) {
+            store.append(1, start + i * INTERVAL, (double) i);
+        }
+        store.rollover(Long.MAX_VALUE);
+
+        Path file = Files.createTempFile("gorilla", ".blocks");
+        try {
+            List<Block> original = store.getBlocks(1, Long.MIN_VALUE, Long.MAX_VALUE);
+            try(BlockFileWriter writer = new BlockFileWriter(file)) {
+                for(Block block : original) {
+                    writer.write(1, block);
+                }
+            }
+
+            BlockFileReader reader = BlockFileReader.open(file);
+            List<Block> mapped = reader.getMappedBlocks(1, Long.MIN_VALUE, Long.MAX_VALUE);
+            List<Block> copied = reader.getBlocks(1, Long.MIN_VALUE, Long.MAX_VALUE);
+            for(int b = 0; b < original.size(); b++) {
+                assertEquals(original.get(b).getMinValue(), mapped.get(b).getMinValue());
+                assertEquals(original.get(b).getMaxValue(), mapped.get(b).getMaxValue());
+                assertEquals(original.get(b).getMinValue(), copied.get(b).getMinValue());
+                assertEquals(original.get(b).getMaxValue(), copied.get(b).getMaxValue());
+            }
+
+            // Only the last block has values above the threshold, the others are skipped without decompressing
+            int[] tested = { 0 };
+            PairPredicate above = PairPredicate.doubleAbove(960.0);
+            PairPredicate counting = new PairPredicate() {
+                @Override
+                public boolean test(long timestamp, long value) {
+                    tested[0]++;
+                    return above.test(timestamp, value);
+                }
+
+                @Override
+                public boolean mayMatch(double minValue, double maxValue) {
+                    return above.mayMatch(minValue, maxValue);
+                }
+            };
+            DataPoints points = new DataPoints();
+            assertEquals(39, new BlockSet(mapped, () -> new DifferentialFCM(64))
+                    .filter(Long.MIN_VALUE, Long.MAX_VALUE, counting, points));
+            assertEquals(start + 961 * INTERVAL, points.getTimestamp(0));
+            assertEquals(mapped.get(mapped.size() - 1).getCount(), tested[0]);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void testUnclosedFileRejected() throws Exception {
+        Path file = Files.createTempFile("gorilla", ".blocks");
+        try {
+            Files.write(file, new byte[64]);
+            assertThrows(IOException.class, () -> BlockFileReader.open(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
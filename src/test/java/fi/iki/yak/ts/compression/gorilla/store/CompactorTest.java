@@ -0,0 +1,118 @@
+package fi.iki.yak.ts.compression.gorilla.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import fi.iki.yak.ts.compression.gorilla.Block;
+import fi.iki.yak.ts.compression.gorilla.DataPoints;
+import fi.iki.yak.ts.compression.gorilla.predictors.DifferentialFCM;
+
+/**
+ * Tests merging the small blocks of a block window.
+ *
+ * @author Michael Burman
+ */
+public class CompactorTest {
+
+    private static final long BLOCK_SIZE = TimeUnit.HOURS.toMillis(2);
+
+    @Test
+    void testCompactSmallBlocks() throws Exception {
+        SeriesStore store = new SeriesStore(BLOCK_SIZE, 2, () -> new DifferentialFCM(64));
+        long start = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).toInstant(ZoneOffset.UTC).toEpochMilli();
+        long interval = TimeUnit.SECONDS.toMillis(10);
+        int amountOfPoints = 1440; // Two windows
+
+        // Closing the blocks every 20 points leaves 36 small blocks per window
+        for(int i = 0; i < amountOfPoints; i++) {
+            long timestamp = start + i * interval;
+            store.append(1L, timestamp, (double) i);
+            store.append(2L, timestamp, (long) i);
+            if(i % 20 == 19) {
+                store.rollover(Long.MAX_VALUE);
+            }
+        }
+        // Still open
+        store.append(1L, start + amountOfPoints * interval, (double) amountOfPoints);
+
+        List<Block> before = store.getBlocks(1L, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(73, before.size());
+        DataPoints expected = new DataPoints();
+        store.query(1L, Long.MIN_VALUE, Long.MAX_VALUE, expected);
+
+        ScheduledExecutorService executor = Executors.newScheduledThreadPool(2);
+        try {
+            Compactor compactor = new Compactor(store, executor, 100000);
+            assertEquals(2 * 2 * 35, compactor.compact().get().intValue());
+            assertEquals(2 * 2 * 35, compactor.getCompactedBlocks());
+            assertEquals(0, compactor.compact().get().intValue());
+        } finally {
+            executor.shutdown();
+        }
+
+        List<Block> after = store.getBlocks(1L, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(3, after.size());
+        assertEquals(start, after.get(0).getBlockTimestamp());
+        assertEquals(720, after.get(0).getCount());
+        assertEquals(start + BLOCK_SIZE, after.get(1).getBlockTimestamp());
+
+        int beforeWords = before.subList(0, 72).stream().mapToInt(b -> b.getLongArray().length).sum();
+        int afterWords = after.subList(0, 2).stream().mapToInt(b -> b.getLongArray().length).sum();
+        assertTrue(afterWords < beforeWords, "Merged blocks should be smaller");
+
+        DataPoints actual = new DataPoints();
+        assertEquals(amountOfPoints + 1, store.query(1L, Long.MIN_VALUE, Long.MAX_VALUE, actual));
+        for(int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getTimestamp(i), actual.getTimestamp(i));
+            assertEquals(expected.getLongValue(i), actual.getLongValue(i));
+        }
+        long[] sum = new long[1];
+        store.query(2L, Long.MIN_VALUE, Long.MAX_VALUE, (t, v) -> sum[0] += v);
+        assertEquals((long) amountOfPoints * (amountOfPoints - 1) / 2, sum[0]);
+    }
+
+    @Test
+    void testScheduleOnSingleThread() throws Exception {
+        SeriesStore store = new SeriesStore(BLOCK_SIZE, 1, () -> new DifferentialFCM(64));
+        long start = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).toInstant(ZoneOffset.UTC).toEpochMilli();
+        for(int i = 0; i < 100; i++) {
+            store.append(1L, start + i * 1000, (long) i);
+            if(i % 10 == 9) {
+                store.rollover(Long.MAX_VALUE);
+            }
+        }
+
+        // Daemon thread, so that a pass stuck on its own executor can not keep the JVM alive
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Compactor compactor = new Compactor(store, executor, 100000);
+            ScheduledFuture<?> scheduled = compactor.schedule(10, TimeUnit.MILLISECONDS);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while(compactor.getCompactedBlocks() < 9 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            scheduled.cancel(false);
+            assertEquals(9, compactor.getCompactedBlocks());
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(1, store.getBlocks(1L, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        assertEquals(100, store.query(1L, Long.MIN_VALUE, Long.MAX_VALUE, (t, v) -> {}));
+    }
+}
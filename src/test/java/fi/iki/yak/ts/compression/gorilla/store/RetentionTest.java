@@ -0,0 +1,152 @@
+package fi.iki.yak.ts.compression.gorilla.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import fi.iki.yak.ts.compression.gorilla.DataPoints;
+import fi.iki.yak.ts.compression.gorilla.LongArrayPool;
+import fi.iki.yak.ts.compression.gorilla.predictors.LastValuePredictor;
+
+/**
+ * Tests expiring the blocks of a SeriesStore and reusing their arrays.
+ *
+ * @author Michael Burman
+ */
+public class RetentionTest {
+
+    private static final long BLOCK_SIZE = TimeUnit.HOURS.toMillis(2);
+    private static final long INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private static long start() {
+        return LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static void fill(SeriesStore store, long seriesId, long start, int windows) {
+        for(long ts = start; ts < start + windows * BLOCK_SIZE; ts += INTERVAL) {
+            store.append(seriesId, ts, ts);
+        }
+    }
+
+    @Test
+    void testExpire() throws Exception {
+        SeriesStore store = new SeriesStore(BLOCK_SIZE, 2, LastValuePredictor::new);
+        long start = start();
+        for(long id = 1; id <= 3; id++) {
+            fill(store, id, start, 3);
+        }
+        store.rollover(Long.MAX_VALUE);
+
+        store.setRetention(BLOCK_SIZE);
+        store.setRetention(2L, Long.MAX_VALUE);
+        store.setRetention(3L, 0);
+
+        long now = start + 3 * BLOCK_SIZE + 1;
+        assertEquals(0, store.expire(start + BLOCK_SIZE));
+        // The windows of series 2 keep their partitions in its shard
+        assertEquals(2, store.expire(now));
+
+        assertEquals(1, store.getBlocks(1L, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        assertEquals(3, store.getBlocks(2L, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        assertEquals(0, store.getBlocks(3L, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        assertEquals(2, store.getSeriesCount());
+
+        DataPoints points = new DataPoints();
+        assertEquals(BLOCK_SIZE / INTERVAL, store.query(1L, Long.MIN_VALUE, Long.MAX_VALUE, points));
+        assertEquals(start + 2 * BLOCK_SIZE, points.getTimestamp(0));
+
+        // Nothing more to expire
+        assertEquals(0, store.expire(now));
+        assertEquals(3 * BLOCK_SIZE / INTERVAL, store.query(2L, Long.MIN_VALUE, Long.MAX_VALUE, (t, v) -> {}));
+    }
+
+    @Test
+    void testForgetIdleSeries() throws Exception {
+        SeriesStore store = new SeriesStore(BLOCK_SIZE, 1, LastValuePredictor::new);
+        Shard shard = store.shards()[0];
+        store.setRetention(BLOCK_SIZE);
+        store.setRetention(3L, 0);
+
+        long start = start();
+        for(long id = 1; id <= 3; id++) {
+            fill(store, id, start, 1);
+        }
+        store.rollover(start + BLOCK_SIZE);
+        assertEquals(3, shard.idleSeries.get(start).size());
+
+        // Writing again takes the series out of the idle ones
+        fill(store, 2L, start + 2 * BLOCK_SIZE, 1);
+        assertEquals(2, shard.idleSeries.get(start).size());
+
+        // Series 3 has a shorter retention than the others
+        store.expire(start + BLOCK_SIZE);
+        assertEquals(2, store.getSeriesCount());
+        assertEquals(1, shard.idleSeries.get(start).size());
+
+        store.expire(start + 2 * BLOCK_SIZE);
+        assertEquals(1, store.getSeriesCount());
+        assertTrue(shard.idleSeries.isEmpty());
+
+        // A forgotten series starts over
+        fill(store, 1L, start, 1);
+        assertEquals(2, store.getSeriesCount());
+    }
+
+    @Test
+    void testReuseExpiredArrays() throws Exception {
+        SeriesStore store = new SeriesStore(BLOCK_SIZE, 1, LastValuePredictor::new);
+        LongArrayPool pool = new LongArrayPool(1 << 20);
+        store.setBufferPool(pool);
+        store.setRetention(0);
+
+        long start = start();
+        fill(store, 1L, start, 2);
+        store.rollover(Long.MAX_VALUE);
+        store.expire(start + 2 * BLOCK_SIZE);
+        assertEquals(0, store.getBlocks(1L, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        assertTrue(pool.getBytes() > 0);
+
+        // New blocks are written to the released arrays, which are not cleared
+        long misses = pool.getMissCount();
+        long next = start + 2 * BLOCK_SIZE;
+        fill(store, 2L, next, 2);
+        assertTrue(pool.getHitCount() > 0);
+        assertEquals(misses, pool.getMissCount());
+
+        DataPoints points = new DataPoints();
+        assertEquals(2 * BLOCK_SIZE / INTERVAL, store.query(2L, Long.MIN_VALUE, Long.MAX_VALUE, points));
+        for(int i = 0; i < points.size(); i++) {
+            assertEquals(next + i * INTERVAL, points.getTimestamp(i));
+            assertEquals(next + i * INTERVAL, points.getLongValue(i));
+        }
+    }
+
+    @Test
+    void testReleaseAfterReaders() throws Exception {
+        SeriesStore store = new SeriesStore(BLOCK_SIZE, 1, LastValuePredictor::new);
+        LongArrayPool pool = new LongArrayPool(1 << 20);
+        store.setBufferPool(pool);
+        store.setRetention(0);
+
+        long start = start();
+        fill(store, 1L, start, 1);
+        store.rollover(Long.MAX_VALUE);
+
+        // A reader that started before the block was removed keeps its array out of the pool
+        Reclaimer reclaimer = store.reclaimer();
+        int epoch = reclaimer.enter();
+        assertEquals(1, store.expire(start + BLOCK_SIZE));
+        store.expire(start + BLOCK_SIZE);
+        long bytes = pool.getBytes();
+        reclaimer.exit(epoch);
+
+        store.expire(start + BLOCK_SIZE);
+        assertTrue(pool.getBytes() > bytes);
+    }
+}
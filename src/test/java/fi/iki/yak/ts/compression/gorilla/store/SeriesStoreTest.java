@@ -0,0 +1,138 @@
+package fi.iki.yak.ts.compression.gorilla.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import fi.iki.yak.ts.compression.gorilla.Block;
+import fi.iki.yak.ts.compression.gorilla.predictors.DifferentialFCM;
+
+/**
+ * Tests the multi-series store and its block rollover.
+ *
+ * @author Michael Burman
+ */
+public class SeriesStoreTest {
+
+    private static final long BLOCK_SIZE = TimeUnit.HOURS.toMillis(2);
+
+    private long blockStart() {
+        long now = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).toInstant(ZoneOffset.UTC).toEpochMilli();
+        return now - Math.floorMod(now, BLOCK_SIZE);
+    }
+
+    @Test
+    void testRolloverAndQuery() throws Exception {
+        SeriesStore store = new SeriesStore(BLOCK_SIZE, 4, () -> new DifferentialFCM(256));
+        long start = blockStart();
+        int amountOfPoints = 1000;
+        long interval = TimeUnit.SECONDS.toMillis(30); // 1000 points span over five block windows
+
+        for(int i = 0; i < amountOfPoints; i++) {
+            store.append(1L, start + i * interval, (double) i);
+            store.append(2L, start + i * interval, (long) -i);
+        }
+
+        List<Block> blocks = store.getBlocks(1L, start, Long.MAX_VALUE);
+        assertEquals(5, blocks.size());
+        assertEquals(start, blocks.get(0).getBlockTimestamp());
+        assertEquals(start + BLOCK_SIZE, blocks.get(1).getBlockTimestamp());
+
+        long from = start + 100 * interval;
+        long to = start + 899 * interval;
+        List<Double> values = new ArrayList<>();
+        int read = store.query(1L, from, to, (t, v) -> {
+            assertEquals(start + values.size() * interval + 100 * interval, t);
+            values.add(Double.longBitsToDouble(v));
+        });
+        assertEquals(800, read);
+        for(int i = 0; i < values.size(); i++) {
+            assertEquals(100.0 + i, values.get(i).doubleValue());
+        }
+
+        long[] sum = new long[1];
+        assertEquals(amountOfPoints, store.query(2L, Long.MIN_VALUE, Long.MAX_VALUE, (t, v) -> sum[0] += v));
+        assertEquals(-(long) amountOfPoints * (amountOfPoints - 1) / 2, sum[0]);
+
+        assertEquals(2, store.getSeriesCount());
+        assertEquals(0, store.query(3L, Long.MIN_VALUE, Long.MAX_VALUE, (t, v) -> {}));
+    }
+
+    @Test
+    void testIdleSeriesRollover() throws Exception {
+        SeriesStore store = new SeriesStore(BLOCK_SIZE);
+        long start = blockStart();
+
+        store.append(1L, start + 1, 1.0);
+        store.append(1L, start + 2, 2.0);
+
+        assertEquals(0, store.rollover(start + BLOCK_SIZE - 1));
+        assertEquals(1, store.rollover(start + BLOCK_SIZE));
+        assertEquals(0, store.rollover(start + BLOCK_SIZE));
+
+        List<Block> blocks = store.getBlocks(1L, start, start + BLOCK_SIZE);
+        assertEquals(1, blocks.size());
+        assertEquals(2, blocks.get(0).getCount());
+        assertEquals(2, Block.of(blocks.get(0).getLongArray()).getCount());
+    }
+
+    @Test
+    void testOutOfOrderRejected() throws Exception {
+        SeriesStore store = new SeriesStore(BLOCK_SIZE);
+        long start = blockStart();
+
+        store.append(1L, start + BLOCK_SIZE + 1, 1.0);
+        assertThrows(IllegalArgumentException.class, () -> store.append(1L, start + 1, 1.0));
+    }
+
+    @Test
+    void testConcurrentIngest() throws Exception {
+        SeriesStore store = new SeriesStore(BLOCK_SIZE, 8, () -> new DifferentialFCM(64));
+        long start = blockStart();
+        int threads = 4;
+        int seriesPerThread = 100;
+        int amountOfPoints = 500;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for(int t = 0; t < threads; t++) {
+                long firstSeries = t * seriesPerThread;
+                futures.add(executor.submit(() -> {
+                    for(int i = 0; i < amountOfPoints; i++) {
+                        for(long s = firstSeries; s < firstSeries + seriesPerThread; s++) {
+                            store.append(s, start + i * 60000L, s * i);
+                        }
+                    }
+                }));
+            }
+            for(Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(threads * seriesPerThread, store.getSeriesCount());
+        for(long s = 0; s < threads * seriesPerThread; s++) {
+            long series = s;
+            int[] i = new int[1];
+            assertEquals(amountOfPoints, store.query(s, Long.MIN_VALUE, Long.MAX_VALUE, (t, v) -> {
+                assertEquals(start + i[0] * 60000L, t);
+                assertEquals(series * i[0], v);
+                i[0]++;
+            }));
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package fi.iki.yak.ts.compression.gorilla.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import fi.iki.yak.ts.compression.gorilla.Block;
+import fi.iki.yak.ts.compression.gorilla.BlockSet;
+import fi.iki.yak.ts.compression.gorilla.DataPoints;
+import fi.iki.yak.ts.compression.gorilla.PairPredicate;
+import fi.iki.yak.ts.compression.gorilla.predictors.DifferentialFCM;
+
+/**
+ * Tests writing a whole store to a snapshot and loading it back.
+ *
+ * @author Michael Burman
+ */
+public class StoreSnapshotTest {
+
+    private static final long BLOCK_SIZE = TimeUnit.HOURS.toMillis(2);
+    private static final long INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+    @Test
+    void testWriteAndLoad() throws Exception {
+        long start = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).toInstant(ZoneOffset.UTC).toEpochMilli();
+        SeriesStore store = new SeriesStore(BLOCK_SIZE, 2, () -> new DifferentialFCM(64));
+        int amountOfPoints = 1000; // Four closed blocks and an open block per series
+        for(int i = 0; i < amountOfPoints; i++) {
+            for(long id = 1; id <= 3; id++) {
+                store.append(id, start + i * INTERVAL, (double) (i * id));
+            }
+        }
+        // A series without an open block
+        store.append(4L, start, 1.0);
+        store.rollover(start + BLOCK_SIZE);
+
+        Path file = Files.createTempFile("gorilla", ".snapshot");
+        try {
+            StoreSnapshot.write(store, file);
+
+            SeriesStore loaded = new SeriesStore(BLOCK_SIZE, 3, () -> new DifferentialFCM(64));
+            assertEquals(3 * 5 + 1, StoreSnapshot.load(file, loaded));
+            assertEquals(4, loaded.getSeriesCount());
+
+            List<Block> blocks = loaded.getBlocks(1L, Long.MIN_VALUE, start + 4 * BLOCK_SIZE - 1);
+            assertEquals(4, blocks.size());
+            assertEquals(Block.Tier.MAPPED, blocks.get(0).getTier());
+
+            // Appending continues the restored open blocks
+            long next = start + amountOfPoints * INTERVAL;
+            for(long id = 1; id <= 3; id++) {
+                loaded.append(id, next, (double) (amountOfPoints * id));
+            }
+            assertThrows(IllegalArgumentException.class, () -> loaded.append(4L, start - 1, 0.0));
+
+            for(long id = 1; id <= 4; id++) {
+                DataPoints expected = new DataPoints();
+                store.query(id, Long.MIN_VALUE, Long.MAX_VALUE, expected);
+                DataPoints actual = new DataPoints();
+                loaded.query(id, Long.MIN_VALUE, Long.MAX_VALUE, actual);
+                int extra = id < 4 ? 1 : 0;
+                assertEquals(expected.size() + extra, actual.size());
+                for(int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.getTimestamp(i), actual.getTimestamp(i));
+                    assertEquals(expected.getLongValue(i), actual.getLongValue(i));
+                }
+                if(extra > 0) {
+                    assertEquals(next, actual.getTimestamp(expected.size()));
+                    assertEquals((double) (amountOfPoints * id),
+                            Double.longBitsToDouble(actual.getLongValue(expected.size())));
+                }
+            }
+
+            // A loaded snapshot can be replaced while its blocks are in use
+            StoreSnapshot.write(loaded, file);
+            assertEquals(amountOfPoints + 1, loaded.query(1L, Long.MIN_VALUE, Long.MAX_VALUE, (t, v) -> {}));
+
+            // The mapped blocks are written from their buffers
+            SeriesStore reloaded = new SeriesStore(BLOCK_SIZE, 2, () -> new DifferentialFCM(64));
+            assertEquals(3 * 5 + 1, StoreSnapshot.load(file, reloaded));
+            for(long id = 1; id <= 4; id++) {
+                DataPoints expected = new DataPoints();
+                loaded.query(id, Long.MIN_VALUE, Long.MAX_VALUE, expected);
+                DataPoints actual = new DataPoints();
+                reloaded.query(id, Long.MIN_VALUE, Long.MAX_VALUE, actual);
+                assertEquals(expected.size(), actual.size());
+                for(int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.getTimestamp(i), actual.getTimestamp(i));
+                    assertEquals(expected.getLongValue(i), actual.getLongValue(i));
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void testFilterAfterLoad() throws Exception {
+        long start = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).toInstant(ZoneOffset.UTC).toEpochMilli();
+        SeriesStore store = new SeriesStore(BLOCK_SIZE, 1, () -> new DifferentialFCM(64));
+        int amountOfPoints = 1000; // Four closed blocks of 240 points and an open block of 40
+        for(int i = 0; i < amountOfPoints; i++) {
+            store.append(1L, start + i * INTERVAL, (double) i);
+        }
+
+        Path file = Files.createTempFile("gorilla", ".snapshot");
+        try {
+            StoreSnapshot.write(store, file);
+            SeriesStore loaded = new SeriesStore(BLOCK_SIZE, 1, () -> new DifferentialFCM(64));
+            StoreSnapshot.load(file, loaded);
+
+            List<Block> original = store.getBlocks(1L, Long.MIN_VALUE, Long.MAX_VALUE);
+            List<Block> blocks = loaded.getBlocks(1L, Long.MIN_VALUE, Long.MAX_VALUE);
+            assertEquals(5, blocks.size());
+            for(int b = 0; b < blocks.size(); b++) {
+                assertEquals(original.get(b).getMinValue(), blocks.get(b).getMinValue());
+                assertEquals(original.get(b).getMaxValue(), blocks.get(b).getMaxValue());
+            }
+
+            // The restored open block keeps the range of its persisted points
+            loaded.append(1L, start + amountOfPoints * INTERVAL, (double) amountOfPoints);
+            loaded.rollover(Long.MAX_VALUE);
+            blocks = loaded.getBlocks(1L, Long.MIN_VALUE, Long.MAX_VALUE);
+            assertEquals(960.0, blocks.get(4).getMinValue());
+            assertEquals(1000.0, blocks.get(4).getMaxValue());
+
+            // Only the last block has values above the threshold, the others are skipped without decompressing
+            int[] tested = { 0 };
+            PairPredicate above = PairPredicate.doubleAbove(960.0);
+            PairPredicate counting = new PairPredicate() {
+                @Override
+                public boolean test(long timestamp, long value) {
+                    tested[0]++;
+                    return above.test(timestamp, value);
+                }
+
+                @Override
+                public boolean mayMatch(double minValue, double maxValue) {
+                    return above.mayMatch(minValue, maxValue);
+                }
+            };
+            assertEquals(40, new BlockSet(blocks, () -> new DifferentialFCM(64))
+                    .filter(Long.MIN_VALUE, Long.MAX_VALUE, counting, new DataPoints()));
+            assertEquals(41, tested[0]);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void testInvalidSnapshot() throws Exception {
+        Path file = Files.createTempFile("gorilla", ".snapshot");
+        try {
+            Files.write(file, new byte[64]);
+            assertThrows(IOException.class, () -> StoreSnapshot.load(file, new SeriesStore(BLOCK_SIZE)));
+
+            StoreSnapshot.write(new SeriesStore(BLOCK_SIZE), file);
+            assertThrows(IllegalArgumentException.class,
+                    () -> StoreSnapshot.load(file, new SeriesStore(BLOCK_SIZE * 2)));
+            assertEquals(0, StoreSnapshot.load(file, new SeriesStore(BLOCK_SIZE)));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
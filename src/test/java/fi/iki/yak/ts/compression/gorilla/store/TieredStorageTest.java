@@ -0,0 +1,86 @@
+package fi.iki.yak.ts.compression.gorilla.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import fi.iki.yak.ts.compression.gorilla.Block;
+import fi.iki.yak.ts.compression.gorilla.DataPoints;
+import fi.iki.yak.ts.compression.gorilla.predictors.DifferentialFCM;
+
+/**
+ * Tests moving blocks between the storage tiers.
+ *
+ * @author Michael Burman
+ */
+public class TieredStorageTest {
+
+    private static final long BLOCK_SIZE = TimeUnit.HOURS.toMillis(2);
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    @Test
+    void testDemoteAndPromote() throws Exception {
+        SeriesStore store = new SeriesStore(BLOCK_SIZE, 2, () -> new DifferentialFCM(64));
+        long now = System.currentTimeMillis();
+        long start = now - 10 * DAY - Math.floorMod(now, BLOCK_SIZE);
+        int amountOfPoints = (int) (10 * DAY / INTERVAL);
+        for(int i = 0; i < amountOfPoints; i++) {
+            store.append(1L, start + i * INTERVAL, (double) i);
+            store.append(2L, start + i * INTERVAL, (long) i);
+        }
+
+        Path directory = Files.createTempDirectory("gorilla-tiers");
+        try {
+            TieredStorage tiers = new TieredStorage(store, directory, DAY, 5 * DAY);
+            assertTrue(tiers.demote(now) > 0);
+
+            List<Block> blocks = store.getBlocks(1L, Long.MIN_VALUE, Long.MAX_VALUE);
+            for(Block block : blocks) {
+                long end = block.getBlockTimestamp() + BLOCK_SIZE;
+                Block.Tier expected = end <= now - 5 * DAY ? Block.Tier.MAPPED
+                        : end <= now - DAY ? Block.Tier.OFF_HEAP : Block.Tier.HEAP;
+                assertEquals(expected, block.getTier(), "Block starting at " + block.getBlockTimestamp());
+            }
+
+            // Decoders read every tier the same way
+            DataPoints points = store.getBlockSet(1L, Long.MIN_VALUE, Long.MAX_VALUE)
+                    .scan(Long.MIN_VALUE, Long.MAX_VALUE);
+            assertEquals(amountOfPoints, points.size());
+            for(int i = 0; i < amountOfPoints; i++) {
+                assertEquals(start + i * INTERVAL, points.getTimestamp(i));
+                assertEquals((double) i, points.getDoubleValue(i));
+            }
+
+            // Reading promotes the blocks back to the heap
+            long[] sum = new long[1];
+            assertEquals(amountOfPoints, store.query(2L, start, now, (t, v) -> sum[0] += v));
+            assertEquals((long) amountOfPoints * (amountOfPoints - 1) / 2, sum[0]);
+            assertTrue(tiers.getPromotionCount() > 0);
+            for(Block block : store.getBlocks(2L, Long.MIN_VALUE, Long.MAX_VALUE)) {
+                assertEquals(Block.Tier.HEAP, block.getTier());
+            }
+
+            // Recently read blocks are not demoted again
+            tiers.demote(now);
+            for(Block block : store.getBlocks(2L, Long.MIN_VALUE, Long.MAX_VALUE)) {
+                assertEquals(Block.Tier.HEAP, block.getTier());
+            }
+            assertEquals(amountOfPoints, store.query(1L, start, now, (t, v) -> {}));
+        } finally {
+            try(Stream<Path> files = Files.walk(directory)) {
+                for(Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+}
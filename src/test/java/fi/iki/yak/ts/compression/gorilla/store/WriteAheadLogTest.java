@@ -0,0 +1,155 @@
+package fi.iki.yak.ts.compression.gorilla.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests appending to the write-ahead log from multiple threads and replaying it.
+ *
+ * @author Michael Burman
+ */
+public class WriteAheadLogTest {
+
+    private static final long BLOCK_SIZE = TimeUnit.HOURS.toMillis(2);
+
+    private void delete(Path directory) throws IOException {
+        try(Stream<Path> files = Files.walk(directory)) {
+            for(Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    void testGroupCommitAndReplay() throws Exception {
+        Path directory = Files.createTempDirectory("gorilla-wal");
+        int writers = 4;
+        int amountOfPoints = 2000;
+        long start = 0;
+
+        try {
+            ExecutorService executor = Executors.newFixedThreadPool(writers);
+            try(WriteAheadLog wal = new WriteAheadLog(directory)) {
+                List<Future<?>> futures = new ArrayList<>();
+                for(int w = 0; w < writers; w++) {
+                    long seriesId = w;
+                    futures.add(executor.submit(() -> {
+                        for(int i = 0; i < amountOfPoints; i++) {
+                            wal.append(seriesId, start + i * 1000, Double.doubleToRawLongBits(i));
+                        }
+                        return null;
+                    }));
+                }
+                for(Future<?> future : futures) {
+                    future.get();
+                }
+            } finally {
+                executor.shutdown();
+            }
+
+            // A torn batch at the end of the log is ignored
+            try(Stream<Path> files = Files.list(directory)) {
+                Path last = files.max(Comparator.naturalOrder()).get();
+                Files.write(last, new byte[] { 0, 0, 0, 10, 1, 2, 3, 4, 5 }, StandardOpenOption.APPEND);
+            }
+
+            SeriesStore store = new SeriesStore(BLOCK_SIZE);
+            assertEquals(writers * amountOfPoints, WriteAheadLog.replay(directory, store));
+            for(long id = 0; id < writers; id++) {
+                int[] i = { 0 };
+                assertEquals(amountOfPoints, store.query(id, Long.MIN_VALUE, Long.MAX_VALUE, (t, v) -> {
+                    assertEquals(start + i[0] * 1000, t);
+                    assertEquals((double) i[0], Double.longBitsToDouble(v));
+                    i[0]++;
+                }));
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    void testSyncIntervalBatchesAppends() throws Exception {
+        Path directory = Files.createTempDirectory("gorilla-wal");
+        int amountOfPoints = 50;
+        try {
+            long started = System.nanoTime();
+            try(WriteAheadLog wal = new WriteAheadLog(directory, 500, WriteAheadLog.DEFAULT_SEGMENT_SIZE)) {
+                for(int i = 0; i < amountOfPoints; i++) {
+                    wal.append(0, i, i);
+                    Thread.sleep(2);
+                }
+                wal.sync();
+            }
+            long intervals = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) / 500 + 1;
+
+            // Every batch of the log is one sync, the appends of one interval share it
+            int[] batches = { 0 };
+            assertEquals(amountOfPoints, WriteAheadLog.replay(directory, (s, t, v, l) -> batches[0]++));
+            assertTrue(batches[0] <= intervals, "Expected at most " + intervals + " syncs, got " + batches[0]);
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    void testSegmentsAndTruncate() throws Exception {
+        Path directory = Files.createTempDirectory("gorilla-wal");
+        try {
+            long[] ids = new long[100];
+            long[] timestamps = new long[100];
+            long[] values = new long[100];
+            try(WriteAheadLog wal = new WriteAheadLog(directory, 10, 1024)) {
+                for(int batch = 0; batch < 10; batch++) {
+                    for(int i = 0; i < 100; i++) {
+                        ids[i] = i % 3;
+                        timestamps[i] = batch * 100 + i;
+                        values[i] = i;
+                    }
+                    wal.append(ids, timestamps, values, 100);
+                    wal.sync();
+                }
+                assertTrue(wal.getSegmentCount() > 1);
+
+                int segments = wal.getSegmentCount();
+                assertEquals(0, wal.truncate(0));
+                int deleted = wal.truncate(500);
+                assertTrue(deleted > 0);
+                assertEquals(segments - deleted, wal.getSegmentCount());
+            }
+
+            long[] first = { Long.MAX_VALUE };
+            long replayed = WriteAheadLog.replay(directory, (seriesIds, ts, vs, length) -> {
+                for(int i = 0; i < length; i++) {
+                    first[0] = Math.min(first[0], ts[i]);
+                }
+            });
+            assertEquals(500, first[0]); // Every batch fills a segment
+            assertEquals(1000 - first[0], replayed);
+
+            // Reopening continues with a new segment
+            try(WriteAheadLog wal = new WriteAheadLog(directory, 0, 1024)) {
+                wal.append(0, 1000, 0);
+                assertEquals(1000 - first[0] + 1, WriteAheadLog.replay(directory, (s, t, v, l) -> {}));
+                assertEquals(wal.getSegmentCount() - 1, wal.truncate(Long.MAX_VALUE));
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package fi.iki.yak.ts.compression.gorilla.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import fi.iki.yak.ts.compression.gorilla.predictors.LastValuePredictor;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Tests the Flight Recorder events and the decode histogram of the SeriesStore.
+ *
+ * @author Michael Burman
+ */
+public class BlockEventsTest {
+
+    private static final long BLOCK_SIZE = TimeUnit.HOURS.toMillis(2);
+
+    private static List<RecordedEvent> events(List<RecordedEvent> events, String name) {
+        return events.stream()
+                .filter(e -> e.getEventType().getName().equals("fi.iki.yak.gorilla." + name))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    void testEvents() throws Exception {
+        long start = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).toInstant(ZoneOffset.UTC).toEpochMilli();
+        SeriesStore store = new SeriesStore(BLOCK_SIZE, 1, LastValuePredictor::new);
+        LatencyHistogram histogram = new LatencyHistogram();
+        store.setDecodeHistogram(histogram);
+
+        Path file = Files.createTempFile("gorilla", ".jfr");
+        try(Recording recording = new Recording()) {
+            for(String name : new String[] { "BlockOpen", "BlockClose", "BlockDecode" }) {
+                recording.enable("fi.iki.yak.gorilla." + name).withThreshold(java.time.Duration.ZERO);
+            }
+            recording.start();
+
+            // Two closed blocks and an open one
+            for(long ts = start; ts < start + 5 * BLOCK_SIZE / 2; ts += TimeUnit.MINUTES.toMillis(1)) {
+                store.append(7, ts, ts);
+            }
+            assertEquals(300, store.query(7, start, Long.MAX_VALUE, (t, v) -> {}));
+
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            assertEquals(3, events(events, "BlockOpen").size());
+
+            List<RecordedEvent> closed = events(events, "BlockClose");
+            assertEquals(2, closed.size());
+            for(RecordedEvent event : closed) {
+                assertEquals(7, event.getLong("seriesId"));
+                assertEquals(120, event.getInt("points"));
+                assertTrue(event.getLong("bytes") > 0);
+            }
+
+            List<RecordedEvent> decoded = events(events, "BlockDecode");
+            assertEquals(3, decoded.size());
+            assertEquals(1, decoded.stream().filter(e -> e.getBoolean("open")).count());
+            assertEquals(300, decoded.stream().mapToInt(e -> e.getInt("points")).sum());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+
+        assertEquals(3, histogram.getCount());
+    }
+}